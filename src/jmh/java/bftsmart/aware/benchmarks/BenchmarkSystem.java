@@ -0,0 +1,76 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.optilog.monitors.LatencyMatrix;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * A system of n replicas with the largest possible f (n = 3f + 1 + delta) whose latencies are taken from the measured
+ * latency matrices in data/: the AWS regions for up to 21 replicas, the WonderProxy locations for up to 50 replicas.
+ * The round trip times in ms are converted to one-way latencies in ns, as measured by the LatencyMonitor.
+ *
+ * @author cb
+ */
+public class BenchmarkSystem {
+
+    public static final String AWS_LATENCIES = "./data/aws/aws-latencies.csv";
+    public static final int AWS_SIZE = 21;
+
+    public static final String WONDERPROXY_LATENCIES = "./data/wonderProxy/wonderProxy-latencies.csv";
+    public static final int WONDERPROXY_SIZE = 50;
+
+    public final int n;
+    public final int f;
+    public final int delta;
+    public final int u;
+    public final int[] replicaSet;
+    public final long[][] latencies;
+
+    /**
+     * Creates a BFT system of n replicas
+     *
+     * @param n system size, at most 50
+     * @throws IOException if the latency matrix cannot be read (benchmarks have to run in the project directory)
+     */
+    public BenchmarkSystem(int n) throws IOException {
+        if (n < 4 || n > WONDERPROXY_SIZE) {
+            throw new IllegalArgumentException("Latencies are available for 4 to " + WONDERPROXY_SIZE + " replicas");
+        }
+        this.n = n;
+        this.f = (n - 1) / 3;
+        this.delta = n - 1 - 3 * f;
+        this.u = 2 * f;
+        this.replicaSet = new int[n];
+        for (int i = 0; i < n; i++) {
+            replicaSet[i] = i;
+        }
+        this.latencies = n <= AWS_SIZE ? readMatrix(AWS_LATENCIES, n) : readMatrix(WONDERPROXY_LATENCIES, n);
+    }
+
+    /**
+     * @return the latencies in the format maintained by the LatencyMonitor
+     */
+    public LatencyMatrix latencyMatrix() {
+        return LatencyMatrix.of(latencies);
+    }
+
+    /**
+     * Reads the first n rows and columns of a matrix of round trip times in ms
+     *
+     * @return one-way latencies in ns
+     */
+    private static long[][] readMatrix(String filename, int n) throws IOException {
+        long[][] matrix = new long[n][n];
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            for (int i = 0; i < n; i++) {
+                String[] line = reader.readLine().split(",");
+                for (int j = 0; j < n; j++) {
+                    matrix[i][j] = Math.round(Double.parseDouble(line[j].trim()) * 1000000.00 / 2);
+                }
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,61 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.ExhaustiveSearchStrategy;
+import bftsmart.aware.decisions.ParallelExhaustiveSearch;
+import bftsmart.aware.decisions.SearchBudget;
+import bftsmart.aware.decisions.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exhaustive search as run by AwareController.computeBest for small systems: all weight configurations, every replica
+ * in R_max as leader, single-threaded. The search space grows with C(n, 2f), so only systems up to 16 replicas are
+ * benchmarked by default.
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExhaustiveSearchBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    @Param({"4", "7", "10", "13", "16"})
+    public int n;
+
+    // Branch and bound pruning factor, 0 disables pruning
+    @Param({"0.0", "1.0"})
+    public double pruningFactor;
+
+    private BenchmarkSystem system;
+    private ExhaustiveSearchStrategy strategy;
+
+    @Setup
+    public void setup() throws IOException {
+        system = new BenchmarkSystem(n);
+        strategy = new ExhaustiveSearchStrategy(new ParallelExhaustiveSearch(), true, ROUNDS, true, false,
+                pruningFactor, null);
+    }
+
+    @Benchmark
+    public SearchResult exhaustiveSearch() {
+        return strategy.search(n, system.f, system.delta, system.u, system.replicaSet, system.latencies,
+                system.latencies, null, 0, 0L, null, SearchBudget.unlimited());
+    }
+}
@@ -0,0 +1,67 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.AnnealingStrategy;
+import bftsmart.aware.decisions.SearchBudget;
+import bftsmart.aware.decisions.SearchResult;
+import bftsmart.aware.decisions.Simulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heuristic searches for the best weight configuration and leader: Simulated Annealing (as run by
+ * AwareController.computeBest for large systems) and Tabu Search. Both use a fixed seed, so every run explores the same
+ * configurations.
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeuristicSearchBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    // Number of configurations examined by Tabu Search, same as in FindOptimalWeightConfigTest
+    private static final int TABU_EXAMINED = 1160;
+
+    private static final long SEED = 500;
+
+    @Param({"4", "7", "10", "13", "16", "21", "25", "31"})
+    public int n;
+
+    private BenchmarkSystem system;
+    private AnnealingStrategy annealing;
+
+    @Setup
+    public void setup() throws IOException {
+        system = new BenchmarkSystem(n);
+        annealing = new AnnealingStrategy(ROUNDS, true);
+    }
+
+    @Benchmark
+    public SearchResult simulatedAnnealing() {
+        return annealing.search(n, system.f, system.delta, system.u, system.replicaSet, system.latencies,
+                system.latencies, null, 0, SEED, null, SearchBudget.unlimited());
+    }
+
+    @Benchmark
+    public Simulator.SimulationRun tabuSearch() {
+        return Simulator.tabuSearch(n, system.f, system.delta, system.u, system.replicaSet, system.latencies,
+                system.latencies, TABU_EXAMINED, SEED);
+    }
+}
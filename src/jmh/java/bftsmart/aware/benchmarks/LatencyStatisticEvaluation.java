@@ -0,0 +1,135 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+import bftsmart.optilog.monitors.LatencyMatrix;
+import bftsmart.optilog.monitors.LatencyMonitor;
+import bftsmart.optilog.sensors.LatencyStatistic;
+import bftsmart.optilog.sensors.LatencyWindow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares how accurately the consensus latency is predicted when replicas disseminate different statistics of their
+ * measured latencies (see {@link LatencyStatistic}). This is an accuracy rather than a timing benchmark, so it is a
+ * plain program instead of a JMH benchmark:
+ * <pre>
+ *   ./gradlew evaluateLatencyStatistics -PevaluationArgs="[n] [instances] [seed]"
+ * </pre>
+ * Link latencies are the ones of the {@link BenchmarkSystem} plus jitter and, per link, a heavy tail of random
+ * strength. Every replica fills a monitoring window with samples of every link, computes its latency vector with each
+ * statistic, and the simulator predicts the consensus latency from the sanitized matrices. The prediction is compared
+ * with the observed latencies of consensus instances, which are simulated with freshly drawn latencies per message.
+ * Two scenarios are evaluated: stable latencies, and latencies that increase by 30% during the last quarter of the
+ * monitoring window (and stay increased), where the statistics that react faster should be more accurate.
+ *
+ * @author cb
+ */
+public class LatencyStatisticEvaluation {
+
+    private static final String[] STATISTICS = {"median", "p75", "p90", "p99", "ewma", "ewma:0.05", "trimmedMean"};
+
+    private static final int WINDOW = 400;
+    private static final double JITTER = 0.02;
+    private static final double TAIL_PROBABILITY = 0.1;
+    private static final double SHIFT = 1.3;
+
+    private final BenchmarkSystem system;
+    private final Random random;
+    private final double[][] tails;
+
+    private LatencyStatisticEvaluation(BenchmarkSystem system, long seed) {
+        this.system = system;
+        this.random = new Random(seed);
+        this.tails = new double[system.n][system.n];
+        for (double[] row : tails) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        int instances = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        LatencyStatisticEvaluation evaluation = new LatencyStatisticEvaluation(new BenchmarkSystem(n), seed);
+        evaluation.run("stable latencies", 1.0, instances);
+        evaluation.run("latencies increased by 30% in the last quarter of the window", SHIFT, instances);
+    }
+
+    private void run(String scenario, double shift, int instances) {
+        int n = system.n;
+        WeightConfiguration weights = new WeightConfiguration(system.u, system.replicaSet);
+        Simulator simulator = new Simulator(null);
+
+        // Every replica monitors every link
+        LatencyWindow[][] windows = new LatencyWindow[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                windows[i][j] = new LatencyWindow(WINDOW);
+                for (int instance = 0; instance < WINDOW; instance++) {
+                    double factor = instance >= WINDOW * 3 / 4 ? shift : 1.0;
+                    long latency = sample(i, j, factor);
+                    windows[i][j].addSentTime(instance, 0L);
+                    windows[i][j].addRecvdTime(instance, 2 * latency);
+                }
+            }
+        }
+
+        // Observed latencies of consensus instances after the monitoring window
+        long[] observed = new long[instances];
+        long[][] m = new long[n][n];
+        for (int k = 0; k < instances; k++) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    m[i][j] = sample(i, j, shift);
+                }
+            }
+            observed[k] = simulator.predictLatency(system.replicaSet, 0, weights, m, m, n, system.f, system.delta);
+        }
+        Arrays.sort(observed);
+        double mean = Arrays.stream(observed).average().orElse(0);
+        long p90 = observed[Math.min(instances - 1, (int) (0.9 * instances))];
+
+        System.out.println("n = " + n + ", " + scenario + ": observed consensus latency mean "
+                + millis(mean) + " ms, p90 " + millis(p90) + " ms");
+        System.out.println(String.format("%-14s %12s %16s %16s", "statistic", "predicted ms", "error vs mean %",
+                "error vs p90 %"));
+        for (String name : STATISTICS) {
+            LatencyStatistic statistic = LatencyStatistic.parse(name);
+            long[][] estimates = new long[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    estimates[i][j] = i == j ? 0 : statistic.estimate(windows[i][j], LatencyMonitor.MISSING_VALUE);
+                }
+            }
+            long[][] sanitized = LatencyMatrix.of(estimates).sanitize().toArray();
+            long predicted = simulator.predictLatency(system.replicaSet, 0, weights, sanitized, sanitized, n,
+                    system.f, system.delta);
+            System.out.println(String.format("%-14s %12.2f %16.2f %16.2f", name, millis(predicted),
+                    100.0 * (predicted - mean) / mean, 100.0 * (predicted - p90) / p90));
+        }
+        System.out.println();
+    }
+
+    // Draws the latency of a single message from i to j
+    private long sample(int i, int j, double factor) {
+        if (i == j) {
+            return 0;
+        }
+        double base = system.latencies[i][j] * factor;
+        double latency = base * (1 + JITTER * random.nextGaussian());
+        if (random.nextDouble() < TAIL_PROBABILITY) {
+            latency += base * tails[i][j] * -Math.log(1 - random.nextDouble());
+        }
+        return Math.max(0, Math.round(latency));
+    }
+
+    private static double millis(double ns) {
+        return Math.round(ns / 10000.0) / 100.0;
+    }
+}
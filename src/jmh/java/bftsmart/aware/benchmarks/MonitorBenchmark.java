@@ -0,0 +1,95 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.optilog.monitors.LatencyMatrix;
+import bftsmart.optilog.monitors.SuspicionGraph;
+import bftsmart.optilog.sensors.SuspicionMeasurement;
+import bftsmart.optilog.sensors.SuspicionType;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.reconfiguration.views.View;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inputs of the AWARE decision that are prepared by the OptiLog monitors: sanitizing the latency matrices and
+ * computing the candidate set of the suspicion graph.
+ * <p>
+ * The suspicion graph needs a view controller; it is created from the configuration in config/ (with replica ID 0) and
+ * then reconfigured to a view of n replicas.
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorBenchmark {
+
+    @Param({"4", "7", "10", "13", "16", "21", "25", "31"})
+    public int n;
+
+    private BenchmarkSystem system;
+    private SuspicionGraph suspicionGraph;
+    private LatencyMatrix latencies;
+
+    @Setup
+    public void setup() throws IOException {
+        system = new BenchmarkSystem(n);
+        latencies = system.latencyMatrix();
+
+        ServerViewController svc = new ServerViewController(0, "", null);
+        InetSocketAddress[] addresses = new InetSocketAddress[n];
+        for (int i = 0; i < n; i++) {
+            addresses[i] = InetSocketAddress.createUnresolved("127.0.0.1", 11000 + 10 * i);
+        }
+        svc.reconfigureTo(new View(svc.getCurrentViewId() + 1, system.replicaSet, system.f, addresses, true,
+                system.delta));
+
+        // Every one of f faulty replicas and f random replicas suspect each other
+        suspicionGraph = new SuspicionGraph(svc);
+        Random random = new Random(n);
+        List<SuspicionMeasurement> suspicions = new ArrayList<>();
+        for (int faulty = 0; faulty < system.f; faulty++) {
+            for (int k = 0; k < system.f; k++) {
+                int other = random.nextInt(n);
+                suspicions.add(suspicion(faulty, other));
+                suspicions.add(suspicion(other, faulty));
+            }
+        }
+        suspicionGraph.populate(suspicions);
+    }
+
+    private static SuspicionMeasurement suspicion(int reporter, int suspect) {
+        SuspicionMeasurement measurement = new SuspicionMeasurement(suspect, SuspicionType.SLOW, 'W', 0);
+        measurement.setReporter(reporter);
+        return measurement;
+    }
+
+    @Benchmark
+    public LatencyMatrix sanitize() {
+        return latencies.sanitize();
+    }
+
+    @Benchmark
+    public Set<Integer> candidateSet() {
+        return suspicionGraph.candidateSet();
+    }
+}
@@ -0,0 +1,79 @@
+package bftsmart.aware.benchmarks;
+
+import bftsmart.aware.decisions.Simulator;
+import bftsmart.aware.decisions.WeightConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency prediction of a single weight configuration, the building block of every search strategy
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatorBenchmark {
+
+    // Number of consensus rounds simulated by the AwareController
+    private static final int ROUNDS = 10;
+
+    // Number of weight configurations predicted together by predictLatencies
+    private static final int BATCH = 64;
+
+    @Param({"4", "7", "10", "13", "16", "21", "25", "31"})
+    public int n;
+
+    private BenchmarkSystem system;
+    private Simulator simulator;
+    private WeightConfiguration weightConfig;
+    private long[] rMaxes;
+
+    @Setup
+    public void setup() throws IOException {
+        system = new BenchmarkSystem(n);
+        simulator = new Simulator(null);
+        weightConfig = new WeightConfiguration(system.u, system.replicaSet);
+
+        // Random weight configurations, the same in every run
+        Random random = new Random(n);
+        rMaxes = new long[BATCH];
+        for (int k = 0; k < BATCH; k++) {
+            long rMax = 0L;
+            while (Long.bitCount(rMax) < system.u) {
+                rMax |= 1L << random.nextInt(n);
+            }
+            rMaxes[k] = rMax;
+        }
+    }
+
+    @Benchmark
+    public long predictLatency() {
+        return simulator.predictLatency(system.replicaSet, 0, weightConfig, system.latencies, system.latencies, n,
+                system.f, system.delta, ROUNDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] predictLatencies() {
+        return simulator.predictLatencies(system.replicaSet, 0, rMaxes, system.latencies, system.latencies, n,
+                system.f, system.delta, ROUNDS);
+    }
+}
@@ -0,0 +1,108 @@
+package bftsmart.communication.benchmarks;
+
+import bftsmart.communication.MessageCodec;
+import bftsmart.communication.SystemMessage;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of consensus messages with the {@link MessageCodec} compared to Java object serialization,
+ * which the replicas used before. The encoded sizes are printed once per trial.
+ * <p>
+ * A WRITE (or ACCEPT) carries the 32 byte hash of the proposed value and, if the replica signs its votes, a
+ * signature; a PROPOSE carries the batch.
+ *
+ * @author cb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"WRITE", "SIGNED_WRITE", "PROPOSE"})
+    public String message;
+
+    @Param({"1024"})
+    public int batchSize;
+
+    private SystemMessage sm;
+    private byte[] codecBytes;
+    private byte[] javaBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        MessageFactory factory = new MessageFactory(1);
+        ConsensusMessage cm;
+        if (message.equals("PROPOSE")) {
+            byte[] batch = new byte[batchSize];
+            random.nextBytes(batch);
+            cm = factory.createPropose(100, 0, batch);
+        } else {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            cm = factory.createWrite(100, 0, hash);
+            if (message.equals("SIGNED_WRITE")) {
+                byte[] signature = new byte[256];
+                random.nextBytes(signature);
+                cm.setProof(signature);
+            }
+        }
+        cm.setChallenge(random.nextInt(1000000000));
+        sm = cm;
+        codecBytes = MessageCodec.encode(sm);
+        javaBytes = javaSerialization();
+        System.out.println();
+        System.out.println(message + ": codec " + codecBytes.length + " bytes, Java serialization "
+                + javaBytes.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() throws IOException {
+        return MessageCodec.encode(sm);
+    }
+
+    @Benchmark
+    public byte[] encodeJavaSerialization() throws IOException {
+        return javaSerialization();
+    }
+
+    @Benchmark
+    public SystemMessage decodeCodec() throws IOException, ClassNotFoundException {
+        return MessageCodec.decode(codecBytes);
+    }
+
+    @Benchmark
+    public SystemMessage decodeJavaSerialization() throws IOException, ClassNotFoundException {
+        return (SystemMessage) new ObjectInputStream(new ByteArrayInputStream(javaBytes)).readObject();
+    }
+
+    // The former path of ServersCommunicationLayer.send
+    private byte[] javaSerialization() throws IOException {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
+        new ObjectOutputStream(bOut).writeObject(sm);
+        return bOut.toByteArray();
+    }
+}
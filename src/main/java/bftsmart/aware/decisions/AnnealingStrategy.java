@@ -0,0 +1,40 @@
+package bftsmart.aware.decisions;
+
+import java.util.Set;
+
+/**
+ * Finds a good configuration using a single chain of Simulated Annealing. The chain is run by
+ * {@link MultiChainAnnealing}, which follows the same path as
+ * {@link Simulator#simulatedAnnealing(int, int, int, int, int[], long[][], long[][], long, Set, AwareConfiguration)}
+ * in the BFT case, but also simulates the CFT protocol and can shorten its schedule if the search budget is limited.
+ *
+ * @author cb
+ */
+public class AnnealingStrategy implements AwareSearchStrategy {
+
+    public static final String NAME = "annealing";
+
+    private final MultiChainAnnealing chain;
+
+    /**
+     * Creates a new Simulated Annealing strategy
+     *
+     * @param rounds number of consensus rounds used for calculation of amortized costs
+     * @param isBFT  whether the BFT or the CFT protocol is simulated
+     */
+    public AnnealingStrategy(int rounds, boolean isBFT) {
+        this.chain = new MultiChainAnnealing(1, null, rounds, isBFT);
+    }
+
+    @Override
+    public SearchResult search(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                               Set<Integer> candidates, int leader, long seed, AwareConfiguration start,
+                               SearchBudget budget) {
+        return chain.search(n, f, delta, u, replicaSet, propose, write, candidates, leader, seed, start, budget);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -12,6 +12,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -43,12 +48,28 @@ public class AwareController {
 
     private Simulator simulator;
 
+    private final IncrementalOptimizer optimizer;
+    private final AwareSearchStrategy exhaustiveStrategy;
+    private final AwareSearchStrategy heuristicStrategy;
+    private final AwareSearchStrategy configuredStrategy; // null: choose by system size
+
+    // Budget of the current search and metrics on how often budgets were exceeded
+    private volatile SearchBudget searchBudget;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong budgetHits = new AtomicLong();
+    private final AtomicLong deadlineMisses = new AtomicLong();
+    private final AtomicLong reconfigurationWaits = new AtomicLong();
+
     public ServerViewController svc;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private ReentrantLock computationCompletedLock = new ReentrantLock();
 
+    // Runs the computation of the best config and periodic tasks in the background
+    private final OptimizerExecutor executor;
+    private volatile Future<?> computation;
+
     private int lastReconfigurationCID = -1;
 
     /**
@@ -73,59 +94,55 @@ public class AwareController {
         this.viewControl = viewControl;
         this.executionManager = executionManager;
         this.simulator = new Simulator(viewControl);
+        this.optimizer = new IncrementalOptimizer(viewControl.getStaticConf().isIncrementalReoptimization(),
+                ROUNDS_AMORTIZATION, viewControl.getStaticConf().isBFT());
+
+        // Search strategies: configurations that provably cannot beat the best one found so far times the
+        // optimization goal are pruned (branch and bound). The median is only needed for evaluations
+        // (system.aware.computeMedian), it must not depend on the log level since it changes the search.
+        double pruningFactor = viewControl.getStaticConf().isUseSearchPruning()
+                ? Math.max(1.0, viewControl.getStaticConf().getOptimizationGoal()) : ParallelExhaustiveSearch.NO_PRUNING;
+        this.executor = OptimizerExecutor.getInstance(viewControl);
+        ForkJoinPool searchPool = executor.getSearchPool();
+        int chains = viewControl.getStaticConf().getAnnealingChains();
+        this.heuristicStrategy = chains > 1
+                ? new MultiChainAnnealing(chains, searchPool, ROUNDS_AMORTIZATION, viewControl.getStaticConf().isBFT())
+                : new AnnealingStrategy(ROUNDS_AMORTIZATION, viewControl.getStaticConf().isBFT());
+        this.exhaustiveStrategy = new ExhaustiveSearchStrategy(new ParallelExhaustiveSearch(searchPool),
+                viewControl.getStaticConf().isUseLeaderSelection(), ROUNDS_AMORTIZATION,
+                viewControl.getStaticConf().isBFT(), viewControl.getStaticConf().isComputeMedian(), pruningFactor,
+                heuristicStrategy);
+        this.configuredStrategy = createSearchStrategy(viewControl.getStaticConf().getSearchStrategy(), chains,
+                searchPool);
 
         // Debug
         // Periodically outputs current configuration
-        Timer timer = new Timer();
         final int[] cid = {0};
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (executionManager.getLastExec() - cid[0] >= 100) {
-                    logger.info("[OptiLog] Controller of id=" + svc.getStaticConf().getProcessId()
-                            + ": currently using weights " + instance.getCurrent()
-                            + ", leader " + executionManager.getCurrentLeader()
-                            + ", view " + svc.getCurrentView().getId()
-                            + ", last executed consensus " + executionManager.getLastExec());
-                    cid[0] = executionManager.getLastExec();
-                }
+        executor.scheduleAtFixedRate(() -> {
+            if (executionManager.getLastExec() - cid[0] >= 100) {
+                LatencyExpectationCache expectations = LatencyExpectationCache.getInstance(svc);
+                logger.info("[OptiLog] Controller of id=" + svc.getStaticConf().getProcessId()
+                        + ": currently using weights " + instance.getCurrent()
+                        + ", leader " + executionManager.getCurrentLeader()
+                        + ", view " + svc.getCurrentView().getId()
+                        + ", last executed consensus " + executionManager.getLastExec()
+                        + ", latency expectation cache hits " + expectations.getHits()
+                        + " of " + (expectations.getHits() + expectations.getMisses()));
+                cid[0] = executionManager.getLastExec();
             }
         }, 10 * 1000, 5 * 1000);
     }
 
+    /**
+     * Predicts the latency of the current configuration, which the SuspicionSensor uses to detect slow replicas.
+     * Called after every consensus instance, but only simulated if the latencies, the view or the leader changed.
+     *
+     * @param v current view
+     */
     public void computeConsensusLatencyExpectation(View v) {
-
-        Simulator simulator = new Simulator(viewControl);
-        LatencyMonitor monitor = LatencyMonitor.getInstance(viewControl);
-
-        int[] replicaSet = v.getProcesses();
-        int n = v.getN();
-        int f = v.getF();
-        int u = v.isBFT() ? 2 * f : f;
-        int delta = v.getDelta();
-
-        // init matrices
-        long[][] propose = new long[n][n];
-        long[][] write = new long[n][n];
-        Long[][] propose_ast = monitor.sanitize(monitor.getM_propose());
-        Long[][] write_ast = monitor.sanitize(monitor.getM_write());
-
-        // Long to long
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                propose[i][j] = propose_ast[i][j];
-                write[i][j] = write_ast[i][j];
-            }
-        }
-        if (!instance.svc.getStaticConf().isUseDummyPropose()) {
-            propose = write;
-        }
-
-        int cid = executionManager.getTOMLayer().getLastExec();
-        WeightConfiguration current = v.getWeightConfiguration();
-        currentDW = new AwareConfiguration(current, executionManager.getCurrentLeader());
-        Long estimate_current = simulator.predictLatency(replicaSet, currentDW.getLeader(),
-                currentDW.getWeightConfiguration(), propose, write, n, f, delta, ROUNDS_AMORTIZATION);
+        int leader = executionManager.getCurrentLeader();
+        long estimate_current = LatencyExpectationCache.getInstance(viewControl).getConsensusLatency(v, leader);
+        currentDW = new AwareConfiguration(v.getWeightConfiguration(), leader);
         currentDW.setPredictedLatency(estimate_current);
         SensorApp.getInstance(svc).getSuspicionSensor().setDeltaRound(estimate_current);
     }
@@ -153,19 +170,10 @@ public class AwareController {
         int u = v.isBFT() ? 2 * f : f;
         int delta = v.getDelta();
 
-        // init matrices
-        long[][] propose = new long[n][n];
-        long[][] write = new long[n][n];
-        Long[][] propose_ast = latencyMonitor.sanitize(latencyMonitor.getM_propose());
-        Long[][] write_ast = latencyMonitor.sanitize(latencyMonitor.getM_write());
-
-        // Long to long
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                propose[i][j] = propose_ast[i][j];
-                write[i][j] = write_ast[i][j];
-            }
-        }
+        // sanitized matrices of one snapshot, shared and must not be modified
+        LatencyMonitor.Snapshot latencies = latencyMonitor.getSnapshot();
+        long[][] propose = latencies.getSanitizedPropose().toArray();
+        long[][] write = latencies.getSanitizedWrite().toArray();
         if (!instance.svc.getStaticConf().isUseDummyPropose()) {
             propose = write;
         }
@@ -179,81 +187,92 @@ public class AwareController {
         currentDW.setPredictedLatency(estimate_current);
         SensorApp.getInstance(svc).getSuspicionSensor().setDeltaRound(estimate_current);
 
-        // For larger systems, use heuristic, e.g, Simulated Annealing
-        if (n > N_SIZE_TO_USE_HEURISTICS) {
-            return Simulator.simulatedAnnealing(n, f, delta, u, replicaSet, propose, write, cid, candidates).best;
-        }
-
-        // Generate the search space:
-        // Computes all possible combinates of R_max and R_min distributions
-        List<WeightConfiguration> weightConfigs = WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
-
-        List<AwareConfiguration> awareConfigurations = new ArrayList<>();
-        int leader = executionManager.getCurrentLeader();
-
-        // Generate the search space
-        // determine if leader should be selected or not
-        for (WeightConfiguration w : weightConfigs) {
-            /** Begin Optilog **/
-           if (!candidates.containsAll(w.getR_max())) continue;
-            /** End Optilog **/
-            if (viewControl.getStaticConf().isUseLeaderSelection()) {
-                for (int primary : w.getR_max()) {
-                    AwareConfiguration dwConfig = new AwareConfiguration(w, primary);
-                    awareConfigurations.add(dwConfig);
-                }
-            } else {
-                AwareConfiguration dwConfig = new AwareConfiguration(w, leader);
-                awareConfigurations.add(dwConfig);
-            }
+        // Traverse the search space: for smaller systems, all possible combinations of R_max and R_min distributions
+        // are enumerated (exhaustive search), for larger systems, a heuristic is used, e.g, Simulated Annealing.
+        // Configurations whose R_max is not within the OptiLog candidate set are skipped. If incremental
+        // re-optimization is enabled, the current config is used as starting point.
+        // The search has to complete within a budget derived from the time until the reconfiguration point.
+        AwareSearchStrategy strategy = configuredStrategy != null ? configuredStrategy
+                : n > N_SIZE_TO_USE_HEURISTICS ? heuristicStrategy : exhaustiveStrategy;
+        SearchBudget budget = createSearchBudget(estimate_current);
+        searchBudget = budget;
+        SearchResult result = optimizer.optimize(strategy, n, f, delta, u, replicaSet, propose, write, candidates,
+                currentDW, cid, budget);
+
+        searches.incrementAndGet();
+        if (budget.isExhausted()) budgetHits.incrementAndGet();
+        if (budget.isOverdue()) deadlineMisses.incrementAndGet();
+        if (budget.isLimited()) {
+            logger.info("search budget of " + budget.getMaxSimulations() + " simulations and "
+                    + budget.getTimeBudget() / 1000000.0 + " ms: search took " + budget.getElapsed() / 1000000.0
+                    + " ms, budget hit in " + budgetHits.get() + " and time exceeded in " + deadlineMisses.get()
+                    + " of " + searches.get() + " searches");
         }
 
-        // Compute the predictet latencies of all possible configurations using the
-        // simulator
-        for (AwareConfiguration dwc : awareConfigurations) {
-            Long predictedLatency = simulator.predictLatency(replicaSet, dwc.getLeader(), dwc.getWeightConfiguration(),
-                    propose, write, n, f, delta, ROUNDS_AMORTIZATION);
-            dwc.setPredictedLatency(predictedLatency);
-            // logger.info("WeightConfig " + dwc.getWeightConfiguration() + "with leader " +
-            // dwc.getLeader() +
-            // " has predicted latency of " + ((double) Math.round(predictedLatency) / 1000)
-            // / 1000.00 + " ms");
+        if (result == null) {
+            logger.warn("No configuration within the candidate set " + candidates + ", keeping the current config");
+            return currentDW;
         }
 
-        // Sort configurations for ascending predicted latency
-        awareConfigurations.sort(Comparator.naturalOrder());
         // We compare worst, median and best:
-        AwareConfiguration best = awareConfigurations.get(0);
-        AwareConfiguration median = awareConfigurations.get(awareConfigurations.size() / 2); // for evaluation
-        AwareConfiguration worst = awareConfigurations.get(awareConfigurations.size() - 1); // for evaluation
+        AwareConfiguration best = result.getBest();
+        AwareConfiguration median = result.getMedian(); // for evaluation
+        AwareConfiguration worst = result.getWorst(); // for evaluation
 
         // For testing, remove later, make it debug later
         logger.info("the best config is " + best);
-        logger.info("the median config is " + median);
-        logger.info("the worst config is " + worst);
+        logger.debug("the median config is " + median);
+        if (worst != null) logger.info("the worst config is " + worst);
+        logger.info(strategy.getName() + " simulated " + result.getExamined() + " configs, pruned "
+                + result.getPruned() + " configs");
         logger.info("");
         logger.info("current config is estimated to be " + estimate_current);
 
-        List<AwareConfiguration> bestConfigs = new ArrayList<>();
-        for (AwareConfiguration dwc : awareConfigurations) {
-            if (dwc.getPredictedLatency() == best.getPredictedLatency()) {
-                bestConfigs.add(dwc);
-            }
-        }
+        return best;
+    }
 
-        int currentLeader = this.executionManager.getCurrentLeader();
 
-        best = bestConfigs.get(0);
-        for (AwareConfiguration dwc : bestConfigs) {
-            if (dwc.getLeader() == currentLeader) {
-                best = dwc;
-                break;
-            }
+    /**
+     * Creates the budget for a search: a fraction (system.aware.searchBudget) of the expected time of calculationDelay
+     * consensus instances, converted into a number of simulations with system.aware.searchRate. Since all replicas
+     * predict the same consensus latency, they all get the same budget.
+     *
+     * @param consensusLatency predicted latency of a consensus instance with the current config in ns
+     */
+    private SearchBudget createSearchBudget(long consensusLatency) {
+        double fraction = viewControl.getStaticConf().getSearchBudget();
+        if (fraction <= 0) {
+            return SearchBudget.unlimited();
         }
-
-        return best;
+        double timeBudget = fraction * viewControl.getStaticConf().getCalculationDelay() * consensusLatency; // in ns
+        double simulations = timeBudget / 1000000.0 * viewControl.getStaticConf().getSearchRate();
+        return new SearchBudget((long) Math.min(simulations, SearchBudget.UNLIMITED - 1),
+                (long) Math.min(timeBudget, Long.MAX_VALUE));
     }
 
+    /**
+     * Creates the search strategy configured in system.aware.searchStrategy
+     *
+     * @return the strategy, or null if the strategy should be chosen by system size (auto)
+     */
+    private AwareSearchStrategy createSearchStrategy(String name, int chains, ForkJoinPool searchPool) {
+        switch (name) {
+            case ExhaustiveSearchStrategy.NAME:
+                return exhaustiveStrategy;
+            case AnnealingStrategy.NAME:
+                return heuristicStrategy instanceof AnnealingStrategy ? heuristicStrategy
+                        : new AnnealingStrategy(ROUNDS_AMORTIZATION, viewControl.getStaticConf().isBFT());
+            case MultiChainAnnealing.NAME:
+                return heuristicStrategy instanceof MultiChainAnnealing ? heuristicStrategy
+                        : new MultiChainAnnealing(chains, searchPool, ROUNDS_AMORTIZATION,
+                        viewControl.getStaticConf().isBFT());
+            case "auto":
+                return null;
+            default:
+                logger.error("Unknown search strategy " + name + ", choosing the strategy by system size");
+                return null;
+        }
+    }
 
     /**
      * Optimizes weight distribution and leader selection, and threshold
@@ -280,12 +299,12 @@ public class AwareController {
              */
             /** End OptiLog **/
 
-            // start new Thread to compute the best AWARE config in the background
-            Thread computationOfBestConfig = new Thread() {
-                public void run() {
-                    logger.info("Started computation of best config in background at cid " + cid);
-                    long start = System.nanoTime();
-                    computationCompletedLock.lock();
+            // compute the best AWARE config in the background (replaces a computation that did not start yet)
+            computation = executor.submit("computeBest", () -> {
+                logger.info("Started computation of best config in background at cid " + cid);
+                long start = System.nanoTime();
+                computationCompletedLock.lock();
+                try {
                     /* Begin critical section */
                     AwareController awareController = AwareController.getInstance(svc, executionManager);
                     awareController.setBest(awareController.computeBest(v));
@@ -293,12 +312,12 @@ public class AwareController {
                     System.out.println("... Garbage collecting old suspicions from queue up to index "
                             + cid + " in total " + collected + " suspicions collected");
                     /* End critical section */
+                } finally {
                     computationCompletedLock.unlock();
-                    long end = System.nanoTime();
-                    logger.info("Computed the best configuration in " + (end - start) / 1000000.0 + " ms ");
                 }
-            };
-            computationOfBestConfig.start();
+                long end = System.nanoTime();
+                logger.info("Computed the best configuration in " + (end - start) / 1000000.0 + " ms ");
+            });
         }
 
         if (svc.getStaticConf().isUseDynamicWeights() && LatencyMonitor.getInstance(svc).isInitialized() && cid > 0 ) {
@@ -316,6 +335,22 @@ public class AwareController {
             logger.info("________________RECONFIGURATION CHECK_________________________________");
             logger.info("Trying to lock, Computation should be completed, at cid" + cid);
 
+            // Wait until the computation started for this interval completed, it may not even have started yet
+            Future<?> pending = computation;
+            if (pending != null && !pending.isDone()) {
+                // The search exceeded its budget, all replicas have to wait for its deterministic result
+                SearchBudget budget = searchBudget;
+                reconfigurationWaits.incrementAndGet();
+                logger.warn("Computation not completed at cid " + cid + ", waiting for it, best config so far is "
+                        + (budget != null ? budget.getBestSoFar() : null));
+                try {
+                    pending.get();
+                } catch (CancellationException | ExecutionException e) {
+                    logger.error("Computation of the best config did not complete", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             computationCompletedLock.lock();
             /*
              * begin critical section , should only enter here after computation is
@@ -492,4 +527,36 @@ public class AwareController {
     public int getLastReconfigurationCID() {
         return this.lastReconfigurationCID;
     }
+
+    /**
+     * @return budget of the current (or last) search, its best configuration so far is updated while searching
+     */
+    public SearchBudget getSearchBudget() {
+        return searchBudget;
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+
+    /**
+     * @return number of searches that had to be cut to stay within the budget
+     */
+    public long getBudgetHits() {
+        return budgetHits.get();
+    }
+
+    /**
+     * @return number of searches that took longer than their time budget
+     */
+    public long getDeadlineMisses() {
+        return deadlineMisses.get();
+    }
+
+    /**
+     * @return number of reconfigurations that had to wait for a search to complete
+     */
+    public long getReconfigurationWaits() {
+        return reconfigurationWaits.get();
+    }
 }
@@ -0,0 +1,44 @@
+package bftsmart.aware.decisions;
+
+import java.util.Set;
+
+/**
+ * Strategy to search the AWARE configuration space (weight configurations and leaders) for the configuration with
+ * the lowest predicted latency. The strategy is selected with system.aware.searchStrategy.
+ * <p>
+ * All correct replicas must reach the same reconfiguration decision, thus an implementation has to be deterministic:
+ * given the same inputs (in particular the same seed), it must return the same result, independent of timing or the
+ * number of threads it uses. For the same reason, a strategy must respect a {@link SearchBudget} deterministically,
+ * i.e., by the number of simulations and not by time.
+ *
+ * @author cb
+ */
+public interface AwareSearchStrategy {
+
+    /**
+     * Searches for the best AWARE configuration
+     *
+     * @param n          system size
+     * @param f          number of faults
+     * @param delta      number of additional spare replicas
+     * @param u          number of Vmax replicas: 2f (BFT) or f (CFT)
+     * @param replicaSet all replicas
+     * @param propose    sanitized PROPOSE latencies
+     * @param write      sanitized WRITE/ACCEPT latencies
+     * @param candidates OptiLog candidate set (null considers all replicas)
+     * @param leader     current leader
+     * @param seed       seed for randomized strategies, e.g., the consensus id
+     * @param start      configuration to start from, e.g., the best configuration of the last search with its
+     *                   latency predicted for the given matrices (may be null)
+     * @param budget     budget of the search; the best configuration found so far should be published to it
+     * @return the best configuration found, or null if there is no configuration within the candidate set
+     */
+    SearchResult search(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                        Set<Integer> candidates, int leader, long seed, AwareConfiguration start,
+                        SearchBudget budget);
+
+    /**
+     * @return name of the strategy as used in system.config
+     */
+    String getName();
+}
@@ -0,0 +1,84 @@
+package bftsmart.aware.decisions;
+
+import java.util.Set;
+
+/**
+ * Traverses the entire search space with a {@link ParallelExhaustiveSearch}. Finds the best configuration, but the
+ * search space grows with the binomial coefficient C(n, u), so it is only feasible for small systems.
+ * <p>
+ * The start configuration (if it lies within the search space) is used as initial incumbent for branch and bound.
+ * If the search space is larger than the {@link SearchBudget} allows to simulate, the fallback strategy (a heuristic)
+ * is used instead.
+ *
+ * @author cb
+ */
+public class ExhaustiveSearchStrategy implements AwareSearchStrategy {
+
+    public static final String NAME = "exhaustive";
+
+    private final ParallelExhaustiveSearch search;
+    private final boolean leaderSelection;
+    private final int rounds;
+    private final boolean isBFT;
+    private final boolean computeMedian;
+    private final double pruningFactor;
+    private final AwareSearchStrategy fallback;
+
+    /**
+     * Creates a new exhaustive search strategy
+     *
+     * @param search          search engine
+     * @param leaderSelection if true, every replica in R_max is considered as leader, else only the current leader
+     * @param rounds          number of consensus rounds used for calculation of amortized costs
+     * @param isBFT           whether the BFT or the CFT protocol is simulated
+     * @param computeMedian   if true, the median configuration is determined as well (disables pruning)
+     * @param pruningFactor   pruning factor for branch and bound, see {@link ParallelExhaustiveSearch}
+     * @param fallback        strategy used if the search space exceeds the budget (null ignores the budget)
+     */
+    public ExhaustiveSearchStrategy(ParallelExhaustiveSearch search, boolean leaderSelection, int rounds,
+                                    boolean isBFT, boolean computeMedian, double pruningFactor,
+                                    AwareSearchStrategy fallback) {
+        this.search = search;
+        this.leaderSelection = leaderSelection;
+        this.rounds = rounds;
+        this.isBFT = isBFT;
+        this.computeMedian = computeMedian;
+        this.pruningFactor = pruningFactor;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public SearchResult search(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                               Set<Integer> candidates, int leader, long seed, AwareConfiguration start,
+                               SearchBudget budget) {
+        long size = WeightConfigurationEnumerator.count(replicaSet.length, u);
+        if (fallback != null && budget.isLimited() && size > budget.getMaxSimulations() / (leaderSelection ? u : 1)) {
+            budget.setExhausted();
+            return fallback.search(n, f, delta, u, replicaSet, propose, write, candidates, leader, seed, start,
+                    budget);
+        }
+        long incumbent = isWithinSearchSpace(start, u, candidates, leader) ? start.getPredictedLatency()
+                : Long.MAX_VALUE;
+        SearchResult result = search.search(u, replicaSet, candidates, leaderSelection, leader, leader, propose,
+                write, n, f, delta, rounds, isBFT, computeMedian, pruningFactor, incumbent);
+        if (result != null) {
+            budget.publish(result.getBest());
+        }
+        return result;
+    }
+
+    // The latency of a configuration outside of the search space is no valid upper bound for the best one
+    private boolean isWithinSearchSpace(AwareConfiguration config, int u, Set<Integer> candidates, int leader) {
+        if (config == null) {
+            return false;
+        }
+        Set<Integer> rMax = config.getWeightConfiguration().getR_max();
+        return rMax.size() == u && (candidates == null || candidates.containsAll(rMax))
+                && (leaderSelection ? rMax.contains(config.getLeader()) : config.getLeader() == leader);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,90 @@
+package bftsmart.aware.decisions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+
+/**
+ * Incremental re-optimization: the optimization triggered every calculationInterval consensus instances does not
+ * start from scratch, but from the current configuration.
+ * <p>
+ * All replicas must reach the same decision, so only ordered state is used: the latency matrices (built from the
+ * ordered measurements), the configuration and leader of the current view, and the consensus id. The latency of the
+ * current configuration is predicted again under the current matrices and the {@link AwareSearchStrategy} is
+ * warm-started from it: e.g., it serves as initial incumbent for branch and bound (exhaustive search) or as initial
+ * state (Simulated Annealing). Results of earlier searches are never reused, since a replica that joined or recovered
+ * in the meantime does not know them.
+ * <p>
+ * Note that a changed link latency can affect the predicted latency of every configuration, since every replica
+ * exchanges messages with every other replica in the simulated protocol. Thus, re-simulating only the configurations
+ * that contain a changed replica would not be exact; every optimization rather runs a full (but warm-started) search.
+ * An exhaustive search finds the same configuration as a search from scratch.
+ * <p>
+ * Not thread-safe, the optimization runs under the computation lock of the {@link AwareController}.
+ *
+ * @author cb
+ */
+public class IncrementalOptimizer {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final boolean enabled;
+    private final int rounds;
+    private final boolean isBFT;
+    private final SimulationEngine engine = new SimulationEngine();
+
+    /**
+     * Creates a new incremental optimizer
+     *
+     * @param enabled whether searches start from the current configuration, else they start from scratch
+     * @param rounds  number of consensus rounds used for calculation of amortized costs
+     * @param isBFT   whether the BFT or the CFT protocol is simulated
+     */
+    public IncrementalOptimizer(boolean enabled, int rounds, boolean isBFT) {
+        this.enabled = enabled;
+        this.rounds = rounds;
+        this.isBFT = isBFT;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Finds the best AWARE configuration with the given strategy, starting from the current configuration
+     *
+     * @param current configuration and leader of the current view
+     * @param cid     consensus id of the optimization point, used as seed
+     * @return the best configuration found, or null if there is no configuration within the candidate set
+     * @see AwareSearchStrategy#search(int, int, int, int, int[], long[][], long[][], Set, int, long,
+     * AwareConfiguration)
+     */
+    public SearchResult optimize(AwareSearchStrategy strategy, int n, int f, int delta, int u, int[] replicaSet,
+                                 long[][] propose, long[][] write, Set<Integer> candidates, AwareConfiguration current,
+                                 int cid, SearchBudget budget) {
+        int leader = current.getLeader();
+        AwareConfiguration start = null;
+        if (enabled && isWithinSearchSpace(current, candidates, u)) {
+            logger.info("Searching starting from the current config");
+            start = repredict(current, replicaSet, propose, write, n, f, delta);
+        }
+        return strategy.search(n, f, delta, u, replicaSet, propose, write, candidates, leader, cid, start, budget);
+    }
+
+    // Whether the configuration is part of the given search space, i.e., can serve as starting point
+    private static boolean isWithinSearchSpace(AwareConfiguration config, Set<Integer> candidates, int u) {
+        Set<Integer> rMax = config.getWeightConfiguration().getR_max();
+        if (rMax.size() != u || (candidates != null && !candidates.containsAll(rMax))) {
+            return false;
+        }
+        return candidates == null || candidates.contains(config.getLeader());
+    }
+
+    private AwareConfiguration repredict(AwareConfiguration config, int[] replicaSet, long[][] propose, long[][] write,
+                                         int n, int f, int delta) {
+        long latency = engine.predictLatency(replicaSet, config.getLeader(), config.getWeightConfiguration(), propose,
+                write, n, f, delta, rounds, isBFT);
+        return new AwareConfiguration(config.getWeightConfiguration(), config.getLeader(), latency);
+    }
+}
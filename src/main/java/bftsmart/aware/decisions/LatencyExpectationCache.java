@@ -0,0 +1,128 @@
+package bftsmart.aware.decisions;
+
+import bftsmart.optilog.monitors.LatencyMonitor;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.reconfiguration.views.View;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches what the current configuration is expected to achieve: the predicted consensus latency (used for the
+ * suspicion timeouts of OptiLog) and the expected message delays (when the PROPOSE and the votes should arrive).
+ * <p>
+ * Both are requested after every decided consensus instance, but only depend on the latency matrices, the view (which
+ * determines the weights) and the leader. Hence, they are simulated once per (snapshot version of the
+ * {@link LatencyMonitor}, view id, leader) and reused until one of these changes.
+ * <p>
+ * Singelton pattern, shared by the AwareController and the SuspicionSensor.
+ *
+ * @author cb
+ */
+public class LatencyExpectationCache {
+
+    private static LatencyExpectationCache instance;
+
+    private final ServerViewController svc;
+    private final Simulator simulator;
+
+    // Key of the cached values
+    private long version = -1;
+    private int viewId = -1;
+    private int leader = -1;
+
+    // Cached values, computed on first request for the current key
+    private Long consensusLatency;
+    private Simulator.MessageDelays messageDelays;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Use this method to get the cache
+     *
+     * @param svc server view controller
+     * @return the cache instance
+     */
+    public static synchronized LatencyExpectationCache getInstance(ServerViewController svc) {
+        if (instance == null) {
+            instance = new LatencyExpectationCache(svc);
+        }
+        return instance;
+    }
+
+    private LatencyExpectationCache(ServerViewController svc) {
+        this.svc = svc;
+        this.simulator = new Simulator(svc);
+    }
+
+    /**
+     * Predicts the latency of the given view's weight configuration and leader, amortized over
+     * {@link AwareController#ROUNDS_AMORTIZATION} rounds
+     *
+     * @param v      view
+     * @param leader leader
+     * @return predicted consensus latency in ns
+     */
+    public synchronized long getConsensusLatency(View v, int leader) {
+        LatencyMonitor.Snapshot latencies = LatencyMonitor.getInstance(svc).getSnapshot();
+        if (isCached(latencies, v, leader) && consensusLatency != null) {
+            hits.incrementAndGet();
+            return consensusLatency;
+        }
+        misses.incrementAndGet();
+        long[][] write = latencies.getSanitizedWrite().toArray();
+        long[][] propose = svc.getStaticConf().isUseDummyPropose() ? latencies.getSanitizedPropose().toArray() : write;
+        consensusLatency = simulator.predictLatency(v.getProcesses(), leader, v.getWeightConfiguration(), propose,
+                write, v.getN(), v.getF(), v.getDelta(), AwareController.ROUNDS_AMORTIZATION);
+        return consensusLatency;
+    }
+
+    /**
+     * Predicts when this replica receives the PROPOSE and the votes of all replicas in the given view with the given
+     * leader. The result is shared and must not be modified.
+     *
+     * @param v      view
+     * @param leader leader
+     * @return expected message delays
+     */
+    public synchronized Simulator.MessageDelays getMessageDelays(View v, int leader) {
+        LatencyMonitor.Snapshot latencies = LatencyMonitor.getInstance(svc).getSnapshot();
+        if (isCached(latencies, v, leader) && messageDelays != null) {
+            hits.incrementAndGet();
+            return messageDelays;
+        }
+        misses.incrementAndGet();
+        long[][] write = latencies.getSanitizedWrite().toArray();
+        long[][] propose = svc.getStaticConf().isUseDummyPropose() ? latencies.getSanitizedPropose().toArray() : write;
+        messageDelays = simulator.predictMessageDelays(v.getProcesses(), leader, v.getWeightConfiguration(), propose,
+                write, v.getN(), v.getF(), v.getDelta(), 10, svc.getStaticConf().getProcessId());
+        return messageDelays;
+    }
+
+    // Checks whether the cached values belong to the given inputs, else invalidates them
+    private boolean isCached(LatencyMonitor.Snapshot latencies, View v, int leader) {
+        if (latencies.getVersion() == version && v.getId() == viewId && leader == this.leader) {
+            return true;
+        }
+        version = latencies.getVersion();
+        viewId = v.getId();
+        this.leader = leader;
+        consensusLatency = null;
+        messageDelays = null;
+        return false;
+    }
+
+    /**
+     * @return number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests that required a simulation
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,172 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Arrival orders of votes that are the same for all weight configurations simulated with a fixed leader. A batch is
+ * computed once per leader and then shared by the simulation of many weight configurations (see
+ * {@link SimulationEngine#predictLatencies}).
+ * <p>
+ * In the first simulated round, every replica i receives the PROPOSE at m_propose[leader][i], independent of the
+ * weights. Hence, the WRITE votes (and in CFT also the ACCEPT votes) arrive at every receiver at the same times and in
+ * the same order for all weight configurations; only the point at which the accumulated weight crosses the quorum
+ * threshold differs. A batch stores, per receiver, the order in which the vote heap of the {@link SimulationEngine}
+ * would poll these votes (including its order among arrival time ties), so an engine can replace the heap by a linear
+ * scan while summing the weights in exactly the same order. The same holds for every later round in which all
+ * replicas are ready before the PROPOSE arrives, which is checked by the engine.
+ * <p>
+ * A batch is immutable after its creation and can be shared between threads.
+ *
+ * @author cb
+ */
+public class LeaderBatch {
+
+    final int[] replicaSet;
+    final int leader;
+    final long[][] propose;
+    final long[][] write;
+    final int n;
+    final boolean isBFT;
+
+    // Time at which replica i receives the PROPOSE if it is ready immediately
+    final long[] proposed;
+
+    // Per receiver i: voters and arrival times, in poll order, at offset i * n
+    final int[] writeOrder;
+    final long[] writeTimes;
+
+    // Same for the ACCEPT votes, which only depend on the PROPOSE in CFT (null in BFT)
+    final int[] acceptOrder;
+    final long[] acceptTimes;
+
+    // Poll order of the PROPOSE arrivals and of the votes received by the leader, used for lower bounds
+    final int[] proposeOrder;
+    final long[] proposeTimes;
+    final int[] leaderVoteOrder;
+    final long[] leaderVoteTimes;
+
+    // Scratch heap, only used while the batch is created
+    private final long[] heapTimes;
+    private final int[] heapVoters;
+    private int heapSize;
+
+    /**
+     * Computes the arrival orders for a leader
+     *
+     * @param replicaSet all replicas
+     * @param leader     leader shared by all configurations of the batch
+     * @param propose    sanitized PROPOSE latencies
+     * @param write      sanitized WRITE/ACCEPT latencies
+     * @param n          system size
+     * @param isBFT      whether quorums and phases of the BFT or the CFT protocol are simulated
+     */
+    public LeaderBatch(int[] replicaSet, int leader, long[][] propose, long[][] write, int n, boolean isBFT) {
+        this.replicaSet = replicaSet;
+        this.leader = leader;
+        this.propose = propose;
+        this.write = write;
+        this.n = n;
+        this.isBFT = isBFT;
+
+        int count = replicaSet.length;
+        this.heapTimes = new long[count];
+        this.heapVoters = new int[count];
+
+        this.proposed = new long[n];
+        for (int i : replicaSet)
+            proposed[i] = Math.max(0L, propose[leader][i]);
+
+        this.writeOrder = new int[n * n];
+        this.writeTimes = new long[n * n];
+        this.acceptOrder = isBFT ? null : new int[n * n];
+        this.acceptTimes = isBFT ? null : new long[n * n];
+        for (int i : replicaSet) {
+            heapSize = 0;
+            for (int j : replicaSet)
+                offer(proposed[j] + write[j][i], j);
+            drain(writeOrder, writeTimes, i * n);
+
+            if (!isBFT) {
+                heapSize = 0;
+                for (int j : replicaSet)
+                    offer(proposed[i] + write[j][i], j);
+                drain(acceptOrder, acceptTimes, i * n);
+            }
+        }
+
+        this.proposeOrder = new int[count];
+        this.proposeTimes = new long[count];
+        heapSize = 0;
+        for (int j : replicaSet)
+            offer(propose[leader][j], j);
+        drain(proposeOrder, proposeTimes, 0);
+
+        this.leaderVoteOrder = new int[count];
+        this.leaderVoteTimes = new long[count];
+        heapSize = 0;
+        for (int j : replicaSet)
+            offer(write[j][leader], j);
+        drain(leaderVoteOrder, leaderVoteTimes, 0);
+    }
+
+    public int getLeader() {
+        return leader;
+    }
+
+    /**
+     * @return true if the replicas receive the PROPOSE at the given times, i.e., the arrival orders of this batch apply
+     */
+    boolean isProposedAt(long[] t_proposed) {
+        for (int i : replicaSet) {
+            if (t_proposed[i] != proposed[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Polls all votes from the heap and records their order
+    private void drain(int[] order, long[] times, int offset) {
+        for (int k = offset; heapSize > 0; k++) {
+            order[k] = heapVoters[0];
+            times[k] = heapTimes[0];
+            poll();
+        }
+    }
+
+    // Same sift-up as SimulationEngine (and java.util.PriorityQueue), thus the same order among ties
+    private void offer(long time, int voter) {
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (time >= heapTimes[parent])
+                break;
+            heapTimes[k] = heapTimes[parent];
+            heapVoters[k] = heapVoters[parent];
+            k = parent;
+        }
+        heapTimes[k] = time;
+        heapVoters[k] = voter;
+    }
+
+    // Same sift-down as SimulationEngine (and java.util.PriorityQueue)
+    private void poll() {
+        int size = --heapSize;
+        if (size == 0)
+            return;
+        long time = heapTimes[size];
+        int voter = heapVoters[size];
+        int k = 0;
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            int right = child + 1;
+            if (right < size && heapTimes[child] > heapTimes[right])
+                child = right;
+            if (time <= heapTimes[child])
+                break;
+            heapTimes[k] = heapTimes[child];
+            heapVoters[k] = heapVoters[child];
+            k = child;
+        }
+        heapTimes[k] = time;
+        heapVoters[k] = voter;
+    }
+}
@@ -0,0 +1,265 @@
+package bftsmart.aware.decisions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Simulated Annealing with multiple independent chains that run in parallel. Every chain performs the same annealing
+ * schedule as {@link Simulator#simulatedAnnealing} (chain 0 uses the given seed and thus follows exactly the same
+ * path), but with its own random seed derived from the given one, so the chains explore different regions of the
+ * search space. With enough cores, the wall-clock time stays the same as with a single chain.
+ * <p>
+ * Configurations are represented as R_max bitmasks and simulated with a {@link SimulationEngine} per chain, so a
+ * chain does not allocate while annealing. The chains are merged deterministically: the best configuration of all
+ * chains wins, among equally good ones the one of the chain with the lowest index. Since the number of chains is
+ * configured (and not derived from the number of cores), all replicas reach the same result when using the same seed
+ * (e.g., the consensus id), independent of the number of threads.
+ * <p>
+ * If the {@link SearchBudget} does not allow for the full annealing schedule, the schedule is shortened: every chain
+ * gets an equal share of the simulations and cools down faster, from the same initial temperature to the same
+ * threshold. Thus, the search still converges, just with fewer steps.
+ * <p>
+ * Supports up to 64 replicas with IDs in [0, 63].
+ *
+ * @author cb
+ */
+public class MultiChainAnnealing implements AwareSearchStrategy {
+
+    public static final String NAME = "parallelAnnealing";
+
+    // Simulated Annealing parameters, same as Simulator.simulatedAnnealing
+    public static final double TEMPERATURE = 25000;
+    public static final double COOLING_RATE = 0.0055;
+    public static final double THRESHOLD = 0.5;
+
+    // Spreads the seeds of the chains (golden ratio)
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    // Number of steps of the full annealing schedule
+    public static final long SCHEDULE_LENGTH;
+
+    static {
+        long steps = 0;
+        for (double temp = TEMPERATURE; temp > THRESHOLD; temp *= 1 - COOLING_RATE) {
+            steps++;
+        }
+        SCHEDULE_LENGTH = steps;
+    }
+
+    private final int chains;
+    private final int rounds;
+    private final boolean isBFT;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new multi-chain Simulated Annealing
+     *
+     * @param chains number of chains, must be the same at all replicas
+     * @param pool   worker threads, e.g., {@link OptimizerExecutor#getSearchPool()}; null runs all chains in the
+     *               calling thread
+     * @param rounds number of consensus rounds used for calculation of amortized costs
+     * @param isBFT  whether the BFT or the CFT protocol is simulated
+     */
+    public MultiChainAnnealing(int chains, ForkJoinPool pool, int rounds, boolean isBFT) {
+        this.chains = Math.max(1, chains);
+        this.rounds = rounds;
+        this.isBFT = isBFT;
+        this.pool = this.chains > 1 ? pool : null;
+    }
+
+    public int getChains() {
+        return chains;
+    }
+
+    @Override
+    public SearchResult search(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write,
+                               Set<Integer> candidates, int leader, long seed, AwareConfiguration start,
+                               SearchBudget budget) {
+
+        // Initialize: same initial configuration as Simulator.simulatedAnnealing
+        long startMask;
+        int startLeader;
+        if (start != null) {
+            startMask = WeightConfiguration.toMask(start.getWeightConfiguration().getR_max());
+            startLeader = start.getLeader();
+        } else {
+            startMask = WeightConfiguration.toMask(new WeightConfiguration(u, replicaSet).getR_max());
+            startLeader = 0;
+            // Begin OptiLog
+            if (candidates != null) {
+                for (int i = 0; i < n; i++) {
+                    if (candidates.contains(i)) {
+                        startLeader = i;
+                        break;
+                    }
+                }
+            }
+            // End OptiLog
+        }
+        long candidateMask = candidates != null ? WeightConfiguration.toMask(candidates) : -1L;
+
+        // Shorten the schedule if the budget does not allow for all steps
+        long maxSimulations = SearchBudget.UNLIMITED;
+        double coolingRate = COOLING_RATE;
+        if (budget.isLimited() && budget.getMaxSimulations() / chains < SCHEDULE_LENGTH) {
+            maxSimulations = Math.max(1, budget.getMaxSimulations() / chains);
+            coolingRate = 1 - Math.pow(THRESHOLD / TEMPERATURE, 1.0 / maxSimulations);
+            budget.setExhausted();
+        }
+
+        List<Chain> tasks = new ArrayList<>(chains);
+        for (int i = 0; i < chains; i++) {
+            tasks.add(new Chain(seed + i * SEED_INCREMENT, startMask, startLeader, candidateMask, coolingRate,
+                    maxSimulations, budget, n, f, delta, u, replicaSet, propose, write));
+        }
+
+        List<Chain> results = new ArrayList<>(chains);
+        if (pool != null) {
+            try {
+                for (Future<Chain> result : pool.invokeAll(tasks)) {
+                    results.add(result.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while annealing", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Annealing chain failed", e.getCause());
+            }
+        } else {
+            for (Chain chain : tasks) {
+                results.add(chain.call());
+            }
+        }
+
+        // Merge in chain order, the first chain wins among equally good configurations
+        Chain best = null;
+        long examined = 0;
+        for (Chain chain : results) {
+            examined += chain.examined;
+            if (best == null || chain.bestLatency < best.bestLatency) {
+                best = chain;
+            }
+        }
+        AwareConfiguration result = new AwareConfiguration(WeightConfiguration.fromMask(best.best, replicaSet),
+                best.bestLeader, best.bestLatency);
+        budget.publish(result);
+        return new SearchResult(result, examined);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * A single annealing chain
+     */
+    private class Chain implements Callable<Chain> {
+
+        final long seed;
+        final long startMask;
+        final int startLeader;
+        final long candidateMask;
+        final double coolingRate;
+        final long maxSimulations;
+        final SearchBudget budget;
+        final int n;
+        final int f;
+        final int delta;
+        final int u;
+        final int[] replicaSet;
+        final long[][] propose;
+        final long[][] write;
+
+        long best;
+        int bestLeader;
+        long bestLatency;
+        long examined = 0;
+
+        Chain(long seed, long startMask, int startLeader, long candidateMask, double coolingRate, long maxSimulations,
+              SearchBudget budget, int n, int f, int delta, int u, int[] replicaSet, long[][] propose,
+              long[][] write) {
+            this.seed = seed;
+            this.startMask = startMask;
+            this.startLeader = startLeader;
+            this.candidateMask = candidateMask;
+            this.coolingRate = coolingRate;
+            this.maxSimulations = maxSimulations;
+            this.budget = budget;
+            this.n = n;
+            this.f = f;
+            this.delta = delta;
+            this.u = u;
+            this.replicaSet = replicaSet;
+            this.propose = propose;
+            this.write = write;
+        }
+
+        @Override
+        public Chain call() {
+            SimulationEngine engine = new SimulationEngine();
+            Random random = new Random(seed);
+            long all = 0L;
+            for (int replica : replicaSet) {
+                all |= 1L << replica;
+            }
+
+            long x = startMask;
+            int xLeader = startLeader;
+            long predictX = engine.predictLatency(replicaSet, xLeader, x, propose, write, n, f, delta, rounds, isBFT);
+            best = x;
+            bestLeader = xLeader;
+            bestLatency = predictX;
+
+            long simulations = 0;
+            double temp = TEMPERATURE;
+            while (temp > THRESHOLD && simulations < maxSimulations) {
+
+                examined++;
+
+                // Create a random variation of configuration x: swap a R_max and a R_min replica
+                int max = WeightConfigurationEnumerator.nthReplica(x, random.nextInt(u));
+                int min = WeightConfigurationEnumerator.nthReplica(all & ~x, random.nextInt(n - u));
+
+                int yLeader = xLeader;
+                if (max == xLeader) {
+                    // Begin OptiLog
+                    if ((candidateMask & (1L << min)) == 0) continue;
+                    // End OptiLog
+                    yLeader = min;
+                }
+                long y = (x & ~(1L << max)) | (1L << min);
+
+                long predictY = engine.predictLatency(replicaSet, yLeader, y, propose, write, n, f, delta, rounds,
+                        isBFT);
+                simulations++;
+
+                // If the new solution is better, it is accepted, else with an acceptance probability
+                if (predictY < predictX || Math.exp(-((predictY - predictX) / (temp))) > random.nextDouble()) {
+                    x = y;
+                    xLeader = yLeader;
+                    predictX = predictY;
+                }
+
+                // Record best solution found
+                if (predictY < bestLatency) {
+                    best = y;
+                    bestLeader = yLeader;
+                    bestLatency = predictY;
+                    budget.publish(new AwareConfiguration(WeightConfiguration.fromMask(y, replicaSet), yLeader,
+                            predictY));
+                }
+
+                // Cool system down
+                temp *= 1 - coolingRate;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package bftsmart.aware.decisions;
+
+import bftsmart.reconfiguration.ServerViewController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes the background work of AWARE and OptiLog, instead of creating a new thread for every computation and a
+ * timer for every periodic task.
+ * <p>
+ * Computations (e.g., the search for the best AWARE configuration) run on a fixed number of named, low-priority
+ * threads (system.aware.optimizerThreads and system.aware.optimizerPriority), which makes it easy to pin them to
+ * dedicated cores from the outside. Searches that evaluate configurations in parallel share one fork/join pool with
+ * system.aware.searchParallelism threads of the same priority, so the number of search threads does not grow with the
+ * number of strategies. Computations are submitted with a key: at most one computation per key runs at a
+ * time and at most one waits. If a computation is submitted while another one with the same key still waits, the
+ * waiting one is cancelled and replaced (coalesced), so slow computations do not pile up under load.
+ * <p>
+ * Periodic tasks (e.g., the dissemination of measurements) run on a separate scheduler thread, since they may block
+ * on the consensus engine, which in turn may wait for a computation to complete.
+ *
+ * @author cb
+ */
+public class OptimizerExecutor {
+
+    private static OptimizerExecutor instance;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ThreadPoolExecutor computations;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ForkJoinPool searchPool; // null: searches run in the computation thread
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Singleton, created with the configuration of the given view controller
+     *
+     * @param svc server view controller
+     * @return the executor
+     */
+    public static synchronized OptimizerExecutor getInstance(ServerViewController svc) {
+        if (instance == null) {
+            instance = new OptimizerExecutor(svc.getStaticConf().getOptimizerThreads(),
+                    svc.getStaticConf().getOptimizerPriority(), svc.getStaticConf().getSearchParallelism());
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a new executor
+     *
+     * @param threads  maximum number of concurrent computations
+     * @param priority priority of the computation threads, see {@link Thread#setPriority(int)}
+     */
+    public OptimizerExecutor(int threads, int priority) {
+        this(threads, priority, 1);
+    }
+
+    /**
+     * Creates a new executor
+     *
+     * @param threads           maximum number of concurrent computations
+     * @param priority          priority of the computation and search threads, see {@link Thread#setPriority(int)}
+     * @param searchParallelism number of search threads; 1 searches in the computation thread, 0 (or less) uses all
+     *                          available processors
+     */
+    public OptimizerExecutor(int threads, int priority, int searchParallelism) {
+        int size = Math.max(1, threads);
+        int threadPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, priority));
+        // The queue holds at most one entry per key, since waiting computations are coalesced
+        this.computations = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("AWARE-Optimizer", threadPriority));
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new NamedThreadFactory("AWARE-Scheduler", Thread.NORM_PRIORITY));
+        int parallelism = searchParallelism > 0 ? searchParallelism : Runtime.getRuntime().availableProcessors();
+        this.searchPool = parallelism > 1 ? new ForkJoinPool(parallelism,
+                new NamedWorkerThreadFactory("AWARE-Search", threadPriority), null, false) : null;
+    }
+
+    /**
+     * Submits a computation. It replaces a computation with the same key that did not start yet.
+     *
+     * @param key         computations with the same key run one after another
+     * @param computation the computation
+     * @return future of the computation, cancelled if it was replaced before it started
+     */
+    public Future<?> submit(String key, Runnable computation) {
+        Computation task = new Computation(key, computation);
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+        Computation replaced = slot.pending.getAndSet(task);
+        if (replaced != null && replaced.cancel(false)) {
+            coalesced.incrementAndGet();
+            logger.warn("Computation " + key + " is still waiting for the previous one, coalescing it");
+        }
+        if (slot.scheduled.compareAndSet(false, true)) {
+            computations.execute(() -> drain(slot));
+        }
+        return task;
+    }
+
+    // Runs the pending computations of a key until there are none left
+    private void drain(Slot slot) {
+        while (true) {
+            Computation task = slot.pending.getAndSet(null);
+            if (task == null) {
+                slot.scheduled.set(false);
+                // A computation may have been submitted after the check above
+                if (slot.pending.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * Periodically runs a task, like {@link java.util.Timer#scheduleAtFixedRate}. Runs of the task never overlap, and
+     * an exception does not stop subsequent runs.
+     *
+     * @param task   the task
+     * @param delay  delay before the first run in ms
+     * @param period time between runs in ms
+     * @return future to cancel the task
+     */
+    public Future<?> scheduleAtFixedRate(Runnable task, long delay, long period) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Periodic task failed", e);
+            }
+        }, delay, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of computations that were replaced by a newer one before they started
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public int getMaxConcurrentComputations() {
+        return computations.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the pool shared by all parallel searches, or null if searches run sequentially
+     */
+    public ForkJoinPool getSearchPool() {
+        return searchPool;
+    }
+
+    public void shutdown() {
+        computations.shutdownNow();
+        scheduler.shutdownNow();
+        if (searchPool != null) {
+            searchPool.shutdownNow();
+        }
+    }
+
+    /**
+     * The computation of a key that waits to be run
+     */
+    private static class Slot {
+        final AtomicReference<Computation> pending = new AtomicReference<>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+    }
+
+    private class Computation extends FutureTask<Void> {
+
+        private final String key;
+
+        Computation(String key, Runnable computation) {
+            super(computation, null);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException e) {
+                logger.error("Computation " + key + " failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final int priority;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+
+    private static class NamedWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final String name;
+        private final int priority;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedWorkerThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package bftsmart.aware.decisions;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exhaustive search over the AWARE configuration space (all weight configurations times all leaders in R_max) that
+ * evaluates candidates in parallel on a ForkJoinPool.
+ * <p>
+ * The (R_max, leader) space is partitioned into index ranges of the {@link WeightConfigurationEnumerator}, so weight
+ * configurations are generated on the fly as bitmasks and configurations outside the OptiLog candidate set are skipped
+ * before anything is allocated. Every worker thread simulates with its own {@link SimulationEngine} and reduces its
+ * range to the best and worst configuration; partial results are merged in enumeration order. Configurations are
+ * ranked by (predicted latency, enumeration index), which equals the order of a stable sort of the sequentially
+ * generated configuration list. The result is therefore the same for every parallelism level, which is required
+ * because all correct replicas must reach the same reconfiguration decision.
+ * <p>
+ * All configurations with the same leader are simulated with a shared {@link LeaderBatch} of that leader, which is
+ * computed once per search, so the vote arrival orders that do not depend on the weights are not recomputed for every
+ * configuration.
+ * <p>
+ * Apart from these batches, the search runs in constant memory, unless the median configuration is requested: it is
+ * selected from a primitive array holding the predictions of all configurations.
+ * <p>
+ * Optionally, the search uses branch and bound: before a configuration is simulated, cheap lower bounds on its
+ * predicted latency are computed (see {@link SimulationEngine#quorumLowerBound} and
+ * {@link SimulationEngine#roundLowerBound}). If a bound exceeds the best latency found so far (the incumbent, shared
+ * by all workers) times a pruning factor of at least 1, the configuration cannot be the best one and its simulation
+ * is skipped or aborted. The best configuration stays exactly the same, but the worst and median configuration are
+ * unknown in this case.
+ *
+ * @author cb
+ */
+public class ParallelExhaustiveSearch {
+
+    // Number of weight configurations a single task evaluates without further splitting
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private static final long NOT_EVALUATED = -1L;
+
+    // Pruning factor that disables branch and bound
+    public static final double NO_PRUNING = 0.0;
+
+    private final ForkJoinPool pool;
+
+    private final ThreadLocal<SimulationEngine> engines = ThreadLocal.withInitial(SimulationEngine::new);
+
+    /**
+     * Creates a new search that evaluates sequentially in the calling thread
+     */
+    public ParallelExhaustiveSearch() {
+        this(null);
+    }
+
+    /**
+     * Creates a new search
+     *
+     * @param pool worker threads, e.g., {@link OptimizerExecutor#getSearchPool()}; null evaluates sequentially in the
+     *             calling thread
+     */
+    public ParallelExhaustiveSearch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int getParallelism() {
+        return pool != null ? pool.getParallelism() : 1;
+    }
+
+    /**
+     * Predicts the latency of all AWARE configurations and ranks them
+     *
+     * @param u               number of Vmax replicas: 2f (BFT) or f (CFT)
+     * @param replicaSet      all replicas
+     * @param candidates      OptiLog candidate set; weight configurations whose R_max is not contained are skipped
+     *                        (null considers all)
+     * @param leaderSelection if true, every replica in R_max is considered as leader, else only the given leader
+     * @param leader          leader to be used if leader selection is disabled
+     * @param currentLeader   among equally good configurations, one with the current leader is preferred
+     * @param propose         sanitized PROPOSE latencies
+     * @param write           sanitized WRITE/ACCEPT latencies
+     * @param n               system size
+     * @param f               number of faults
+     * @param delta           number of additional spare replicas
+     * @param rounds          number of consensus rounds used for calculation of amortized costs
+     * @param isBFT           whether the BFT or the CFT protocol is simulated
+     * @param computeMedian   if true, the median configuration is determined as well (disables pruning)
+     * @param pruningFactor   configurations whose latency provably exceeds the best latency found so far times this
+     *                        factor are pruned; values below 1 (e.g., {@link #NO_PRUNING}) disable pruning
+     * @return best, median (if requested) and worst configuration (if not pruned), or null if no configuration was
+     * evaluated
+     */
+    public SearchResult search(int u, int[] replicaSet, Set<Integer> candidates, boolean leaderSelection, int leader,
+                               int currentLeader, long[][] propose, long[][] write, int n, int f, int delta,
+                               int rounds, boolean isBFT, boolean computeMedian, double pruningFactor) {
+        return search(u, replicaSet, candidates, leaderSelection, leader, currentLeader, propose, write, n, f, delta,
+                rounds, isBFT, computeMedian, pruningFactor, Long.MAX_VALUE);
+    }
+
+    /**
+     * Predicts the latency of all AWARE configurations and ranks them, with branch and bound warm-started from a known
+     * upper bound on the best latency, e.g., the predicted latency of the previous best configuration
+     *
+     * @param incumbent predicted latency of some configuration within the search space (Long.MAX_VALUE if unknown);
+     *                  the best configuration found stays the same, as long as it is not below the actual best latency
+     * @see #search(int, int[], Set, boolean, int, int, long[][], long[][], int, int, int, int, boolean, boolean, double)
+     */
+    public SearchResult search(int u, int[] replicaSet, Set<Integer> candidates, boolean leaderSelection, int leader,
+                               int currentLeader, long[][] propose, long[][] write, int n, int f, int delta,
+                               int rounds, boolean isBFT, boolean computeMedian, double pruningFactor,
+                               long incumbent) {
+
+        long size = WeightConfigurationEnumerator.count(replicaSet.length, u);
+        int slots = leaderSelection ? u : 1;
+        long candidateMask = candidates != null ? WeightConfiguration.toMask(candidates) : -1L;
+
+        long[] predictions = null;
+        if (computeMedian) {
+            if (size * slots > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Search space too large to determine the median");
+            }
+            predictions = new long[(int) (size * slots)];
+            Arrays.fill(predictions, NOT_EVALUATED);
+        }
+
+        boolean prune = !computeMedian && pruningFactor >= 1.0;
+        Search search = new Search(u, replicaSet, candidateMask, leaderSelection, leader, currentLeader, slots,
+                predictions, propose, write, n, f, delta, rounds, isBFT, prune ? pruningFactor : NO_PRUNING,
+                incumbent);
+        EvaluationTask task = new EvaluationTask(search, 0, size);
+        Summary summary = pool != null ? pool.invoke(task) : task.compute();
+
+        if (summary.evaluated == 0) {
+            return null;
+        }
+
+        Evaluation best = summary.bestWithCurrentLeader != null ? summary.bestWithCurrentLeader : summary.best;
+        Evaluation median = null;
+        if (computeMedian) {
+            // Select the median without sorting all configurations
+            int[] ranked = new int[(int) summary.evaluated];
+            for (int i = 0, k = 0; i < predictions.length; i++) {
+                if (predictions[i] != NOT_EVALUATED) ranked[k++] = i;
+            }
+            int index = select(ranked, ranked.length / 2, predictions);
+            WeightConfigurationEnumerator enumerator = new WeightConfigurationEnumerator(u, replicaSet);
+            enumerator.seek(index / slots);
+            long rMax = enumerator.next();
+            int medianLeader = leaderSelection ? WeightConfigurationEnumerator.nthReplica(rMax, index % slots) : leader;
+            median = new Evaluation(index, predictions[index], rMax, medianLeader);
+        }
+
+        return new SearchResult(best.toConfiguration(replicaSet),
+                median != null ? median.toConfiguration(replicaSet) : null,
+                prune ? null : summary.worst.toConfiguration(replicaSet), summary.evaluated, summary.pruned);
+    }
+
+    // Orders by predicted latency first and by enumeration index second
+    private static boolean less(int a, int b, long[] predictions) {
+        return predictions[a] < predictions[b] || (predictions[a] == predictions[b] && a < b);
+    }
+
+    /**
+     * Quickselect of the k-th smallest index with respect to (predicted latency, enumeration index)
+     */
+    private static int select(int[] a, int k, long[] predictions) {
+        int lo = 0;
+        int hi = a.length - 1;
+        while (lo < hi) {
+            int pivot = a[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (less(a[i], pivot, predictions)) i++;
+                while (less(pivot, a[j], predictions)) j--;
+                if (i <= j) {
+                    int tmp = a[i];
+                    a[i] = a[j];
+                    a[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return a[k];
+    }
+
+    /**
+     * Parameters of a single search, shared by all of its tasks
+     */
+    private class Search {
+
+        final int u;
+        final int[] replicaSet;
+        final long candidateMask;
+        final boolean leaderSelection;
+        final int leader;
+        final int currentLeader;
+        final int slots;
+        final long[] predictions;
+        final long[][] propose;
+        final long[][] write;
+        final int n;
+        final int f;
+        final int delta;
+        final int rounds;
+        final boolean isBFT;
+        final double pruningFactor;
+
+        // Shared arrival orders per leader ID
+        final LeaderBatch[] batches;
+
+        // Best latency found so far by any worker, used for pruning
+        final AtomicLong incumbent;
+
+        Search(int u, int[] replicaSet, long candidateMask, boolean leaderSelection, int leader, int currentLeader,
+               int slots, long[] predictions, long[][] propose, long[][] write, int n, int f, int delta, int rounds,
+               boolean isBFT, double pruningFactor, long incumbent) {
+            this.u = u;
+            this.replicaSet = replicaSet;
+            this.candidateMask = candidateMask;
+            this.leaderSelection = leaderSelection;
+            this.leader = leader;
+            this.currentLeader = currentLeader;
+            this.slots = slots;
+            this.predictions = predictions;
+            this.propose = propose;
+            this.write = write;
+            this.n = n;
+            this.f = f;
+            this.delta = delta;
+            this.rounds = rounds;
+            this.isBFT = isBFT;
+            this.pruningFactor = pruningFactor;
+            this.incumbent = new AtomicLong(incumbent);
+
+            this.batches = new LeaderBatch[n];
+            if (leaderSelection) {
+                for (int replica : replicaSet) {
+                    if ((candidateMask & (1L << replica)) != 0)
+                        batches[replica] = new LeaderBatch(replicaSet, replica, propose, write, n, isBFT);
+                }
+            } else {
+                batches[leader] = new LeaderBatch(replicaSet, leader, propose, write, n, isBFT);
+            }
+        }
+
+        boolean isPruning() {
+            return pruningFactor >= 1.0;
+        }
+
+        // Configurations with a latency above the cutoff cannot be the best configuration
+        long cutoff() {
+            long best = incumbent.get();
+            if (best == Long.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            double cutoff = Math.floor(best * pruningFactor);
+            return cutoff >= Long.MAX_VALUE ? Long.MAX_VALUE - 1 : (long) cutoff;
+        }
+
+        void offerIncumbent(long latency) {
+            long best;
+            while (latency < (best = incumbent.get()) && !incumbent.compareAndSet(best, latency)) ;
+        }
+
+        /**
+         * Predicts the latency of a configuration, or returns {@link SimulationEngine#PRUNED} if it provably exceeds
+         * the current cutoff
+         */
+        long evaluate(SimulationEngine engine, int primary, long rMax) {
+            LeaderBatch batch = batches[primary];
+            if (!isPruning()) {
+                return engine.predictLatency(batch, rMax, f, delta, rounds);
+            }
+            long cutoff = cutoff();
+            if (cutoff != Long.MAX_VALUE && engine.quorumLowerBound(batch, rMax, f, delta) > cutoff) {
+                return SimulationEngine.PRUNED;
+            }
+            long roundBound = engine.roundLowerBound(batch, rMax, f, delta);
+            if (cutoff != Long.MAX_VALUE && roundBound > cutoff) {
+                return SimulationEngine.PRUNED;
+            }
+            long latency = engine.predictLatency(batch, rMax, f, delta, rounds, cutoff, roundBound);
+            if (latency != SimulationEngine.PRUNED) {
+                offerIncumbent(latency);
+            }
+            return latency;
+        }
+    }
+
+    private class EvaluationTask extends RecursiveTask<Summary> {
+
+        private static final long serialVersionUID = 4108526633257815062L;
+
+        private final Search search;
+        private final long from;
+        private final long to;
+
+        EvaluationTask(Search search, long from, long to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (pool != null && to - from > SEQUENTIAL_THRESHOLD) {
+                long mid = (from + to) >>> 1;
+                EvaluationTask left = new EvaluationTask(search, from, mid);
+                EvaluationTask right = new EvaluationTask(search, mid, to);
+                right.fork();
+                Summary summary = left.compute();
+                summary.merge(right.join());
+                return summary;
+            }
+
+            Search s = search;
+            SimulationEngine engine = engines.get();
+            WeightConfigurationEnumerator enumerator = new WeightConfigurationEnumerator(s.u, s.replicaSet);
+            enumerator.seek(from);
+            Summary summary = new Summary(s.currentLeader);
+
+            for (long w = from; w < to; w++) {
+                long rMax = enumerator.next();
+                /** Begin Optilog **/
+                if ((rMax & ~s.candidateMask) != 0) continue;
+                /** End Optilog **/
+                long index = w * s.slots;
+                if (s.leaderSelection) {
+                    for (long leaders = rMax; leaders != 0; leaders &= leaders - 1) {
+                        int primary = Long.numberOfTrailingZeros(leaders);
+                        summary.add(index++, s.evaluate(engine, primary, rMax), rMax, primary, s.predictions);
+                    }
+                } else {
+                    summary.add(index, s.evaluate(engine, s.leader, rMax), rMax, s.leader, s.predictions);
+                }
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * A single evaluated configuration
+     */
+    private static class Evaluation {
+
+        final long index;
+        final long latency;
+        final long rMax;
+        final int leader;
+
+        Evaluation(long index, long latency, long rMax, int leader) {
+            this.index = index;
+            this.latency = latency;
+            this.rMax = rMax;
+            this.leader = leader;
+        }
+
+        AwareConfiguration toConfiguration(int[] replicaSet) {
+            return new AwareConfiguration(WeightConfiguration.fromMask(rMax, replicaSet), leader, latency);
+        }
+    }
+
+    /**
+     * Best and worst configuration of a contiguous range of the enumeration
+     */
+    private static class Summary {
+
+        final int currentLeader;
+        long evaluated = 0;
+        long pruned = 0;
+        Evaluation best;
+        Evaluation bestWithCurrentLeader;
+        Evaluation worst;
+
+        Summary(int currentLeader) {
+            this.currentLeader = currentLeader;
+        }
+
+        void add(long index, long latency, long rMax, int leader, long[] predictions) {
+            if (latency == SimulationEngine.PRUNED) {
+                pruned++;
+                return;
+            }
+            if (predictions != null) {
+                predictions[(int) index] = latency;
+            }
+            evaluated++;
+            boolean newBest = best == null || latency < best.latency;
+            boolean newWorst = worst == null || latency >= worst.latency;
+            boolean newBestWithCurrentLeader = leader == currentLeader
+                    && (newBest || (latency == best.latency && bestWithCurrentLeader == null));
+            if (!newBest && !newWorst && !newBestWithCurrentLeader) {
+                return;
+            }
+            Evaluation e = new Evaluation(index, latency, rMax, leader);
+            if (newBest) {
+                best = e;
+                bestWithCurrentLeader = null;
+            }
+            if (newBestWithCurrentLeader) {
+                bestWithCurrentLeader = e;
+            }
+            if (newWorst) {
+                worst = e;
+            }
+        }
+
+        // Merges the summary of the range directly following this summary's range
+        void merge(Summary next) {
+            pruned += next.pruned;
+            if (next.evaluated == 0) {
+                return;
+            }
+            if (evaluated == 0 || next.best.latency < best.latency) {
+                best = next.best;
+                bestWithCurrentLeader = next.bestWithCurrentLeader;
+            } else if (next.best.latency == best.latency && bestWithCurrentLeader == null) {
+                bestWithCurrentLeader = next.bestWithCurrentLeader;
+            }
+            if (evaluated == 0 || next.worst.latency >= worst.latency) {
+                worst = next.worst;
+            }
+            evaluated += next.evaluated;
+        }
+    }
+}
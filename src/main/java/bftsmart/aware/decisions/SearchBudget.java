@@ -0,0 +1,107 @@
+package bftsmart.aware.decisions;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Budget of an anytime search for the best AWARE configuration.
+ * <p>
+ * The search has to complete before the reconfiguration point, i.e., within the time of calculationDelay consensus
+ * instances. However, all correct replicas must reach the same reconfiguration decision, so a search must not be
+ * stopped by a wall-clock deadline: replicas would stop at different points of the search. Instead, the time budget is
+ * converted into a number of simulations using a rate that is configured equally at all replicas, and strategies stop
+ * (or shorten their schedule) deterministically once the simulations are used up. The wall-clock deadline is only
+ * tracked to report how often the budget was too large for the actual hardware.
+ * <p>
+ * While searching, strategies publish the best configuration found so far, which can be inspected concurrently.
+ *
+ * @author cb
+ */
+public class SearchBudget {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long maxSimulations;
+    private final long timeBudget; // in ns
+    private final long start = System.nanoTime();
+
+    private final AtomicReference<AwareConfiguration> bestSoFar = new AtomicReference<>();
+    private volatile boolean exhausted = false;
+
+    /**
+     * Creates a new budget
+     *
+     * @param maxSimulations maximum number of configurations to simulate ({@link #UNLIMITED} if unbounded)
+     * @param timeBudget     time available for the search in ns (only used for reporting)
+     */
+    public SearchBudget(long maxSimulations, long timeBudget) {
+        this.maxSimulations = Math.max(1, maxSimulations);
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @return a budget that does not limit the search
+     */
+    public static SearchBudget unlimited() {
+        return new SearchBudget(UNLIMITED, Long.MAX_VALUE);
+    }
+
+    public boolean isLimited() {
+        return maxSimulations != UNLIMITED;
+    }
+
+    public long getMaxSimulations() {
+        return maxSimulations;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Called by a strategy that had to cut its search to stay within the budget
+     */
+    public void setExhausted() {
+        this.exhausted = true;
+    }
+
+    /**
+     * @return true if the search was cut by the budget
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * @return true if the search took longer than the time budget
+     */
+    public boolean isOverdue() {
+        return getElapsed() > timeBudget;
+    }
+
+    /**
+     * @return time since the search started in ns
+     */
+    public long getElapsed() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Publishes a configuration found by the search, it becomes the best one so far if its latency is lower
+     */
+    public void publish(AwareConfiguration config) {
+        AwareConfiguration best;
+        do {
+            best = bestSoFar.get();
+            if (best != null && best.getPredictedLatency() <= config.getPredictedLatency()) {
+                return;
+            }
+        } while (!bestSoFar.compareAndSet(best, config));
+    }
+
+    /**
+     * @return the best configuration found so far, or null if none was published yet
+     */
+    public AwareConfiguration getBestSoFar() {
+        return bestSoFar.get();
+    }
+}
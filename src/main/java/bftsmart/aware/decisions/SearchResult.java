@@ -0,0 +1,63 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Best, median and worst configuration found by an {@link AwareSearchStrategy}
+ *
+ * @author cb
+ */
+public class SearchResult {
+
+    private final AwareConfiguration best;
+    private final AwareConfiguration median;
+    private final AwareConfiguration worst;
+    private final long examined;
+    private final long pruned;
+
+    public SearchResult(AwareConfiguration best, AwareConfiguration median, AwareConfiguration worst, long examined,
+                        long pruned) {
+        this.best = best;
+        this.median = median;
+        this.worst = worst;
+        this.examined = examined;
+        this.pruned = pruned;
+    }
+
+    /**
+     * Result of a heuristic search that only determines the best configuration
+     */
+    public SearchResult(AwareConfiguration best, long examined) {
+        this(best, null, null, examined, 0);
+    }
+
+    public AwareConfiguration getBest() {
+        return best;
+    }
+
+    /**
+     * @return the median configuration, or null if it was not requested or is unknown to the strategy
+     */
+    public AwareConfiguration getMedian() {
+        return median;
+    }
+
+    /**
+     * @return the worst configuration, or null if configurations were pruned or it is unknown to the strategy
+     */
+    public AwareConfiguration getWorst() {
+        return worst;
+    }
+
+    /**
+     * @return number of configurations whose latency was fully simulated (or, for heuristics, examined)
+     */
+    public long getExamined() {
+        return examined;
+    }
+
+    /**
+     * @return number of configurations skipped or aborted by branch and bound
+     */
+    public long getPruned() {
+        return pruned;
+    }
+}
@@ -0,0 +1,465 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Allocation-free engine behind the latency predictions of the {@link Simulator}. It simulates the same protocol run
+ * as the original PriorityQueue-based implementation, but keeps all state in primitive scratch buffers that are
+ * allocated once and reused for every subsequent prediction.
+ * <p>
+ * Votes are kept in a primitive binary min-heap (arrival times and weights in parallel arrays) that replicates the
+ * sift-up/sift-down order of java.util.PriorityQueue. The vote weights are doubles, so the point at which the
+ * accumulated weight crosses the quorum threshold depends on the order in which votes are summed; mirroring the heap
+ * order keeps predictions bit-identical to the former implementation, including arrival time ties. Only the votes
+ * up to the quorum crossing are polled from the heap.
+ * <p>
+ * Many configurations share the same leader, and until the replicas fall behind the leader, their votes arrive in an
+ * order that does not depend on the weights. Predictions for a {@link LeaderBatch} scan these precomputed orders
+ * instead of building a heap per receiver, which reduces the cost of such a phase from O(n²log(n)) to O(n²) and
+ * yields the same predictions.
+ * <p>
+ * An engine is not thread-safe: use one instance per thread.
+ *
+ * @author cb
+ */
+public class SimulationEngine {
+
+    // Returned by a bounded prediction that was aborted because it exceeds the cutoff
+    public static final long PRUNED = -1L;
+
+    private static final long NO_CUTOFF = Long.MAX_VALUE;
+
+    // Relaxation of the quorum weight used for lower bounds. Sums of vote weights are multiples of 1/f, so this is
+    // far below any real difference but far above floating point rounding errors.
+    private static final double QUORUM_SLACK = 1e-9;
+
+    private int capacity = 0;
+
+    // Scratch buffers, sized to the largest system simulated so far
+    private double[] V;
+    private long[] offsets;
+    private long[] t_proposed;
+    private long[] t_write_finished;
+    private long[] t_decided;
+
+    // Primitive vote heap
+    private long[] heapTimes;
+    private double[] heapWeights;
+    private int heapSize;
+
+    // Arrival times observed by a single replica (only recorded if requested)
+    private long proposedTime = -1L;
+    private long[] writeArrivalTimes;
+    private long[] acceptArrivalTimes;
+
+    public SimulationEngine() {
+    }
+
+    public SimulationEngine(int n) {
+        ensureCapacity(n);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= capacity) {
+            return;
+        }
+        V = new double[n];
+        offsets = new long[n];
+        t_proposed = new long[n];
+        t_write_finished = new long[n];
+        t_decided = new long[n];
+        heapTimes = new long[n];
+        heapWeights = new double[n];
+        writeArrivalTimes = new long[n];
+        acceptArrivalTimes = new long[n];
+        capacity = n;
+    }
+
+    /**
+     * Predicts the amortized latency of the SMR system for a given weight configuration and leader selection
+     * <p>
+     * The runtime complexity is O(n²log(n)) for n number of replicas considering a constant number of rounds
+     *
+     * @param replicaSet   all replicas
+     * @param leader       selected leader for protocol simulation
+     * @param weightConfig weight configuration to be simulated
+     * @param m_propose    sanitized PROPOSE latencies
+     * @param m_write      sanitized WRITE/ACCEPT latencies
+     * @param n            system size
+     * @param f            number of faults
+     * @param delta        number of additional spare replicas
+     * @param rounds       number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @param isBFT        whether quorums and phases of the BFT or the CFT protocol are simulated
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatency(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
+                               long[][] m_write, int n, int f, int delta, int rounds, boolean isBFT) {
+
+        assignWeights(replicaSet, weightConfig, n, f, delta);
+        return simulate(null, replicaSet, leader, m_propose, m_write, n, f, delta, rounds, isBFT, -1, 0.0, NO_CUTOFF,
+                0L);
+    }
+
+    /**
+     * Predicts the amortized latency of the SMR system for a weight configuration in its compact bitmask
+     * representation (see {@link WeightConfigurationEnumerator})
+     *
+     * @param rMax bitmask over replica IDs, bit i is set iff replica i is in R_max
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatency(int[] replicaSet, int leader, long rMax, long[][] m_propose, long[][] m_write, int n,
+                               int f, int delta, int rounds, boolean isBFT) {
+
+        assignWeights(replicaSet, rMax, n, f, delta);
+        return simulate(null, replicaSet, leader, m_propose, m_write, n, f, delta, rounds, isBFT, -1, 0.0, NO_CUTOFF,
+                0L);
+    }
+
+    /**
+     * Simulates a protocol run and records the arrival times of messages at replica me during the last simulated
+     * round. The recorded times can be read with {@link #getProposedTime()}, {@link #getWriteArrivalTimes(int)} and
+     * {@link #getAcceptArrivalTimes(int)}.
+     *
+     * @param me the replica from whose perspective message arrival times are recorded
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictMessageDelays(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
+                                     long[][] m_write, int n, int f, int delta, int rounds, int me) {
+
+        assignWeights(replicaSet, weightConfig, n, f, delta);
+        return simulate(null, replicaSet, leader, m_propose, m_write, n, f, delta, rounds, true, me, 0.0, NO_CUTOFF,
+                0L);
+    }
+
+    /**
+     * Predicts the amortized latency like {@link #predictLatency(int[], int, long, long[][], long[][], int, int, int,
+     * int, boolean)}, but aborts the simulation as soon as the prediction is proven to exceed a cutoff. After every
+     * simulated round, the remaining rounds are assumed to take at least roundBound.
+     *
+     * @param cutoff     the simulation is aborted if the prediction will be larger than this value
+     * @param roundBound lower bound on the latency of a single round, see {@link #roundLowerBound}
+     * @return predicted latency of the SMR protocol, or {@link #PRUNED} if it exceeds the cutoff
+     */
+    public long predictLatency(int[] replicaSet, int leader, long rMax, long[][] m_propose, long[][] m_write, int n,
+                               int f, int delta, int rounds, boolean isBFT, long cutoff, long roundBound) {
+
+        assignWeights(replicaSet, rMax, n, f, delta);
+        return simulate(null, replicaSet, leader, m_propose, m_write, n, f, delta, rounds, isBFT, -1, 0.0, cutoff,
+                roundBound);
+    }
+
+    /**
+     * Cheap O(n log(n)) lower bound on the predicted latency of a configuration: the leader cannot decide before a
+     * quorum has received its PROPOSE (BFT only, as every WRITE quorum depends on it) plus the time it takes until a
+     * quorum of votes can reach the leader.
+     * <p>
+     * Bounds are computed with a slightly relaxed quorum, so they stay valid regardless of the order in which
+     * floating point vote weights are accumulated by the exact simulation.
+     *
+     * @return lower bound on the predicted latency of any number of rounds
+     */
+    public long quorumLowerBound(int[] replicaSet, int leader, long rMax, long[][] m_propose, long[][] m_write, int n,
+                                 int f, int delta, boolean isBFT) {
+
+        assignWeights(replicaSet, rMax, n, f, delta);
+        double V_max = 1.00 + (double) delta / (double) f;
+        double Q = (isBFT ? 2 * f * V_max + 1 : f * V_max + 1) - QUORUM_SLACK;
+
+        long proposed = m_propose[leader][leader];
+        if (isBFT) {
+            heapSize = 0;
+            for (int j : replicaSet)
+                offer(m_propose[leader][j], V[j]);
+            proposed = pollUntilQuorum(Q, 0L);
+        }
+        heapSize = 0;
+        for (int j : replicaSet)
+            offer(m_write[j][leader], V[j]);
+        return proposed + pollUntilQuorum(Q, 0L);
+    }
+
+    /**
+     * Lower bound on the latency of every single simulated round: the latency of the first round, simulated with a
+     * slightly relaxed quorum. Later rounds only start later (offsets), so they cannot be faster.
+     *
+     * @return lower bound on the latency of a single round
+     */
+    public long roundLowerBound(int[] replicaSet, int leader, long rMax, long[][] m_propose, long[][] m_write, int n,
+                                int f, int delta, boolean isBFT) {
+
+        assignWeights(replicaSet, rMax, n, f, delta);
+        return simulate(null, replicaSet, leader, m_propose, m_write, n, f, delta, 1, isBFT, -1, QUORUM_SLACK,
+                NO_CUTOFF, 0L);
+    }
+
+    private void assignWeights(int[] replicaSet, long rMax, int n, int f, int delta) {
+        ensureCapacity(n);
+
+        // Assign binary voting weights to replicas
+        double V_min = 1.00;
+        double V_max = V_min + (double) delta / (double) f;
+        for (int i : replicaSet)
+            V[i] = (rMax & (1L << i)) != 0 ? V_max : V_min;
+    }
+
+    private void assignWeights(int[] replicaSet, WeightConfiguration weightConfig, int n, int f, int delta) {
+        ensureCapacity(n);
+
+        // Assign binary voting weights to replicas
+        double V_min = 1.00;
+        double V_max = V_min + (double) delta / (double) f;
+        for (int i : replicaSet)
+            V[i] = weightConfig.getR_max().contains(i) ? V_max : V_min;
+    }
+
+    /**
+     * Predicts the amortized latency of a weight configuration simulated with the leader of a batch, see
+     * {@link #predictLatency(int[], int, long, long[][], long[][], int, int, int, int, boolean)}
+     *
+     * @param batch arrival orders of the leader and the inputs of the simulation
+     * @param rMax  bitmask over replica IDs, bit i is set iff replica i is in R_max
+     * @return predicted latency of the SMR protocol
+     */
+    public long predictLatency(LeaderBatch batch, long rMax, int f, int delta, int rounds) {
+        assignWeights(batch.replicaSet, rMax, batch.n, f, delta);
+        return simulate(batch, batch.replicaSet, batch.leader, batch.propose, batch.write, batch.n, f, delta, rounds,
+                batch.isBFT, -1, 0.0, NO_CUTOFF, 0L);
+    }
+
+    /**
+     * Bounded prediction of a weight configuration simulated with the leader of a batch, see
+     * {@link #predictLatency(int[], int, long, long[][], long[][], int, int, int, int, boolean, long, long)}
+     *
+     * @return predicted latency of the SMR protocol, or {@link #PRUNED} if it exceeds the cutoff
+     */
+    public long predictLatency(LeaderBatch batch, long rMax, int f, int delta, int rounds, long cutoff,
+                               long roundBound) {
+        assignWeights(batch.replicaSet, rMax, batch.n, f, delta);
+        return simulate(batch, batch.replicaSet, batch.leader, batch.propose, batch.write, batch.n, f, delta, rounds,
+                batch.isBFT, -1, 0.0, cutoff, roundBound);
+    }
+
+    /**
+     * Predicts the amortized latency of a block of weight configurations that are simulated with the same leader
+     *
+     * @param batch     arrival orders of the leader and the inputs of the simulation
+     * @param rMaxes    weight configurations as bitmasks
+     * @param from      index of the first configuration to simulate (inclusive)
+     * @param to        index of the last configuration to simulate (exclusive)
+     * @param latencies receives the predicted latency of configuration rMaxes[k] at index k
+     * @param f         number of faults
+     * @param delta     number of additional spare replicas
+     * @param rounds    number of consensus rounds used for calculation of amortized costs (calculation depth)
+     */
+    public void predictLatencies(LeaderBatch batch, long[] rMaxes, int from, int to, long[] latencies, int f,
+                                 int delta, int rounds) {
+        for (int k = from; k < to; k++)
+            latencies[k] = predictLatency(batch, rMaxes[k], f, delta, rounds);
+    }
+
+    /**
+     * Lower bound of {@link #quorumLowerBound(int[], int, long, long[][], long[][], int, int, int, boolean)} for the
+     * leader of a batch, computed without a heap
+     */
+    public long quorumLowerBound(LeaderBatch batch, long rMax, int f, int delta) {
+        assignWeights(batch.replicaSet, rMax, batch.n, f, delta);
+        double V_max = 1.00 + (double) delta / (double) f;
+        double Q = (batch.isBFT ? 2 * f * V_max + 1 : f * V_max + 1) - QUORUM_SLACK;
+        int count = batch.replicaSet.length;
+
+        long proposed = batch.propose[batch.leader][batch.leader];
+        if (batch.isBFT)
+            proposed = scanUntilQuorum(batch.proposeOrder, batch.proposeTimes, 0, count, Q, 0L);
+        return proposed + scanUntilQuorum(batch.leaderVoteOrder, batch.leaderVoteTimes, 0, count, Q, 0L);
+    }
+
+    /**
+     * Lower bound of {@link #roundLowerBound(int[], int, long, long[][], long[][], int, int, int, boolean)} for the
+     * leader of a batch
+     */
+    public long roundLowerBound(LeaderBatch batch, long rMax, int f, int delta) {
+        assignWeights(batch.replicaSet, rMax, batch.n, f, delta);
+        return simulate(batch, batch.replicaSet, batch.leader, batch.propose, batch.write, batch.n, f, delta, 1,
+                batch.isBFT, -1, QUORUM_SLACK, NO_CUTOFF, 0L);
+    }
+
+    private long simulate(LeaderBatch batch, int[] replicaSet, int leader, long[][] m_propose, long[][] m_write,
+                          int n, int f, int delta, int rounds, boolean isBFT, int me, double slack, long cutoff,
+                          long roundBound) {
+
+        double V_max = 1.00 + (double) delta / (double) f;
+        double Q_v = (isBFT ? 2 * f * V_max + 1 : f * V_max + 1) - slack;
+        int initialRounds = rounds;
+        int count = replicaSet.length;
+        long sum = 0L;
+
+        for (int i = 0; i < n; i++) {
+            offsets[i] = 0L;
+            t_decided[i] = 0L;
+        }
+        if (me >= 0) {
+            proposedTime = -1L;
+            for (int i = 0; i < n; i++) {
+                writeArrivalTimes[i] = 0L;
+                acceptArrivalTimes[i] = 0L;
+            }
+        }
+
+        while (rounds > 0) { // If r > 1, compute the amortized consensus latency for multiple times r under the
+            // assumptions that a new consensus starts immediately after the last instance finishes
+
+            // Compute time proposed time for all replicas. the proposed time is the maximum out of two times:
+            //  (1) replica i has received the PROPOSE and (2) replica 1 has finished its last consensus
+            //                                                 (respected by offsets that express waiting time)
+            for (int i : replicaSet)
+                t_proposed[i] = Math.max(offsets[i], m_propose[leader][i]);
+
+            if (me >= 0)
+                proposedTime = t_proposed[me];
+
+            // If all replicas are ready before the PROPOSE arrives, votes arrive in the precomputed order of the batch
+            boolean sorted = batch != null && me < 0 && batch.isProposedAt(t_proposed);
+
+            // Compute time at which replica i will finish its WRITE quorum
+            for (int i : replicaSet) {
+                if (sorted) {
+                    t_write_finished[i] = scanUntilQuorum(batch.writeOrder, batch.writeTimes, i * n, count, Q_v,
+                            Long.MAX_VALUE);
+                    continue;
+                }
+                heapSize = 0;
+                for (int j : replicaSet) {
+                    long arrivalTime = t_proposed[j] + m_write[j][i];
+                    offer(arrivalTime, V[j]);
+                    if (i == me)
+                        writeArrivalTimes[j] = arrivalTime;
+                }
+                t_write_finished[i] = pollUntilQuorum(Q_v, Long.MAX_VALUE);
+            }
+
+            // Compute time at which replica i decides a value (finishes consensus)
+            // CFT: we use proposed instead of write_finished because WRITE is skipped
+            for (int i : replicaSet) {
+                if (sorted && !isBFT) {
+                    t_decided[i] = scanUntilQuorum(batch.acceptOrder, batch.acceptTimes, i * n, count, Q_v, 0L);
+                    continue;
+                }
+                heapSize = 0;
+                for (int j : replicaSet) {
+                    long arrivalTime = (isBFT ? t_write_finished[j] : t_proposed[i]) + m_write[j][i];
+                    offer(arrivalTime, V[j]);
+                    if (i == me)
+                        acceptArrivalTimes[j] = arrivalTime;
+                }
+                t_decided[i] = pollUntilQuorum(Q_v, 0L);
+            }
+            sum += t_decided[leader];
+
+            // Compute offsets (time the other replicas need to finish their consensus round relative to the leader)
+            for (int i = 0; i < n; i++)
+                offsets[i] = t_decided[i] > t_decided[leader] ? t_decided[i] - t_decided[leader] : 0L;
+
+            rounds--;
+
+            // Branch and bound: abort if even the fastest possible remaining rounds exceed the cutoff
+            if (cutoff != NO_CUTOFF && (sum + rounds * roundBound) / initialRounds > cutoff)
+                return PRUNED;
+        }
+
+        // Compute amortized consensus latency
+        return sum / initialRounds;
+    }
+
+    /**
+     * Polls votes in order of arrival until their accumulated weight reaches the quorum
+     *
+     * @param Q_v      quorum weight
+     * @param notFound value returned if all votes together do not reach the quorum
+     * @return arrival time of the vote that completes the quorum
+     */
+    private long pollUntilQuorum(double Q_v, long notFound) {
+        double votes = 0.00;
+        long t = notFound;
+        while (votes < Q_v && heapSize > 0) {
+            votes += heapWeights[0];
+            t = heapTimes[0];
+            poll();
+        }
+        return t;
+    }
+
+    /**
+     * Accumulates the weights of votes in a precomputed arrival order until they reach the quorum, like
+     * {@link #pollUntilQuorum(double, long)}
+     *
+     * @return arrival time of the vote that completes the quorum
+     */
+    private long scanUntilQuorum(int[] order, long[] times, int offset, int count, double Q_v, long notFound) {
+        double votes = 0.00;
+        long t = notFound;
+        for (int k = offset, end = offset + count; votes < Q_v && k < end; k++) {
+            votes += V[order[k]];
+            t = times[k];
+        }
+        return t;
+    }
+
+    // Same sift-up as java.util.PriorityQueue.offer
+    private void offer(long time, double weight) {
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (time >= heapTimes[parent])
+                break;
+            heapTimes[k] = heapTimes[parent];
+            heapWeights[k] = heapWeights[parent];
+            k = parent;
+        }
+        heapTimes[k] = time;
+        heapWeights[k] = weight;
+    }
+
+    // Same sift-down as java.util.PriorityQueue.poll
+    private void poll() {
+        int size = --heapSize;
+        if (size == 0)
+            return;
+        long time = heapTimes[size];
+        double weight = heapWeights[size];
+        int k = 0;
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            int right = child + 1;
+            if (right < size && heapTimes[child] > heapTimes[right])
+                child = right;
+            if (time <= heapTimes[child])
+                break;
+            heapTimes[k] = heapTimes[child];
+            heapWeights[k] = heapWeights[child];
+            k = child;
+        }
+        heapTimes[k] = time;
+        heapWeights[k] = weight;
+    }
+
+    public long getProposedTime() {
+        return proposedTime;
+    }
+
+    /**
+     * @return a copy of the WRITE arrival times recorded for replica me during the last simulated round
+     */
+    public long[] getWriteArrivalTimes(int n) {
+        long[] result = new long[n];
+        System.arraycopy(writeArrivalTimes, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * @return a copy of the ACCEPT arrival times recorded for replica me during the last simulated round
+     */
+    public long[] getAcceptArrivalTimes(int n) {
+        long[] result = new long[n];
+        System.arraycopy(acceptArrivalTimes, 0, result, 0, n);
+        return result;
+    }
+}
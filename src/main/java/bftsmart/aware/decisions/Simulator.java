@@ -16,6 +16,9 @@ import java.util.*;
  * given the measured point-to-point latencies and computes the time each replica received a PROPOSE by the leader,
  * and the time at which each client forms a quorum in the WRITE phase. It then computes the time at which a client
  * quorum of replicas is ready to execute the request.
+ * <p>
+ * A Simulator reuses the scratch buffers of its {@link SimulationEngine} across predictions and must therefore not be
+ * shared between threads.
  *
  * @author cb
  */
@@ -23,6 +26,9 @@ public class Simulator {
 
     private ServerViewController viewControl;
 
+    // Reusable, allocation-free simulation of protocol runs
+    private final SimulationEngine engine = new SimulationEngine();
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     public Simulator(ServerViewController controller) {
@@ -102,156 +108,57 @@ public class Simulator {
     public Long predictLatency(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
                                long[][] m_write, int n, int f, int delta, int rounds) {
 
-
-        long[] consensusTimes = new long[rounds];
-        long[] offsets = new long[n];
         boolean isBFT = (viewControl == null) || viewControl.getStaticConf().isBFT();
-        //int initialRoundNumber = rounds;
-        //boolean offsetMatters = false;
-
-        while (rounds > 0) { // If r > 1, compute the amortized consensus latency for multiple times r under the
-            // assumptions that a new consensus starts immediately after the last instance finishes
-
-            // Compute weights and quorum
-            double V_min = 1.00;
-            double V_max = V_min + (double) delta / (double) f;
-            double[] V = new double[n];
-            double Q_v = isBFT ? 2 * f * V_max + 1 : f * V_max + 1;
-
-            // Assign binary voting weights to replicas
-            for (int i : replicaSet)
-                V[i] = weightConfig.getR_max().contains(i) ? V_max : V_min;
-
-            // Simulate time every replica has been proposed to by the selected leader
-            long[] t_proposed = new long[n];
-            long[] t_write_finished = new long[n];
-            long[] t_decided = new long[n];
-
-            @SuppressWarnings("unchecked")
-            PriorityQueue<Vote>[] writesRcvd = new PriorityQueue[n];
-
-            @SuppressWarnings("unchecked")
-            PriorityQueue<Vote>[] acceptRcvd = new PriorityQueue[n];
-
-
-            // Compute time proposed time for all replicas. the proposed time is the maximum out of two times:
-            //  (1) replica i has received the PROPOSE and (2) replica 1 has finished its last consensus
-            //                                                 (respected by offsets that express waiting time)
-            for (int i : replicaSet) {
-                //  if (offsets[i] > m_propose[leader][i]) {
-                //     offsetMatters = true;
-                // }
-
-                t_proposed[i] = Math.max(offsets[i], m_propose[leader][i]);
-                writesRcvd[i] = new PriorityQueue<>();
-                acceptRcvd[i] = new PriorityQueue<>();
-                // if (rounds==1000)  System.out.println("Propose received " + i + " " + t_proposed[i]);
-            }
-
-            // Performance Optimization: If all offsets do not matter, return the consensus time of the first round
-            //if (rounds < initialRoundNumber && !offsetMatters) return consensusTimes[rounds];
-
-            // Compute time at which WRITE of replica j arrives at replica i
-            for (int i : replicaSet) {
-                for (int j : replicaSet) {
-                    writesRcvd[i].add(new Vote(j, V[j], t_proposed[j] + m_write[j][i]));
-                }
-            }
-
-            // Compute time at which replica i will finish its WRITE quorum
-            for (int i : replicaSet) {
-                double votes = 0.00;
-                //Set<Integer> quorumUsed = new TreeSet<>();
-                long t_written = Long.MAX_VALUE;
-                while (votes < Q_v) {
-                    Vote vote = writesRcvd[i].poll();
-                    if (vote != null) {
-                        votes += vote.weight;
-                        t_written = vote.arrivalTime;
-                        //quorumUsed.add(vote.castBy);
-                    }
-                }
-                t_write_finished[i] = t_written;
-                // if (rounds==1000) System.out.println("Written " + i + " " + t_written);
-            }
-
-            // Compute time at which ACCEPT of replica j arrives at replica i
-            // CFT: we use proposed instead of write_finished because WRITE is skipped
-            for (int i : replicaSet) {
-                for (int j : replicaSet) {
-                    acceptRcvd[i].add(new Vote(j, V[j], (isBFT ? t_write_finished[j] : t_proposed[i]) + m_write[j][i]));
-                }
-            }
-
-            // Compute time at which replica i decides a value (finishes consensus)
-            for (int i : replicaSet) {
-                double votes = 0.00;
-                while (votes < Q_v) {
-                    Vote vote = acceptRcvd[i].poll();
-                    if (vote != null) {
-                        votes += vote.weight;
-                        t_decided[i] = vote.arrivalTime;
-                    }
-                }
-                // if (rounds==1000) System.out.println("Decided " + i + " " + t_decided[i]);
-
-            }
-            consensusTimes[rounds - 1] = t_decided[leader];
-
-            // Compute offsets (time the other replicas need to finish their consensus round relative to the leader)
-            for (int i = 0; i < n; i++)
-                offsets[i] = t_decided[i] > t_decided[leader] ? t_decided[i] - t_decided[leader] : 0L;
-
-            rounds--;
-        }
-
-        // Compute amortized consensus latency
-        long sum = 0L;
-        for (int i = 0; i < consensusTimes.length; i++) {
-            sum += consensusTimes[i];
-        }
-
-        //DEBUG Delete later
-        /*
-        boolean printrounds = false;
-        for (int i = 0; i < consensusTimes.length-1; i++) {
-            for (int j = i; j < consensusTimes.length-1; j++) {
-                if (consensusTimes[i] < consensusTimes[j]) {
-                    //System.out.println("not monotonous ascending latency " + i + " " + j + " " + consensusTimes[i] + " " + consensusTimes[j]);
-                    printrounds = true;
-                }
-            }
-        }
-        if (printrounds) {
-            for (int i =  consensusTimes.length-1; i > 0; i--) {
-                System.out.print(" " + consensusTimes[i]);
-            }
-        }
-
-
-        if (!offsetMatters)
-            System.out.print("OFFSETS do not matter");
-
-        //END Delete later
-        */
+        return engine.predictLatency(replicaSet, leader, weightConfig, m_propose, m_write, n, f, delta, rounds, isBFT);
+    }
 
-        //System.out.println("------------------------");
 
+    /**
+     * Predicts the latency of a block of weight configurations that are simulated with the same leader. The arrival
+     * orders of votes that do not depend on the weights are computed once for the leader (see {@link LeaderBatch})
+     * and shared by all configurations, so every configuration only pays for its quorum formation.
+     *
+     * @param replicaSet all replicas
+     * @param leader     selected leader for protocol simulation
+     * @param rMaxes     weight configurations as bitmasks over replica IDs (see {@link WeightConfigurationEnumerator})
+     * @param m_propose  sanitized PROPOSE latencies
+     * @param m_write    sanitized WRITE/ACCEPT latencies
+     * @param n          system size
+     * @param f          number of faults
+     * @param delta      number of additional spare replicas
+     * @param rounds     number of consensus rounds used for calculation of amortized costs (calculation depth)
+     * @return predicted latency of configuration rMaxes[k] at index k
+     */
+    public long[] predictLatencies(int[] replicaSet, int leader, long[] rMaxes, long[][] m_propose, long[][] m_write,
+                                   int n, int f, int delta, int rounds) {
 
-        return sum / consensusTimes.length;
+        boolean isBFT = (viewControl == null) || viewControl.getStaticConf().isBFT();
+        LeaderBatch batch = new LeaderBatch(replicaSet, leader, m_propose, m_write, n, isBFT);
+        long[] latencies = new long[rMaxes.length];
+        engine.predictLatencies(batch, rMaxes, 0, rMaxes.length, latencies, f, delta, rounds);
+        return latencies;
     }
 
-
     public static SimulationRun simulatedAnnealing(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write, long seed, Set<Integer> candidates) {
+        return simulatedAnnealing(n, f, delta, u, replicaSet, propose, write, seed, candidates, null);
+    }
+
+    /**
+     * Simulated Annealing that starts from a given configuration, e.g., the best configuration of the previous
+     * optimization, instead of the default configuration
+     *
+     * @param start initial configuration (R_max must hold u replicas); null starts from the default configuration
+     */
+    public static SimulationRun simulatedAnnealing(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write, long seed, Set<Integer> candidates, AwareConfiguration start) {
 
         long t1 = System.nanoTime();
         Simulator simulator = new Simulator(null);
 
         // Initialize
-        WeightConfiguration w = new WeightConfiguration(u, replicaSet);
-        int leader = 0;
+        WeightConfiguration w = start != null ? start.getWeightConfiguration().deepCopy() : new WeightConfiguration(u, replicaSet);
+        int leader = start != null ? start.getLeader() : 0;
         // Begin OptiLog
-        if (candidates != null) {
+        if (start == null && candidates != null) {
             boolean leaderFound = false;
             for (int i = 0; i < n && !leaderFound; i++) {
                 if (candidates.contains(i)) {
@@ -369,7 +276,9 @@ public class Simulator {
 
         Simulator.printStrategyInfo("Simulated Annealing", examined, best, time, additionalParameters);
 
-        return simulator.new SimulationRun(time, best.getPredictedLatency(), best);
+        SimulationRun run = simulator.new SimulationRun(time, best.getPredictedLatency(), best);
+        run.examined = examined;
+        return run;
     }
 
 
@@ -433,7 +342,7 @@ public class Simulator {
     public static SimulationRun pickSampleConfigs(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write, int sample) {
 
         long t1 = System.nanoTime();
-        List<WeightConfiguration> weightConfigs = WeightConfiguration.allPossibleWeightConfigurations(u, replicaSet);
+        WeightConfigurationEnumerator weightConfigs = new WeightConfigurationEnumerator(u, replicaSet);
         Simulator simulator = new Simulator(null);
 
         long bestLatency = Long.MAX_VALUE;
@@ -442,24 +351,28 @@ public class Simulator {
         AwareConfiguration best = new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0);
         AwareConfiguration worst = new AwareConfiguration(new WeightConfiguration(u, replicaSet), 0);
 
-        int skip = Math.max(weightConfigs.size() * u / sample, 1);
-        int count = 0;
+        long skip = Math.max(weightConfigs.size() * u / sample, 1);
+        long count = 0;
         int examined = 0;
-        for (WeightConfiguration w : weightConfigs) {
+        while (weightConfigs.hasNext()) {
+            long rMax = weightConfigs.next();
             count++;
             if (sample == -1 || count % skip == 0) {
-                for (int primary : w.getR_max()) { // Only replicas in R_max will be considered to become leader ?
+                // Only replicas in R_max will be considered to become leader ?
+                for (long leaders = rMax; leaders != 0; leaders &= leaders - 1) {
+                    int primary = Long.numberOfTrailingZeros(leaders);
                     examined++;
-                    Long prediction = simulator.predictLatency(replicaSet, primary, w, propose, write, n, f, delta, 10);
+                    long prediction = simulator.engine.predictLatency(replicaSet, primary, rMax, propose, write,
+                            n, f, delta, 10, true);
 
                     if (prediction < bestLatency) {
                         bestLatency = prediction;
-                        best = new AwareConfiguration(w, primary, prediction);
+                        best = new AwareConfiguration(WeightConfiguration.fromMask(rMax, replicaSet), primary, prediction);
                     }
 
                     if (prediction > worstLatency) {
                         worstLatency = prediction;
-                        worst = new AwareConfiguration(w, primary, prediction);
+                        worst = new AwareConfiguration(WeightConfiguration.fromMask(rMax, replicaSet), primary, prediction);
                     }
                 }
             }
@@ -479,140 +392,45 @@ public class Simulator {
     }
 
 
+    /**
+     * Predicts the message delays of the current view with the given leader from the latencies of the
+     * {@link LatencyMonitor}; cached until the latencies, the view or the leader change
+     *
+     * @see LatencyExpectationCache#getMessageDelays(View, int)
+     */
     public static MessageDelays predictMessageDelays(ServerViewController svc, int leader) {
-        View v = svc.getCurrentView();
-        int[] replicaSet = v.getProcesses();
-        int n = v.getN();
-        int f = v.getF();
-        int delta = v.getDelta();
-        int me = svc.getStaticConf().getProcessId();
-        LatencyMonitor latencyMonitor = LatencyMonitor.getInstance(svc);
-        // init matrices
-        long[][] propose = new long[n][n];
-        long[][] write = new long[n][n];
-        Long[][] propose_ast = latencyMonitor.sanitize(latencyMonitor.getM_propose());
-        Long[][] write_ast = latencyMonitor.sanitize(latencyMonitor.getM_write());
-
-        // Long to long
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                propose[i][j] = propose_ast[i][j];
-                write[i][j] = write_ast[i][j];
-            }
-        }
-        if (!svc.getStaticConf().isUseDummyPropose()) {
-            propose = write;
-        }
-        Simulator sim = new Simulator(svc);
-        return sim.predictMessageDelays(replicaSet, leader, v.getWeightConfiguration(), propose, write, n, f, delta, 10, me);
+        return LatencyExpectationCache.getInstance(svc).getMessageDelays(svc.getCurrentView(), leader);
     }
 
     public MessageDelays predictMessageDelays(int[] replicaSet, int leader, WeightConfiguration weightConfig, long[][] m_propose,
                                               long[][] m_write, int n, int f, int delta, int rounds, int me) {
 
-        long[] consensusTimes = new long[rounds];
-        long[] offsets = new long[n];
-
-        long propose_arrival_time = -1L;
-        long[] write_arrival_time = new long[n];
-        long[] accept_arrival_time = new long[n];
-
-        while (rounds > 0) { // If r > 1, compute the amortized consensus latency for multiple times r under the
-            // assumptions that a new consensus starts immediately after the last instance finishes
-
-            // Compute weights and quorum
-            double V_min = 1.00;
-            double V_max = V_min + (double) delta / (double) f;
-            double[] V = new double[n];
-            double Q_v =  2 * f * V_max + 1;
-
-            // Assign binary voting weights to replicas
-            for (int i : replicaSet)
-                V[i] = weightConfig.getR_max().contains(i) ? V_max : V_min;
-
-            // Simulate time every replica has been proposed to by the selected leader
-            long[] t_proposed = new long[n];
-            long[] t_write_finished = new long[n];
-            long[] t_decided = new long[n];
-
-            @SuppressWarnings("unchecked")
-            PriorityQueue<Vote>[] writesRcvd = new PriorityQueue[n];
-            @SuppressWarnings("unchecked")
-            PriorityQueue<Vote>[] acceptRcvd = new PriorityQueue[n];
-
-            // Compute time proposed time for all replicas. the proposed time is the maximum out of two times:
-            //  (1) replica i has received the PROPOSE and (2) replica 1 has finished its last consensus
-            //                                                 (respected by offsets that express waiting time)
-            for (int i : replicaSet) {
-                t_proposed[i] = Math.max(offsets[i], m_propose[leader][i]);
-                writesRcvd[i] = new PriorityQueue<>();
-                acceptRcvd[i] = new PriorityQueue<>();
-            }
-
-            propose_arrival_time = t_proposed[me];
-
-            // Compute time at which WRITE of replica j arrives at replica i
-            for (int i : replicaSet) {
-                for (int j : replicaSet) {
-                    long arrival_time = t_proposed[j] + m_write[j][i];
-                    writesRcvd[i].add(new Vote(j, V[j], arrival_time));
-                    if (i == me) {
-                        write_arrival_time[j] = arrival_time;
-                    }
-                }
-            }
+        engine.predictMessageDelays(replicaSet, leader, weightConfig, m_propose, m_write, n, f, delta, rounds, me);
+        return new MessageDelays(engine.getProposedTime(), engine.getWriteArrivalTimes(n), engine.getAcceptArrivalTimes(n));
+    }
 
-            // Compute time at which replica i will finish its WRITE quorum
-            for (int i : replicaSet) {
-                double votes = 0.00;
-                //Set<Integer> quorumUsed = new TreeSet<>();
-                long t_written = Long.MAX_VALUE;
-                while (votes < Q_v) {
-                    Vote vote = writesRcvd[i].poll();
-                    if (vote != null) {
-                        votes += vote.weight;
-                        t_written = vote.arrivalTime;
-                        //quorumUsed.add(vote.castBy);
-                    }
-                }
-                t_write_finished[i] = t_written;
-            }
 
-            // Compute time at which ACCEPT of replica j arrives at replica i
-            for (int i : replicaSet) {
-                for (int j : replicaSet) {
-                    long arrival_time = t_write_finished[j] + m_write[j][i];
-                    acceptRcvd[i].add(new Vote(j, V[j], arrival_time));
-                    if (i == me) {
-                        accept_arrival_time[j] = arrival_time;
-                    }
-                }
-            }
+    /**
+     * Exhaustive search with branch and bound: finds the same best configuration as
+     * {@link #exhaustiveSearch(int, int, int, int, int[], long[][], long[][])} but skips the simulation of
+     * configurations whose lower bound exceeds the best latency found so far
+     */
+    public static SimulationRun branchAndBound(int n, int f, int delta, int u, int[] replicaSet, long[][] propose, long[][] write) {
 
-            // Compute time at which replica i decides a value (finishes consensus)
-            for (int i : replicaSet) {
-                double votes = 0.00;
-                while (votes < Q_v) {
-                    Vote vote = acceptRcvd[i].poll();
-                    if (vote != null) {
-                        votes += vote.weight;
-                        t_decided[i] = vote.arrivalTime;
-                    }
-                }
-                // if (rounds==1000) System.out.println("Decided " + i + " " + t_decided[i]);
+        long t1 = System.nanoTime();
+        Simulator simulator = new Simulator(null);
 
-            }
-            consensusTimes[rounds - 1] = t_decided[leader];
+        SearchResult result = new ParallelExhaustiveSearch().search(u, replicaSet, null,
+                true, 0, 0, propose, write, n, f, delta, 10, true, false, 1.0);
 
-            // Compute offsets (time the other replicas need to finish their consensus round relative to the leader)
-            for (int i = 0; i < n; i++) {
-                offsets[i] = t_decided[i] > t_decided[leader] ? t_decided[i] - t_decided[leader] : 0L;
-            }
+        long t2 = System.nanoTime();
+        double time = ((double) (t2 - t1)) / 1000000.00; // in ms
 
-            rounds--;
-        }
+        AwareConfiguration best = result.getBest();
+        String additionalParameters = "pruned: " + result.getPruned();
+        Simulator.printStrategyInfo("Branch and Bound", (int) result.getExamined(), best, time, additionalParameters);
 
-        return new MessageDelays(propose_arrival_time, write_arrival_time, accept_arrival_time);
+        return simulator.new SimulationRun(time, best.getPredictedLatency(), best);
     }
 
 
@@ -638,24 +456,6 @@ public class Simulator {
 
     }
 
-    public class Vote implements Comparable {
-
-        int castBy; // replicaID which has cast the vote
-        double weight; // weight of the vote i.e. V_min or V_max
-        long arrivalTime; // timestamp of simulated arrival of the vote
-
-        Vote(int castBy, double weight, long arrivalTime) {
-            this.castBy = castBy;
-            this.weight = weight;
-            this.arrivalTime = arrivalTime;
-        }
-
-        @Override
-        public int compareTo(Object o) {
-            return Long.compare(this.arrivalTime, ((Vote) o).arrivalTime);
-        }
-    }
-
     public class MessageDelays {
 
         public long proposedTime;
@@ -676,6 +476,7 @@ public class Simulator {
         long solutionLatency;
         AwareConfiguration best;
         AwareConfiguration worst;
+        int examined;
 
         SimulationRun(double time, long solutionLatency, AwareConfiguration best, AwareConfiguration worst) {
             this.timeNeeded = time;
@@ -702,6 +503,10 @@ public class Simulator {
             return worst.getPredictedLatency();
         }
 
+        public int getExamined() {
+            return examined;
+        }
+
         @Override
         public int compareTo(Object o) {
             return Long.compare(this.solutionLatency, ((SimulationRun) o).solutionLatency);
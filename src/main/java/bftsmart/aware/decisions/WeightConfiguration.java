@@ -86,8 +86,48 @@ public class WeightConfiguration {
     }
 
 
+    /**
+     * Creates a weight configuration from its compact bitmask representation
+     *
+     * @param rMax       bitmask over replica IDs, bit i is set iff replica i is in R_max
+     * @param replicaSet all replicas
+     * @see WeightConfigurationEnumerator
+     */
+    public static WeightConfiguration fromMask(long rMax, int[] replicaSet) {
+        Set<Integer> r_max = new TreeSet<>();
+        Set<Integer> r_min = new TreeSet<>();
+        for (int replica : replicaSet) {
+            if ((rMax & (1L << replica)) != 0) {
+                r_max.add(replica);
+            } else {
+                r_min.add(replica);
+            }
+        }
+        return new WeightConfiguration(r_max, r_min);
+    }
+
+    /**
+     * Computes the compact bitmask representation of a set of replicas (e.g., R_max or a candidate set)
+     *
+     * @param replicas replica IDs in [0, 63]
+     * @return bitmask over replica IDs
+     * @throws IllegalArgumentException if a replica ID does not fit into the bitmask
+     */
+    public static long toMask(Set<Integer> replicas) {
+        long mask = 0L;
+        for (int replica : replicas) {
+            if (replica < 0 || replica >= WeightConfigurationEnumerator.MAX_REPLICAS) {
+                throw new IllegalArgumentException("Replica ID " + replica + " does not fit into a bitmask");
+            }
+            mask |= 1L << replica;
+        }
+        return mask;
+    }
+
     /**
      * Creates all possible WeightConfigurations from given a replica set and the u param (number of Vmax replicas)
+     * Note: this materializes the whole search space, use a {@link WeightConfigurationEnumerator} to evaluate
+     * configurations on the fly
      *
      * @param u          nmuber of Vmax replicass: 2f (BFT) or f (CFT)
      * @param replicaSet all replicas
@@ -0,0 +1,133 @@
+package bftsmart.aware.decisions;
+
+/**
+ * Lazily enumerates all weight configurations (all combinations of drawing u replicas for R_max out of the replica
+ * set) in constant memory. A weight configuration is represented compactly as a bitmask over replica IDs, where bit i
+ * is set iff replica i is in R_max. Only configurations that are actually needed (e.g., the best one) have to be
+ * materialized with {@link WeightConfiguration#fromMask(long, int[])}.
+ * <p>
+ * Configurations are produced in the same (lexicographic) order as
+ * {@link WeightConfiguration#allPossibleWeightConfigurations(int, int[])}. Internally, Gosper's hack steps through the
+ * (n-u)-subsets of R_min in bit-reversed position space, which yields R_max in lexicographic order. Every
+ * configuration can also be addressed directly by its index (see {@link #seek(long)}), which allows to partition the
+ * search space between threads.
+ * <p>
+ * Supports up to 64 replicas with IDs in [0, 63].
+ *
+ * @author cb
+ */
+public class WeightConfigurationEnumerator {
+
+    public static final int MAX_REPLICAS = 64;
+
+    private static final long[][] BINOMIAL = new long[MAX_REPLICAS + 1][MAX_REPLICAS + 1];
+
+    static {
+        for (int i = 0; i <= MAX_REPLICAS; i++) {
+            BINOMIAL[i][0] = 1L;
+            for (int j = 1; j <= i; j++) {
+                BINOMIAL[i][j] = BINOMIAL[i - 1][j - 1] + BINOMIAL[i - 1][j];
+            }
+        }
+    }
+
+    private final int[] replicaSet;
+    private final int n;
+    private final int r; // size of R_min
+    private final long size;
+
+    private long index;
+    private long complement; // R_min positions in bit-reversed position space
+
+    /**
+     * Creates an enumerator positioned at the first weight configuration
+     *
+     * @param u          number of Vmax replicas: 2f (BFT) or f (CFT)
+     * @param replicaSet all replicas
+     */
+    public WeightConfigurationEnumerator(int u, int[] replicaSet) {
+        if (replicaSet.length > MAX_REPLICAS || u < 0 || u > replicaSet.length) {
+            throw new IllegalArgumentException("Cannot enumerate " + u + " out of " + replicaSet.length + " replicas");
+        }
+        for (int replica : replicaSet) {
+            if (replica < 0 || replica >= MAX_REPLICAS) {
+                throw new IllegalArgumentException("Replica ID " + replica + " does not fit into a bitmask");
+            }
+        }
+        this.replicaSet = replicaSet;
+        this.n = replicaSet.length;
+        this.r = n - u;
+        this.size = count(n, u);
+        seek(0);
+    }
+
+    /**
+     * @return binomial coefficient C(n, u), i.e., the number of weight configurations
+     */
+    public static long count(int n, int u) {
+        if (u < 0 || u > n || n > MAX_REPLICAS) {
+            return 0L;
+        }
+        return BINOMIAL[n][u];
+    }
+
+    /**
+     * @return the n-th (counting from 0) lowest replica ID contained in a bitmask
+     */
+    static int nthReplica(long mask, int nth) {
+        for (int i = 0; i < nth; i++) {
+            mask &= mask - 1;
+        }
+        return Long.numberOfTrailingZeros(mask);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Positions the enumerator such that the next call to {@link #next()} returns the configuration with the given
+     * index (unranking with the combinatorial number system)
+     *
+     * @param index index of the configuration in enumeration order
+     */
+    public void seek(long index) {
+        this.index = index;
+        this.complement = 0L;
+        if (index >= size) {
+            return;
+        }
+        long k = index;
+        int c = n - 1;
+        for (int i = r; i >= 1; i--) {
+            while (BINOMIAL[c][i] > k) c--;
+            complement |= 1L << c;
+            k -= BINOMIAL[c][i];
+            c--;
+        }
+    }
+
+    public boolean hasNext() {
+        return index < size;
+    }
+
+    /**
+     * @return the next weight configuration as R_max bitmask over replica IDs
+     */
+    public long next() {
+        long rMax = 0L;
+        for (int p = 0; p < n; p++) {
+            if ((complement & (1L << (n - 1 - p))) == 0) {
+                rMax |= 1L << replicaSet[p];
+            }
+        }
+        index++;
+        if (index < size) {
+            // Gosper's hack: next larger bit pattern with the same number of set bits
+            long lowest = complement & -complement;
+            long ripple = complement + lowest;
+            complement = (((ripple ^ complement) >>> 2) >>> Long.numberOfTrailingZeros(lowest)) | ripple;
+        }
+        return rMax;
+    }
+}
@@ -11,10 +11,10 @@ public class SerializationTest {
      */
     public static void main(String[] args) throws Exception {
 
-        Long[] m = {0L, 20L, 100L, 200L, 200L};
+        long[] m = {0L, 20L, 100L, 200L, 200L};
 
         System.out.print("m (long) is ");
-        for (Long l : m) {
+        for (long l : m) {
             System.out.println(l);
         }
 
@@ -22,10 +22,10 @@ public class SerializationTest {
 
         System.out.println("To Bytes " + toBytes);
 
-        Long[] ident = bytesToLong(toBytes);
+        long[] ident = bytesToLong(toBytes);
 
         System.out.println("Back to Long");
-        for (Long l : ident) {
+        for (long l : ident) {
             System.out.println(l);
         }
     }
@@ -0,0 +1,188 @@
+package bftsmart.aware.tests;
+
+import bftsmart.aware.decisions.SimulationEngine;
+import bftsmart.aware.decisions.WeightConfiguration;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Tests if the simulation engine predicts the same latencies as the straightforward simulation with priority queues
+ * it replaced, for random latency matrices with and without equal latencies
+ *
+ * @author cb
+ */
+public class SimulationEngineTest {
+
+    private static final int RUNS = 2000;
+
+    /**
+     * Compares the predictions for random systems, weight configurations and leaders
+     *
+     * @param args the command line arguments: optional seed
+     * @author cb
+     */
+    public static void main(String[] args) throws Exception {
+
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42L;
+        Random random = new Random(seed);
+        SimulationEngine engine = new SimulationEngine();
+        int mismatches = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            boolean isBFT = random.nextBoolean();
+            boolean ties = run % 2 == 0;
+            int f = 1 + random.nextInt(3);
+            int delta = random.nextInt(f + 1);
+            int n = (isBFT ? 3 * f + 1 : 2 * f + 1) + delta;
+            int u = isBFT ? 2 * f : f;
+            int rounds = random.nextBoolean() ? 1 : 10;
+
+            int[] replicaSet = new int[n];
+            for (int i = 0; i < n; i++) {
+                replicaSet[i] = i;
+            }
+            shuffle(replicaSet, random);
+            WeightConfiguration weightConfig = new WeightConfiguration(u, replicaSet);
+            int leader = replicaSet[random.nextInt(n)];
+            long[][] propose = randomMatrix(n, ties, random);
+            long[][] write = randomMatrix(n, ties, random);
+
+            long expected = referencePrediction(replicaSet, leader, weightConfig, propose, write, n, f, delta, rounds,
+                    isBFT);
+            long predicted = engine.predictLatency(replicaSet, leader, weightConfig, propose, write, n, f, delta,
+                    rounds, isBFT);
+            long rMax = WeightConfiguration.toMask(weightConfig.getR_max());
+            long predictedBitmask = engine.predictLatency(replicaSet, leader, rMax, propose, write, n, f, delta,
+                    rounds, isBFT);
+
+            if (predicted != expected || predictedBitmask != expected) {
+                mismatches++;
+                System.out.println("Mismatch in run " + run + " (n=" + n + ", f=" + f + ", delta=" + delta + ", "
+                        + (isBFT ? "BFT" : "CFT") + ", ties=" + ties + ", rounds=" + rounds + "): expected "
+                        + expected + " ms, predicted " + predicted + " ms and " + predictedBitmask + " ms");
+            }
+        }
+
+        System.out.println(mismatches + " mismatches in " + RUNS + " runs");
+        if (mismatches > 0) {
+            throw new IllegalStateException("Simulation engine deviates from the reference simulation");
+        }
+    }
+
+    // Symmetric latencies; with ties, only few distinct latencies occur
+    private static long[][] randomMatrix(int n, boolean ties, Random random) {
+        long[][] m = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                m[i][j] = m[j][i] = ties ? 10L * (1 + random.nextInt(3)) : 1L + random.nextInt(1000000);
+            }
+        }
+        return m;
+    }
+
+    private static void shuffle(int[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * The simulation with priority queues of arriving votes, as it was before the simulation engine
+     */
+    private static long referencePrediction(int[] replicaSet, int leader, WeightConfiguration weightConfig,
+                                            long[][] m_propose, long[][] m_write, int n, int f, int delta, int rounds,
+                                            boolean isBFT) {
+        long[] consensusTimes = new long[rounds];
+        long[] offsets = new long[n];
+
+        while (rounds > 0) {
+            double V_min = 1.00;
+            double V_max = V_min + (double) delta / (double) f;
+            double[] V = new double[n];
+            double Q_v = isBFT ? 2 * f * V_max + 1 : f * V_max + 1;
+
+            for (int i : replicaSet)
+                V[i] = weightConfig.getR_max().contains(i) ? V_max : V_min;
+
+            long[] t_proposed = new long[n];
+            long[] t_write_finished = new long[n];
+            long[] t_decided = new long[n];
+
+            @SuppressWarnings("unchecked")
+            PriorityQueue<Vote>[] writesRcvd = new PriorityQueue[n];
+            @SuppressWarnings("unchecked")
+            PriorityQueue<Vote>[] acceptRcvd = new PriorityQueue[n];
+
+            for (int i : replicaSet) {
+                t_proposed[i] = Math.max(offsets[i], m_propose[leader][i]);
+                writesRcvd[i] = new PriorityQueue<>();
+                acceptRcvd[i] = new PriorityQueue<>();
+            }
+
+            for (int i : replicaSet) {
+                for (int j : replicaSet) {
+                    writesRcvd[i].add(new Vote(V[j], t_proposed[j] + m_write[j][i]));
+                }
+            }
+
+            for (int i : replicaSet) {
+                double votes = 0.00;
+                long t_written = Long.MAX_VALUE;
+                while (votes < Q_v && !writesRcvd[i].isEmpty()) {
+                    Vote vote = writesRcvd[i].poll();
+                    votes += vote.weight;
+                    t_written = vote.arrivalTime;
+                }
+                t_write_finished[i] = t_written;
+            }
+
+            // CFT: we use proposed instead of write_finished because WRITE is skipped
+            for (int i : replicaSet) {
+                for (int j : replicaSet) {
+                    acceptRcvd[i].add(new Vote(V[j], (isBFT ? t_write_finished[j] : t_proposed[i]) + m_write[j][i]));
+                }
+            }
+
+            for (int i : replicaSet) {
+                double votes = 0.00;
+                while (votes < Q_v && !acceptRcvd[i].isEmpty()) {
+                    Vote vote = acceptRcvd[i].poll();
+                    votes += vote.weight;
+                    t_decided[i] = vote.arrivalTime;
+                }
+            }
+            consensusTimes[rounds - 1] = t_decided[leader];
+
+            for (int i = 0; i < n; i++)
+                offsets[i] = t_decided[i] > t_decided[leader] ? t_decided[i] - t_decided[leader] : 0L;
+
+            rounds--;
+        }
+
+        long sum = 0L;
+        for (long consensusTime : consensusTimes) {
+            sum += consensusTime;
+        }
+        return sum / consensusTimes.length;
+    }
+
+    private static class Vote implements Comparable<Vote> {
+
+        private final double weight;
+        private final long arrivalTime;
+
+        Vote(double weight, long arrivalTime) {
+            this.weight = weight;
+            this.arrivalTime = arrivalTime;
+        }
+
+        @Override
+        public int compareTo(Vote other) {
+            return Long.compare(arrivalTime, other.arrivalTime);
+        }
+    }
+}
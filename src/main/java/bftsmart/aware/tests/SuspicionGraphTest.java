@@ -0,0 +1,219 @@
+package bftsmart.aware.tests;
+
+import bftsmart.optilog.monitors.BitsetGraph;
+import bftsmart.optilog.monitors.SuspicionGraph;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.matching.GreedyMaximumCardinalityMatching;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Tests if the candidate set computed on the bitset graph is the same as the one computed with JGraphT, for random
+ * suspicion graphs of different sizes and densities (sparse graphs take the independent set, dense ones the
+ * heuristic)
+ *
+ * @author cb
+ */
+public class SuspicionGraphTest {
+
+    private static final int RUNS = 2000;
+
+    /**
+     * Compares the candidate sets of random suspicion graphs
+     *
+     * @param args the command line arguments: optional seed
+     * @author cb
+     */
+    public static void main(String[] args) throws Exception {
+
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42L;
+        Random random = new Random(seed);
+        double[] densities = {0.02, 0.1, 0.3, 0.6, 0.9};
+        int mismatches = 0;
+        int heuristic = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            int n = 4 + random.nextInt(37);
+            int f = (n - 1) / 3;
+            double density = densities[run % densities.length];
+            int[] processes = new int[n];
+            for (int i = 0; i < n; i++) {
+                processes[i] = i;
+            }
+
+            BitsetGraph bitsetGraph = new BitsetGraph(n);
+            Graph<Integer, DefaultWeightedEdge> graph = new DirectedWeightedMultigraph<>(DefaultWeightedEdge.class);
+            for (int i : processes) {
+                bitsetGraph.addVertex(i);
+                graph.addVertex(i);
+            }
+
+            // Suspicions in random order, some of them are removed again (e.g., after they decayed) and re-added
+            List<int[]> suspicions = new ArrayList<>();
+            for (int reporter : processes) {
+                for (int suspect : processes) {
+                    if (reporter != suspect && random.nextDouble() < density) {
+                        suspicions.add(new int[]{reporter, suspect});
+                    }
+                }
+            }
+            Collections.shuffle(suspicions, random);
+            List<int[]> removed = new ArrayList<>();
+            for (int[] suspicion : suspicions) {
+                addSuspicion(bitsetGraph, graph, suspicion);
+                if (random.nextInt(10) == 0) {
+                    bitsetGraph.removeEdge(suspicion[0], suspicion[1]);
+                    graph.removeEdge(suspicion[0], suspicion[1]);
+                    removed.add(suspicion);
+                }
+            }
+            for (int[] suspicion : removed) {
+                if (random.nextBoolean()) {
+                    addSuspicion(bitsetGraph, graph, suspicion);
+                }
+            }
+
+            Set<Integer> expectedIndependentSet = SuspicionGraph.greedyIndependentSet(graph);
+            Set<Integer> independentSet = bitsetGraph.greedyIndependentSet();
+            if (expectedIndependentSet.size() < f + 1) {
+                heuristic++;
+            }
+            Set<Integer> expected = referenceCandidateSet(graph, processes, f);
+            Set<Integer> candidateSet = SuspicionGraph.candidateSet(bitsetGraph, processes, f);
+
+            if (!new ArrayList<>(independentSet).equals(new ArrayList<>(expectedIndependentSet))
+                    || !candidateSet.equals(expected)) {
+                mismatches++;
+                System.out.println("Mismatch in run " + run + " (n=" + n + ", density=" + density + "): expected "
+                        + expectedIndependentSet + " and " + expected + ", computed " + independentSet + " and "
+                        + candidateSet);
+            }
+        }
+
+        System.out.println(mismatches + " mismatches in " + RUNS + " runs (" + heuristic + " used the heuristic)");
+        if (mismatches > 0) {
+            throw new IllegalStateException("Candidate set deviates from the JGraphT computation");
+        }
+    }
+
+    private static void addSuspicion(BitsetGraph bitsetGraph, Graph<Integer, DefaultWeightedEdge> graph,
+                                     int[] suspicion) {
+        bitsetGraph.addEdge(suspicion[0], suspicion[1], 1.0);
+        DefaultWeightedEdge edge = graph.addEdge(suspicion[0], suspicion[1]);
+        graph.setEdgeWeight(edge, 1.0);
+    }
+
+    /**
+     * The candidate set computation with JGraphT, as it was before the bitset graph
+     */
+    private static Set<Integer> referenceCandidateSet(Graph<Integer, DefaultWeightedEdge> suspicionGraph,
+                                                      int[] processes, int f) {
+        Set<Integer> maxIndependentSet = SuspicionGraph.greedyIndependentSet(suspicionGraph);
+        if (maxIndependentSet.size() >= f + 1) {
+            return maxIndependentSet;
+        }
+
+        // Step 1: Compute maximal set of disjoint edges
+        Graph<Integer, DefaultWeightedEdge> undirectedGraph = convertToUndirected(suspicionGraph);
+        GreedyMaximumCardinalityMatching<Integer, DefaultWeightedEdge> matchingAlgo =
+                new GreedyMaximumCardinalityMatching<>(undirectedGraph, false);
+        Set<DefaultWeightedEdge> matchingEdges = matchingAlgo.getMatching().getEdges();
+
+        // Step 2: Find all triangles in the graph
+        Set<Set<Integer>> triangles = findTriangles(suspicionGraph);
+
+        // Step 3: Identify vertices fulfilling the criteria from the paper
+        Set<Integer> condition = findVerticesMeetingConditions(undirectedGraph, triangles, matchingEdges);
+
+        Set<Integer> resultSet = Arrays.stream(processes).boxed().collect(Collectors.toSet());
+        Set<Integer> exclusionList = new LinkedHashSet<>();
+        for (DefaultWeightedEdge edge : matchingEdges) {
+            exclusionList.add(undirectedGraph.getEdgeSource(edge));
+            exclusionList.add(undirectedGraph.getEdgeTarget(edge));
+        }
+        exclusionList.addAll(condition);
+
+        if (exclusionList.size() > (processes.length - f - 1)) {
+            LinkedList<Integer> sortedList = new LinkedList<>(exclusionList);
+            sortedList.sort((a, b) -> Integer.compare(suspicionGraph.inDegreeOf(a), suspicionGraph.inDegreeOf(b)));
+            while (sortedList.size() > processes.length - f - 1) {
+                sortedList.removeFirst();
+            }
+            exclusionList = new TreeSet<>(sortedList);
+        }
+        resultSet.removeAll(exclusionList);
+        return resultSet;
+    }
+
+    private static Set<Set<Integer>> findTriangles(Graph<Integer, DefaultWeightedEdge> graph) {
+        Set<Set<Integer>> triangles = new LinkedHashSet<>();
+        for (Integer node : graph.vertexSet()) {
+            for (Integer neighbor1 : graph.vertexSet()) {
+                if (!graph.containsEdge(node, neighbor1) && !graph.containsEdge(neighbor1, node)) continue;
+                for (Integer neighbor2 : graph.vertexSet()) {
+                    if (node.equals(neighbor1) || node.equals(neighbor2) || neighbor1.equals(neighbor2)) continue;
+                    if (graph.containsEdge(neighbor1, neighbor2) && graph.containsEdge(neighbor2, node)) {
+                        triangles.add(new TreeSet<>(Arrays.asList(node, neighbor1, neighbor2)));
+                    }
+                }
+            }
+        }
+        return triangles;
+    }
+
+    private static Set<Integer> findVerticesMeetingConditions(Graph<Integer, DefaultWeightedEdge> graph,
+                                                              Set<Set<Integer>> triangles,
+                                                              Set<DefaultWeightedEdge> matchingEdges) {
+        Set<Integer> matchedVertices = new TreeSet<>();
+        for (DefaultWeightedEdge edge : matchingEdges) {
+            matchedVertices.add(graph.getEdgeSource(edge));
+            matchedVertices.add(graph.getEdgeTarget(edge));
+        }
+        Set<Integer> resultSet = new TreeSet<>();
+        for (Set<Integer> triangle : triangles) {
+            boolean hasMatchingEdge = false;
+            for (DefaultWeightedEdge edge : matchingEdges) {
+                if (triangle.contains(graph.getEdgeSource(edge)) && triangle.contains(graph.getEdgeTarget(edge))) {
+                    hasMatchingEdge = true;
+                    break;
+                }
+            }
+            if (hasMatchingEdge) {
+                for (Integer vertex : triangle) {
+                    if (!matchedVertices.contains(vertex)) {
+                        resultSet.add(vertex);
+                    }
+                }
+            }
+        }
+        return resultSet;
+    }
+
+    // Undirected graph with an edge for every pair of replicas that suspect each other
+    private static Graph<Integer, DefaultWeightedEdge> convertToUndirected(Graph<Integer, DefaultWeightedEdge> graph) {
+        Graph<Integer, DefaultWeightedEdge> undirectedGraph = new SimpleWeightedGraph<>(DefaultWeightedEdge.class);
+        for (Integer vertex : graph.vertexSet()) {
+            undirectedGraph.addVertex(vertex);
+        }
+        for (DefaultWeightedEdge edge : graph.edgeSet()) {
+            Integer source = graph.getEdgeSource(edge);
+            Integer target = graph.getEdgeTarget(edge);
+            if (graph.containsEdge(target, source)) {
+                undirectedGraph.addEdge(source, target);
+            }
+        }
+        return undirectedGraph;
+    }
+}
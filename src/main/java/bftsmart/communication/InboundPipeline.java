@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2007-2013 Alysson Bessani, Eduardo Alchieri, Paulo Sousa, and the authors indicated in the @author tags
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bftsmart.communication;
+
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import bftsmart.optilog.messages.LatencyMonitoringMessage;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.tom.util.BatchReader;
+import bftsmart.tom.util.TOMUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Staged processing of the messages received from replicas, used if system.communication.inboundWorkers is
+ * positive. PROPOSE messages are prepared on a pool of workers: the hash of the proposed value is computed and the
+ * batch is deserialized, which the acceptor otherwise does while all other messages wait. A single hand-off thread
+ * passes the messages to the {@link MessageHandler}, so the consensus state is still changed by one thread only.
+ * <p>
+ * The hand-off keeps the order in which messages of the same consensus instance arrived, but messages of other
+ * instances do not wait for a PROPOSE that is being prepared, e.g., the votes of the current instance are processed
+ * while the next batch is deserialized. All other messages (leader change, state transfer, forwarded requests, ...)
+ * are processed in the order they arrived relative to all messages.
+ *
+ * @author cb
+ */
+public class InboundPipeline {
+
+    private static final long IDLE_TIME = 100; // as ServerCommunicationSystem.MESSAGE_WAIT_TIME
+    private static final int MAX_PENDING = 1024; // messages received but not handed off yet
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ServerViewController controller;
+    private final MessageHandler messageHandler;
+    private final ExecutorService workers;
+    private final Thread handOffThread;
+
+    private final ThreadLocal<MessageDigest> hashEngines = ThreadLocal.withInitial(() -> {
+        try {
+            return TOMUtil.getHashEngine();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedList<Stage> pending = new LinkedList<>(); // in arrival order
+    private volatile boolean doWork = true;
+
+    public InboundPipeline(ServerViewController controller, MessageHandler messageHandler, int workers) {
+        this.controller = controller;
+        this.messageHandler = messageHandler;
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "Inbound worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.handOffThread = new Thread(this::handOff, "Inbound hand-off");
+    }
+
+    public void start() {
+        handOffThread.start();
+    }
+
+    /**
+     * Adds a received message to the pipeline, waiting while too many messages are pending
+     *
+     * @param sm message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(SystemMessage sm) throws InterruptedException {
+        Stage stage = new Stage(sm);
+        lock.lock();
+        try {
+            while (pending.size() >= MAX_PENDING && doWork) {
+                notFull.await(IDLE_TIME, TimeUnit.MILLISECONDS);
+            }
+            pending.add(stage);
+            if (stage.ready) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!stage.ready) {
+            workers.execute(() -> prepare(stage));
+        }
+    }
+
+    public void shutdown() {
+        doWork = false;
+        workers.shutdownNow();
+        handOffThread.interrupt();
+    }
+
+    private static boolean needsPreparation(SystemMessage sm) {
+        return sm instanceof ConsensusMessage && !(sm instanceof LatencyMonitoringMessage)
+                && ((ConsensusMessage) sm).getType() == MessageFactory.PROPOSE
+                && ((ConsensusMessage) sm).getValue() != null && sm.authenticated;
+    }
+
+    private void prepare(Stage stage) {
+        ConsensusMessage propose = (ConsensusMessage) stage.sm;
+        try {
+            propose.setValueHash(hashEngines.get().digest(propose.getValue()));
+            propose.setDeserializedValue(new BatchReader(propose.getValue(),
+                    controller.getStaticConf().getUseSignatures() == 1).deserialiseRequests(controller));
+        } catch (Exception e) {
+            // the acceptor deserializes the value again and rejects it
+            logger.debug("Failed to prepare " + propose, e);
+            propose.setValueHash(null);
+            propose.setDeserializedValue(null);
+        }
+        lock.lock();
+        try {
+            stage.ready = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handOff() {
+        while (doWork) {
+            Stage next;
+            boolean idle = false;
+            lock.lock();
+            try {
+                next = removeNext();
+                if (next == null) {
+                    idle = !changed.await(IDLE_TIME, TimeUnit.MILLISECONDS);
+                    next = removeNext();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            if (next != null) {
+                messageHandler.processData(next.sm);
+            } else if (idle) {
+                messageHandler.verifyPending();
+            }
+        }
+        logger.info("Inbound hand-off stopped.");
+    }
+
+    // The first message that may be handed off, considering the ones that arrived before it (holding the lock)
+    private Stage removeNext() {
+        Set<Integer> waiting = null; // consensus instances with an earlier message that is not ready
+        Iterator<Stage> it = pending.iterator();
+        while (it.hasNext()) {
+            Stage stage = it.next();
+            if (stage.consensusId < 0) {
+                if (waiting != null) {
+                    return null; // wait for all earlier messages
+                }
+            } else if (!stage.ready || (waiting != null && waiting.contains(stage.consensusId))) {
+                if (waiting == null) {
+                    waiting = new HashSet<>();
+                }
+                waiting.add(stage.consensusId);
+                continue;
+            }
+            it.remove();
+            notFull.signal();
+            return stage;
+        }
+        return null;
+    }
+
+    private static class Stage {
+
+        private final SystemMessage sm;
+        private final int consensusId; // -1 if the message is ordered relative to all messages
+        private boolean ready;
+
+        Stage(SystemMessage sm) {
+            this.sm = sm;
+            this.consensusId = sm instanceof ConsensusMessage ? Math.max(((ConsensusMessage) sm).getNumber(), 0) : -1;
+            this.ready = !needsPreparation(sm);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2007-2013 Alysson Bessani, Eduardo Alchieri, Paulo Sousa, and the authors indicated in the @author tags
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bftsmart.communication;
+
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.optilog.messages.LatencyMonitoringMessage;
+import bftsmart.optilog.messages.MeasurementMessage;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.statemanagement.SMMessage;
+import bftsmart.tom.leaderchange.LCMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Messages received from replicas, waiting to be processed. Each replica has its own bounded queue, so a replica
+ * that floods this one only fills its own queue, and a full queue stops the reception from that replica instead of
+ * discarding its messages. The capacity of a queue is system.communication.inQueueSize split among the replicas of
+ * the current view. The messages of this replica to itself are never bounded, since they are sent by the thread that
+ * processes the messages.
+ * <p>
+ * The messages of a replica are taken in the order they were received, since the protocols rely on it (e.g., an
+ * ACCEPT must not be processed after a later STOP). The replica to take a message from is chosen round-robin among
+ * the replicas whose next message has the highest priority:
+ * <ol>
+ * <li>messages of the consensus instance being executed, leader change and state transfer messages, and latency
+ * probes, whose queueing delay would otherwise be measured as network latency,</li>
+ * <li>other consensus messages (out of context) and forwarded requests,</li>
+ * <li>measurements that are handed to the leader.</li>
+ * </ol>
+ * The priority is evaluated when the message is taken, so out of context messages take precedence once their
+ * consensus instance is executed. Measurements are taken at the latest after {@link #MAX_LOW_SKIPS} messages of
+ * higher priority, so they (and the messages of their replica behind them) are delayed but not starved under load.
+ *
+ * @author cb
+ */
+public class InboundQueue {
+
+    private static final int HIGH = 0;
+    private static final int NORMAL = 1;
+    private static final int LOW = 2;
+
+    // Messages of higher priority taken while a measurement was waiting, before the measurement is taken anyway
+    private static final int MAX_LOW_SKIPS = 64;
+
+    private final int me;
+    private final IntSupplier capacity; // per replica
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<Integer, Peer> peers = new HashMap<>();
+    private final List<Peer> rotation = new ArrayList<>();
+    private int nextPeer; // round-robin position in rotation
+    private int size;
+    private int lowSkips; // messages taken while measurements were waiting
+
+    private volatile IntSupplier currentConsensus = () -> -1;
+
+    /**
+     * Creates the queues, splitting system.communication.inQueueSize among the replicas of the current view
+     *
+     * @param controller view controller
+     */
+    public InboundQueue(ServerViewController controller) {
+        this(controller.getStaticConf().getProcessId(), () -> Math.max(1,
+                controller.getStaticConf().getInQueueSize() / Math.max(1, controller.getCurrentViewN())));
+    }
+
+    public InboundQueue(int me, int capacity) {
+        this(me, () -> capacity);
+    }
+
+    private InboundQueue(int me, IntSupplier capacity) {
+        this.me = me;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the source of the id of the consensus instance being executed, whose messages are taken first
+     *
+     * @param currentConsensus consensus id, or -1 if unknown
+     */
+    public void setCurrentConsensus(IntSupplier currentConsensus) {
+        this.currentConsensus = currentConsensus;
+    }
+
+    /**
+     * Adds a message, waiting if the queue of its sender is full
+     *
+     * @param sm message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(SystemMessage sm) throws InterruptedException {
+        while (!offer(sm, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+            // wait until there is room
+        }
+    }
+
+    /**
+     * Adds a message, waiting up to the given time if the queue of its sender is full
+     *
+     * @param sm      message
+     * @param timeout how long to wait
+     * @param unit    unit of the timeout
+     * @return true if the message was added, false if the queue of its sender remained full
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer(SystemMessage sm, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Peer peer = peer(sm.getSender());
+            while (isFull(peer)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(peer, sm);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a message without waiting, for receivers that must not block (e.g., event loops). If the queue of the
+     * sender is full afterwards, the receiver is told to stop reading from the sender and, once the queue is half
+     * empty, to read again.
+     *
+     * @param sm          message
+     * @param setReadable switches the reception from the sender on (true) and off (false)
+     */
+    public void add(SystemMessage sm, Consumer<Boolean> setReadable) {
+        lock.lock();
+        try {
+            Peer peer = peer(sm.getSender());
+            enqueue(peer, sm);
+            if (isFull(peer) && peer.setReadable == null) {
+                peer.setReadable = setReadable;
+                setReadable.accept(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message, waiting up to the given time if there is none
+     *
+     * @param timeout how long to wait
+     * @param unit    unit of the timeout
+     * @return the message, or null if there was none
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public SystemMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SystemMessage take() throws InterruptedException {
+        SystemMessage sm;
+        do {
+            sm = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } while (sm == null);
+        return sm;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            StringBuilder str = new StringBuilder("size=").append(size);
+            for (Peer peer : rotation) {
+                str.append(", [").append(peer.id).append("]=").append(peer.queue.size());
+            }
+            return str.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Peer peer(int id) {
+        Peer peer = peers.get(id);
+        if (peer == null) {
+            peer = new Peer(id);
+            peers.put(id, peer);
+            rotation.add(peer);
+        }
+        return peer;
+    }
+
+    // The capacity follows the current view
+    private int capacity(Peer peer) {
+        return peer.id == me ? Integer.MAX_VALUE : capacity.getAsInt();
+    }
+
+    private boolean isFull(Peer peer) {
+        return peer.queue.size() >= capacity(peer);
+    }
+
+    private void enqueue(Peer peer, SystemMessage sm) {
+        peer.queue.add(sm);
+        size++;
+        notEmpty.signal();
+    }
+
+    private int priority(SystemMessage sm, int current) {
+        if (sm instanceof MeasurementMessage) {
+            return LOW;
+        } else if (sm instanceof LatencyMonitoringMessage) {
+            return HIGH;
+        } else if (sm instanceof ConsensusMessage) {
+            return current >= 0 && ((ConsensusMessage) sm).getNumber() == current ? HIGH : NORMAL;
+        } else if (sm instanceof LCMessage || sm instanceof SMMessage) {
+            return HIGH;
+        }
+        return NORMAL;
+    }
+
+    // Holding the lock, with size > 0
+    private SystemMessage dequeue() {
+        int current = currentConsensus.getAsInt();
+
+        // The first replica in round-robin order whose next message has the highest priority, and the first one whose
+        // next message is a measurement
+        int best = -1;
+        int bestPriority = LOW + 1;
+        int firstLow = -1;
+        for (int i = 0; i < rotation.size(); i++) {
+            int index = (nextPeer + i) % rotation.size();
+            SystemMessage head = rotation.get(index).queue.peek();
+            if (head == null) {
+                continue;
+            }
+            int priority = priority(head, current);
+            if (priority < bestPriority) {
+                best = index;
+                bestPriority = priority;
+            }
+            if (priority == LOW && firstLow < 0) {
+                firstLow = index;
+            }
+        }
+        if (firstLow >= 0 && bestPriority != LOW && lowSkips >= MAX_LOW_SKIPS) {
+            best = firstLow;
+            bestPriority = LOW;
+        }
+        if (bestPriority == LOW || firstLow < 0) {
+            lowSkips = 0;
+        } else {
+            lowSkips++;
+        }
+
+        nextPeer = (best + 1) % rotation.size();
+        Peer peer = rotation.get(best);
+        boolean wasFull = isFull(peer);
+        SystemMessage sm = peer.queue.poll();
+        size--;
+        if (wasFull) {
+            notFull.signalAll();
+        }
+        if (peer.setReadable != null && peer.queue.size() <= capacity(peer) / 2) {
+            peer.setReadable.accept(true);
+            peer.setReadable = null;
+        }
+        return sm;
+    }
+
+    private static class Peer {
+
+        private final int id;
+        private final ArrayDeque<SystemMessage> queue = new ArrayDeque<>();
+        private Consumer<Boolean> setReadable; // set while the reception from the replica is switched off
+
+        Peer(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2007-2013 Alysson Bessani, Eduardo Alchieri, Paulo Sousa, and the authors indicated in the @author tags
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bftsmart.communication;
+
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.optilog.messages.LatencyMonitoringMessage;
+import bftsmart.optilog.messages.MeasurementMessage;
+import bftsmart.reconfiguration.VMMessage;
+import bftsmart.statemanagement.durability.CSTSMMessage;
+import bftsmart.statemanagement.standard.StandardSMMessage;
+import bftsmart.tom.core.messages.ForwardedMessage;
+import bftsmart.tom.leaderchange.LCMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Binary wire format of the messages exchanged between replicas:
+ * <pre>
+ *   VERSION(byte) + TYPE(byte) + FIELDS
+ * </pre>
+ * The type selects the message class, and the fields are the ones the message writes in its
+ * {@link java.io.Externalizable#writeExternal(ObjectOutput)}, as plain big-endian primitives without the stream
+ * header, class descriptors and reflection of Java object serialization. Objects a message writes are tagged:
+ * byte arrays (e.g., signatures and leader change payloads) are length-prefixed, other objects (e.g., application
+ * states and views, which only appear in the rare state transfer and reconfiguration messages) are length-prefixed
+ * Java serialization. Messages of unregistered classes are sent with Java serialization as a whole.
+ * <p>
+ * A message that starts with the magic number of Java serialization is decoded as such. Replicas of older versions
+ * cannot decode this format though, so all replicas of a view must be upgraded together. Signed consensus proofs
+ * (see {@code Acceptor.insertProof}) do not depend on this format: they are computed over the Java serialization of
+ * the message, so they can still be verified if the wire format changes.
+ *
+ * @author cb
+ */
+public final class MessageCodec {
+
+    public static final byte VERSION = 1;
+
+    // Message types
+    private static final byte SERIALIZED = 0;
+    private static final byte CONSENSUS = 1;
+    private static final byte LATENCY_MONITORING = 2;
+    private static final byte LEADER_CHANGE = 3;
+    private static final byte FORWARDED = 4;
+    private static final byte STANDARD_SM = 5;
+    private static final byte CST_SM = 6;
+    private static final byte VIEW_MANAGER = 7;
+    private static final byte MEASUREMENT = 8;
+
+    // Object tags
+    private static final byte NULL = 0;
+    private static final byte BYTES = 1;
+    private static final byte OBJECT = 2;
+
+    // First byte of the stream magic number of Java serialization
+    private static final byte JAVA_SERIALIZATION = (byte) 0xAC;
+
+    // Buffers above this size are not kept for reuse
+    private static final int MAX_POOLED_BUFFER = 1 << 20;
+
+    private static final Map<Class<? extends SystemMessage>, Byte> TYPES = new HashMap<>();
+    private static final Supplier<?>[] FACTORIES = new Supplier<?>[MEASUREMENT + 1];
+
+    static {
+        register(CONSENSUS, ConsensusMessage.class, ConsensusMessage::new);
+        register(LATENCY_MONITORING, LatencyMonitoringMessage.class, LatencyMonitoringMessage::new);
+        register(LEADER_CHANGE, LCMessage.class, LCMessage::new);
+        register(FORWARDED, ForwardedMessage.class, ForwardedMessage::new);
+        register(STANDARD_SM, StandardSMMessage.class, StandardSMMessage::new);
+        register(CST_SM, CSTSMMessage.class, CSTSMMessage::new);
+        register(VIEW_MANAGER, VMMessage.class, VMMessage::new);
+        register(MEASUREMENT, MeasurementMessage.class, MeasurementMessage::new);
+    }
+
+    private static final ThreadLocal<WireOutput> BUFFERS = ThreadLocal.withInitial(WireOutput::new);
+
+    private MessageCodec() {
+    }
+
+    private static <T extends SystemMessage> void register(byte type, Class<T> messageClass, Supplier<T> factory) {
+        TYPES.put(messageClass, type);
+        FACTORIES[type] = factory;
+    }
+
+    /**
+     * Encodes a message, using a buffer that is reused by the calling thread
+     *
+     * @param sm message
+     * @return the encoded message
+     * @throws IOException if the message cannot be encoded
+     */
+    public static byte[] encode(SystemMessage sm) throws IOException {
+        WireOutput out = BUFFERS.get();
+        try {
+            writeMessage(sm, out);
+            out.flush();
+            return out.buffer.toByteArray();
+        } finally {
+            if (out.buffer.size() > MAX_POOLED_BUFFER) {
+                BUFFERS.remove();
+            } else {
+                out.buffer.reset();
+            }
+        }
+    }
+
+    /**
+     * Encodes a message into the given stream, e.g., a pooled buffer
+     *
+     * @param sm  message
+     * @param out stream the message is appended to
+     * @throws IOException if the message cannot be encoded or written
+     */
+    public static void encode(SystemMessage sm, OutputStream out) throws IOException {
+        WireOutput wire = new WireOutput(out);
+        writeMessage(sm, wire);
+        wire.flush();
+    }
+
+    public static SystemMessage decode(byte[] data) throws IOException, ClassNotFoundException {
+        return decode(data, 0, data.length);
+    }
+
+    /**
+     * Decodes a message
+     *
+     * @param data   buffer
+     * @param offset start of the message in the buffer
+     * @param length length of the message
+     * @return the message
+     * @throws IOException            if the message is malformed
+     * @throws ClassNotFoundException if a serialized object is of an unknown class
+     */
+    public static SystemMessage decode(byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+        if (length > 0 && data[offset] == JAVA_SERIALIZATION) {
+            return (SystemMessage) new ObjectInputStream(new ByteArrayInputStream(data, offset, length)).readObject();
+        }
+        WireInput in = new WireInput(new StrictInput(new ByteArrayInputStream(data, offset, length)));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire format version " + version);
+        }
+        byte type = in.readByte();
+        if (type == SERIALIZED) {
+            return (SystemMessage) in.readObject();
+        }
+        if (type < 0 || type >= FACTORIES.length || FACTORIES[type] == null) {
+            throw new IOException("Unknown message type " + type);
+        }
+        SystemMessage sm = (SystemMessage) FACTORIES[type].get();
+        sm.readExternal(in);
+        return sm;
+    }
+
+    private static void writeMessage(SystemMessage sm, WireOutput out) throws IOException {
+        out.writeByte(VERSION);
+        Byte type = TYPES.get(sm.getClass());
+        if (type == null) {
+            out.writeByte(SERIALIZED);
+            out.writeObject(sm);
+        } else {
+            out.writeByte(type);
+            sm.writeExternal(out);
+        }
+    }
+
+    // Plain data stream with tagged objects, handed to writeExternal
+    private static final class WireOutput extends DataOutputStream implements ObjectOutput {
+
+        private final ByteArrayOutputStream buffer;
+
+        WireOutput() {
+            this(new ByteArrayOutputStream(256));
+        }
+
+        private WireOutput(ByteArrayOutputStream buffer) {
+            super(buffer);
+            this.buffer = buffer;
+        }
+
+        WireOutput(OutputStream out) {
+            super(out);
+            this.buffer = null;
+        }
+
+        @Override
+        public void writeObject(Object obj) throws IOException {
+            if (obj == null) {
+                writeByte(NULL);
+            } else if (obj instanceof byte[]) {
+                byte[] bytes = (byte[]) obj;
+                writeByte(BYTES);
+                writeInt(bytes.length);
+                write(bytes);
+            } else {
+                ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+                    oos.writeObject(obj);
+                }
+                writeByte(OBJECT);
+                writeInt(serialized.size());
+                serialized.writeTo(this);
+            }
+        }
+    }
+
+    // Counterpart of WireOutput, handed to readExternal
+    private static final class WireInput extends DataInputStream implements ObjectInput {
+
+        WireInput(StrictInput in) {
+            super(in);
+        }
+
+        @Override
+        public Object readObject() throws ClassNotFoundException, IOException {
+            byte tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BYTES:
+                    byte[] bytes = new byte[checkLength(readInt())];
+                    readFully(bytes);
+                    return bytes;
+                case OBJECT:
+                    int length = checkLength(readInt());
+                    byte[] serialized = new byte[length];
+                    readFully(serialized);
+                    return new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+                default:
+                    throw new IOException("Unknown object tag " + tag);
+            }
+        }
+
+        private int checkLength(int length) throws IOException {
+            if (length < 0 || length > available()) {
+                throw new EOFException("Invalid length " + length);
+            }
+            return length;
+        }
+    }
+
+    // Messages read byte arrays in loops until they are complete, a truncated message must not make them spin
+    private static final class StrictInput extends FilterInputStream {
+
+        StrictInput(ByteArrayInputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0 && len > 0) {
+                throw new EOFException();
+            }
+            return read;
+        }
+    }
+}
@@ -17,8 +17,10 @@ package bftsmart.communication;
 
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.consensus.roles.Acceptor;
+import bftsmart.optilog.MeasurementPool;
 import bftsmart.optilog.SensorApp;
 import bftsmart.optilog.messages.LatencyMonitoringMessage;
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.statemanagement.SMMessage;
 import bftsmart.tom.core.TOMLayer;
 import bftsmart.tom.core.messages.ForwardedMessage;
@@ -162,6 +164,11 @@ public class MessageHandler {
                             tomLayer.getStateManager().stateTimeout();
                             break;
                     }
+                    /**************       OptiLog     ********************************/
+                } else if (sm instanceof MeasurementMessage) {
+                    logger.debug("Received measurement {}", sm);
+                    MeasurementPool.getInstance(tomLayer.controller).add((MeasurementMessage) sm);
+
                     /**************       AWARE     **********************************/
                 } else if (sm instanceof LatencyMonitoringMessage) {
 
@@ -15,7 +15,6 @@ limitations under the License.
 */
 package bftsmart.communication;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
@@ -45,8 +44,9 @@ public class ServerCommunicationSystem extends Thread {
 
     private boolean doWork = true;
     public final long MESSAGE_WAIT_TIME = 100;
-    private LinkedBlockingQueue<SystemMessage> inQueue = null;//new LinkedBlockingQueue<SystemMessage>(IN_QUEUE_SIZE);
+    private InboundQueue inQueue = null;
     protected MessageHandler messageHandler;
+    private InboundPipeline pipeline; // null if messages are processed by this thread
 
     private ServersCommunicationLayer serversConn;
     private CommunicationSystemServerSide clientsConn;
@@ -66,7 +66,11 @@ public class ServerCommunicationSystem extends Thread {
         
         messageHandler = new MessageHandler();
 
-        inQueue = new LinkedBlockingQueue<SystemMessage>(controller.getStaticConf().getInQueueSize());
+        if (controller.getStaticConf().getInboundWorkers() > 0) {
+            pipeline = new InboundPipeline(controller, messageHandler, controller.getStaticConf().getInboundWorkers());
+        }
+
+        inQueue = new InboundQueue(controller);
 
         serversConn = new ServersCommunicationLayer(controller, inQueue, replica);
 
@@ -105,6 +109,7 @@ public class ServerCommunicationSystem extends Thread {
 
     public void setTOMLayer(TOMLayer tomLayer) {
         messageHandler.setTOMLayer(tomLayer);
+        inQueue.setCurrentConsensus(() -> tomLayer.getInExec() != -1 ? tomLayer.getInExec() : tomLayer.getLastExec() + 1);
     }
 
     public void setRequestReceiver(RequestReceiver requestReceiver) {
@@ -120,6 +125,10 @@ public class ServerCommunicationSystem extends Thread {
     @Override
     public void run() {
         
+        if (pipeline != null) {
+            pipeline.start();
+        }
+
         long count = 0;
         while (doWork) {
             try {
@@ -131,9 +140,13 @@ public class ServerCommunicationSystem extends Thread {
 
                 if (sm != null) {
                     logger.debug("<-- receiving, msg:" + sm);
-                    messageHandler.processData(sm);
+                    if (pipeline != null) {
+                        pipeline.submit(sm);
+                    } else {
+                        messageHandler.processData(sm);
+                    }
                     count++;
-                } else {                
+                } else if (pipeline == null) {
                     messageHandler.verifyPending();               
                 }
             } catch (InterruptedException e) {
@@ -180,6 +193,9 @@ public class ServerCommunicationSystem extends Thread {
         logger.info("Shutting down communication layer");
         
         this.doWork = false;        
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
         clientsConn.shutdown();
         serversConn.shutdown();
     }
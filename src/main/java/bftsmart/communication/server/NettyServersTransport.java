@@ -0,0 +1,395 @@
+/**
+Copyright (c) 2007-2013 Alysson Bessani, Eduardo Alchieri, Paulo Sousa, and the authors indicated in the @author tags
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package bftsmart.communication.server;
+
+import bftsmart.communication.InboundQueue;
+import bftsmart.communication.MessageCodec;
+import bftsmart.communication.SystemMessage;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.reconfiguration.VMMessage;
+import bftsmart.tom.ServiceReplica;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.ssl.SslHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replica-to-replica transport on a shared pool of Netty event loops, used instead of one {@link ServerConnection}
+ * (with its sender and receiver threads) per remote replica if system.communication.serverTransport is netty.
+ * <p>
+ * It speaks the protocol of {@link ServerConnection}, so replicas using either transport can be mixed: the replica
+ * with the higher id (or the TTP) connects, sends its id after the TLS handshake, and each message is framed as
+ * LENGTH(int) + MESSAGE + HASMAC(byte). The frame is a composite of the header, the encoded message and the
+ * trailer, so the message is not copied, and flushes are consolidated so that a burst of messages to a replica
+ * goes out in few TLS records and system calls.
+ *
+ * @author cb
+ */
+public class NettyServersTransport {
+
+    private static final long RECONNECT_DELAY = 5000; // as ServerConnection.POOL_TIME
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    // Writes after which a flush is done even if the event loop is busy
+    private static final int FLUSH_AFTER_WRITES = 256;
+
+    // Outbound bytes queued per replica above which messages are discarded, like ServerConnection does when its
+    // outQueue is full
+    private static final int WRITE_BUFFER_LOW = 32 * 1024 * 1024;
+    private static final int WRITE_BUFFER_HIGH = 64 * 1024 * 1024;
+
+    private static final byte[] NO_MAC = {0};
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ServerViewController controller;
+    private final InboundQueue inQueue;
+    private final ServiceReplica replica;
+    private final SSLContext context;
+    private final int me;
+
+    private final EventLoopGroup group;
+    private final Channel serverChannel;
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+    private final Set<Integer> connecting = ConcurrentHashMap.newKeySet();
+    private final List<PendingChannel> pending = new LinkedList<>(); // accepted before the view was known
+    private volatile boolean doWork = true;
+
+    public NettyServersTransport(ServerViewController controller, InboundQueue inQueue,
+                                 ServiceReplica replica, SSLContext context, String bindAddress, int port)
+            throws InterruptedException {
+        this.controller = controller;
+        this.inQueue = inQueue;
+        this.replica = replica;
+        this.context = context;
+        this.me = controller.getStaticConf().getProcessId();
+
+        // 0 threads selects the Netty default
+        this.group = new NioEventLoopGroup(controller.getStaticConf().getServerTransportThreads());
+
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(group).channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .option(ChannelOption.SO_BACKLOG, 100)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(WRITE_BUFFER_LOW, WRITE_BUFFER_HIGH))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("ssl", sslHandler(false));
+                        ch.pipeline().addLast("id", new RemoteIdDecoder());
+                    }
+                });
+        this.serverChannel = b.bind(bindAddress, port).sync().channel();
+        logger.info("Netty replica transport listening on {}:{}", bindAddress, port);
+    }
+
+    /**
+     * Sends an encoded message to a replica. The message is discarded if there is no connection to the replica or
+     * too many bytes are waiting to be written to it.
+     *
+     * @param remoteId replica
+     * @param data     encoded message, which must not be modified afterwards
+     */
+    public void send(int remoteId, byte[] data) {
+        Channel ch = channels.get(remoteId);
+        if (ch == null) {
+            logger.debug("No connection to replica {} (message discarded)", remoteId);
+            connect(remoteId);
+            return;
+        }
+        if (!ch.isWritable()) {
+            logger.warn("Out buffer for replica {} full (message discarded)", remoteId);
+            return;
+        }
+        ByteBuf header = ch.alloc().buffer(Integer.BYTES).writeInt(data.length);
+        CompositeByteBuf frame = ch.alloc().compositeBuffer(3)
+                .addComponents(true, header, Unpooled.wrappedBuffer(data), Unpooled.wrappedBuffer(NO_MAC));
+        ch.writeAndFlush(frame, ch.voidPromise());
+    }
+
+    /**
+     * Opens the connection to a replica if this replica is the one that connects and there is none yet
+     *
+     * @param remoteId replica
+     */
+    public void connect(int remoteId) {
+        if (!doWork || !isToConnect(remoteId) || channels.containsKey(remoteId) || !connecting.add(remoteId)) {
+            return;
+        }
+        Bootstrap b = new Bootstrap();
+        b.group(group).channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(WRITE_BUFFER_LOW, WRITE_BUFFER_HIGH))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("ssl", sslHandler(true));
+                    }
+                });
+        b.connect(controller.getStaticConf().getHost(remoteId), controller.getStaticConf().getServerToServerPort(remoteId))
+                .addListener((ChannelFutureListener) f -> {
+                    if (!f.isSuccess()) {
+                        logger.debug("Connection to replica {} refused", remoteId);
+                        connecting.remove(remoteId);
+                        scheduleReconnect(remoteId);
+                        return;
+                    }
+                    Channel ch = f.channel();
+                    ch.closeFuture().addListener(c -> {
+                        channels.remove(remoteId, ch);
+                        connecting.remove(remoteId);
+                        scheduleReconnect(remoteId);
+                    });
+                    ch.pipeline().get(SslHandler.class).handshakeFuture().addListener(h -> {
+                        if (!h.isSuccess()) {
+                            logger.error("SSL/TLS handshake with replica " + remoteId + " failed", h.cause());
+                            ch.close();
+                            return;
+                        }
+                        ch.writeAndFlush(ch.alloc().buffer(Integer.BYTES).writeInt(me));
+                        register(remoteId, ch);
+                        connecting.remove(remoteId);
+                    });
+                });
+    }
+
+    public void updateConnections() {
+        if (controller.isInCurrentView()) {
+            for (Map.Entry<Integer, Channel> entry : channels.entrySet()) {
+                if (!isAllowed(entry.getKey())) {
+                    channels.remove(entry.getKey(), entry.getValue());
+                    entry.getValue().close();
+                }
+            }
+            for (int id : controller.getCurrentViewAcceptors()) {
+                if (id != me) {
+                    connect(id);
+                }
+            }
+        } else {
+            for (Channel ch : channels.values()) {
+                ch.close();
+            }
+        }
+    }
+
+    public void joinViewReceived() {
+        synchronized (pending) {
+            for (PendingChannel pc : pending) {
+                pc.channel.eventLoop().execute(() -> {
+                    if (isAllowed(pc.remoteId)) {
+                        logger.debug("Establishing pending connection with replica {}", pc.remoteId);
+                        register(pc.remoteId, pc.channel);
+                        pc.channel.pipeline().remove(RemoteIdDecoder.class);
+                        pc.channel.config().setAutoRead(true);
+                    } else {
+                        pc.channel.close();
+                    }
+                });
+            }
+            pending.clear();
+        }
+    }
+
+    public void shutdown() {
+        logger.info("Shutting down replica channels");
+        doWork = false;
+        serverChannel.close();
+        for (Channel ch : channels.values()) {
+            ch.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (Map.Entry<Integer, Channel> entry : channels.entrySet()) {
+            str.append(", channels[").append(entry.getKey()).append("]: bytesBeforeUnwritable=")
+                    .append(entry.getValue().bytesBeforeUnwritable());
+        }
+        return str.toString();
+    }
+
+    // Same rule as ServerConnection.isToConnect
+    private boolean isToConnect(int remoteId) {
+        if (controller.getStaticConf().getTTPId() == remoteId) {
+            return false;
+        } else if (controller.getStaticConf().isTheTTP()) {
+            return true;
+        }
+        return controller.isInCurrentView() && me > remoteId;
+    }
+
+    private boolean isAllowed(int remoteId) {
+        return controller.getStaticConf().getTTPId() == remoteId || controller.isCurrentViewMember(remoteId);
+    }
+
+    private void scheduleReconnect(int remoteId) {
+        if (doWork && !channels.containsKey(remoteId) && isToConnect(remoteId) && isAllowed(remoteId)) {
+            group.schedule(() -> connect(remoteId), RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private SslHandler sslHandler(boolean client) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(client);
+        engine.setEnabledCipherSuites(controller.getStaticConf().getEnabledCiphers());
+        if (!client) {
+            engine.setEnableSessionCreation(true);
+            engine.setNeedClientAuth(true);
+        }
+        return new SslHandler(engine);
+    }
+
+    // Installs the framing and message handlers on an authenticated channel, replacing an older channel
+    private void register(int remoteId, Channel ch) {
+        ch.pipeline().addLast("frames", new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, Integer.BYTES, 1,
+                Integer.BYTES));
+        ch.pipeline().addLast("flush", new FlushConsolidationHandler(FLUSH_AFTER_WRITES, true));
+        ch.pipeline().addLast("messages", new MessageReceiver(remoteId));
+        Channel old = channels.put(remoteId, ch);
+        if (old != null && old != ch) {
+            logger.debug("ReConnecting with replica: {}", remoteId);
+            old.close();
+        }
+        ch.closeFuture().addListener(c -> channels.remove(remoteId, ch));
+        logger.info("Connected to replica {} ({})", remoteId, ch.remoteAddress());
+    }
+
+    // Reads the id a connecting replica sends after the TLS handshake
+    private class RemoteIdDecoder extends ByteToMessageDecoder {
+
+        private boolean idRead;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (idRead || in.readableBytes() < Integer.BYTES) {
+                return; // the bytes after the id stay buffered until the channel is registered
+            }
+            idRead = true;
+            int remoteId = in.readInt();
+            if (!controller.isInCurrentView() && controller.getStaticConf().getTTPId() != remoteId) {
+                // wait until the view is known, see joinViewReceived
+                ctx.channel().config().setAutoRead(false);
+                synchronized (pending) {
+                    pending.add(new PendingChannel(ctx.channel(), remoteId));
+                }
+            } else if (isAllowed(remoteId)) {
+                register(remoteId, ctx.channel());
+                ctx.pipeline().remove(this); // hands the bytes read so far to the frame decoder
+            } else {
+                logger.debug("Closing connection with replica: {}", remoteId);
+                ctx.close();
+            }
+        }
+    }
+
+    private class MessageReceiver extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final int remoteId;
+
+        MessageReceiver(int remoteId) {
+            this.remoteId = remoteId;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            if (controller.getStaticConf().isTheTTP()) {
+                return;
+            }
+            int length = frame.readableBytes() - 1; // without the HASMAC byte
+            try {
+                SystemMessage sm;
+                if (frame.hasArray()) {
+                    sm = MessageCodec.decode(frame.array(), frame.arrayOffset() + frame.readerIndex(), length);
+                } else {
+                    byte[] data = new byte[length];
+                    frame.getBytes(frame.readerIndex(), data);
+                    sm = MessageCodec.decode(data);
+                }
+
+                //The verification it is done for the SSL/TLS protocol.
+                sm.authenticated = true;
+
+                if (sm.getSender() != remoteId) {
+                    return;
+                }
+                if (remoteId == controller.getStaticConf().getTTPId()) {
+                    replica.joinMsgReceived((VMMessage) sm);
+                } else {
+                    // stops reading from the replica while its inqueue is full
+                    inQueue.add(sm, readable -> ctx.channel().config().setAutoRead(readable));
+                }
+            } catch (ClassNotFoundException | IOException ex) {
+                logger.info("Invalid message received from replica {}. Ignoring!", remoteId);
+            } catch (Exception ex) {
+                logger.info("Processing message failed. Ignoring!", ex);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.debug("Closing connection with replica " + remoteId, cause);
+            ctx.close();
+        }
+    }
+
+    private static class PendingChannel {
+
+        private final Channel channel;
+        private final int remoteId;
+
+        PendingChannel(Channel channel, int remoteId) {
+            this.channel = channel;
+            this.remoteId = remoteId;
+        }
+    }
+}
@@ -15,15 +15,18 @@ limitations under the License.
 */
 package bftsmart.communication.server;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -44,6 +47,8 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
+import bftsmart.communication.InboundQueue;
+import bftsmart.communication.MessageCodec;
 import bftsmart.communication.SystemMessage;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.reconfiguration.VMMessage;
@@ -77,8 +82,10 @@ public class ServerConnection {
     private DataInputStream socketInStream = null;
     private int remoteId;
     private boolean useSenderThread;
+    private final int coalesceBytes;
+    private final long coalesceLingerNanos;
     protected LinkedBlockingQueue<byte[]> outQueue;// = new LinkedBlockingQueue<byte[]>(SEND_QUEUE_SIZE);
-    private LinkedBlockingQueue<SystemMessage> inQueue;
+    private InboundQueue inQueue;
     
     private Lock connectLock = new ReentrantLock();
     /** Only used when there is no sender Thread */
@@ -101,7 +108,7 @@ public class ServerConnection {
     
     public ServerConnection(ServerViewController controller, 
     		SSLSocket socket, int remoteId,
-            LinkedBlockingQueue<SystemMessage> inQueue, 
+            InboundQueue inQueue, 
             ServiceReplica replica) {
 
         this.controller = controller;
@@ -114,6 +121,9 @@ public class ServerConnection {
 
         this.outQueue = new LinkedBlockingQueue<byte[]>(this.controller.getStaticConf().getOutQueueSize());
 
+        this.coalesceBytes = this.controller.getStaticConf().getCoalesceBytes();
+        this.coalesceLingerNanos = TimeUnit.MICROSECONDS.toNanos(this.controller.getStaticConf().getCoalesceLingerMicros());
+
         // Connect to the remote process or just wait for the connection?
      		if (isToConnect()) {
      			ssltlsCreateConnection();
@@ -121,8 +131,7 @@ public class ServerConnection {
      		
      		if (this.socket != null) {
     			try {
-    				socketOutStream = new DataOutputStream(this.socket.getOutputStream());
-    				socketInStream = new DataInputStream(this.socket.getInputStream());
+    				openStreams();
     			} catch (IOException ex) {
     				logger.error("Error creating connection to " + remoteId, ex);
     			}
@@ -189,32 +198,30 @@ public class ServerConnection {
 			}
 		} else {
 			sendLock.lock();
-			sendBytes(data);
+			sendBytes(Collections.singletonList(data));
 			sendLock.unlock();
 		}
     }
 
     /**
-	 * try to send a message through the socket if some problem is detected, a
-	 * reconnection is done
+	 * try to send messages through the socket if some problem is detected, a
+	 * reconnection is done. The frames are gathered in the buffer of the out
+	 * stream and written at once, messages larger than the buffer are written
+	 * without being copied.
 	 */
-	private final void sendBytes(byte[] messageData) {
+	private final void sendBytes(List<byte[]> messages) {
 		boolean abort = false;
 		do {
 			if (abort)
 				return; // if there is a need to reconnect, abort this method
 			if (socket != null && socketOutStream != null) {
 				try {
-					// do an extra copy of the data to be sent, but on a single out stream write
-					byte[] data = new byte[5 + messageData.length];// without MAC
-					int value = messageData.length;
-
-					System.arraycopy(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
-							(byte) value }, 0, data, 0, 4);
-					System.arraycopy(messageData, 0, data, 4, messageData.length);
-					System.arraycopy(new byte[] { (byte) 0 }, 0, data, 4 + messageData.length, 1);
-
-					socketOutStream.write(data);
+					for (byte[] messageData : messages) {
+						socketOutStream.writeInt(messageData.length);
+						socketOutStream.write(messageData);
+						socketOutStream.writeByte(0); // without MAC
+					}
+					socketOutStream.flush();
 
 					return;
 				} catch (IOException ex) {
@@ -231,6 +238,13 @@ public class ServerConnection {
 
     //******* EDUARDO BEGIN **************//
     //return true of a process shall connect to the remote process, false otherwise
+    // Streams buffered up to coalesceBytes, so several frames go out in one write
+    // and the receiver parses several frames from one read
+    private void openStreams() throws IOException {
+        socketOutStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), coalesceBytes));
+        socketInStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), coalesceBytes));
+    }
+
     private boolean isToConnect() {
         if (this.controller.getStaticConf().getTTPId() == remoteId) {
             //Need to wait for the connection request from the TTP, do not tray to connect to it
@@ -299,8 +313,7 @@ public class ServerConnection {
 
 			if (socket != null) {
 				try {
-					socketOutStream = new DataOutputStream(socket.getOutputStream());
-					socketInStream = new DataInputStream(socket.getInputStream());
+					openStreams();
 
 					// authKey = null;
 					// authenticateAndEstablishAuthKey();
@@ -360,6 +373,7 @@ public class ServerConnection {
         @Override
         public void run() {
             byte[] data = null;
+            List<byte[]> messages = new ArrayList<>();
 
             while (doWork) {
                 //get a message to be sent
@@ -369,13 +383,40 @@ public class ServerConnection {
                 }
 
                 if (data != null) {
-					logger.trace("Sending data to, RemoteId:{}", remoteId);
-					sendBytes(data);
+					messages.add(data);
+					coalesce(messages, 5 + data.length);
+					logger.trace("Sending {} messages to, RemoteId:{}", messages.size(), remoteId);
+					sendBytes(messages);
+					messages.clear();
 				}
             }
 
             logger.debug("Sender for " + remoteId + " stopped!");
         }
+
+        // Adds the messages queued meanwhile, waiting up to the linger time for more, until coalesceBytes are reached
+        private void coalesce(List<byte[]> messages, int bytes) {
+            long deadline = System.nanoTime() + coalesceLingerNanos;
+            while (bytes < coalesceBytes) {
+                byte[] data = outQueue.poll();
+                if (data == null) {
+                    long linger = deadline - System.nanoTime();
+                    if (linger <= 0) {
+                        return;
+                    }
+                    try {
+                        data = outQueue.poll(linger, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    if (data == null) {
+                        return;
+                    }
+                }
+                messages.add(data);
+                bytes += 5 + data.length;
+            }
+        }
     }
 
     /**
@@ -408,18 +449,16 @@ public class ServerConnection {
 
 						logger.trace("Read: {}, HasMAC: {}", read, hasMAC);
 
-						SystemMessage sm = (SystemMessage) (new ObjectInputStream(new ByteArrayInputStream(data))
-								.readObject());
+						SystemMessage sm = MessageCodec.decode(data);
 
 						//The verification it is done for the SSL/TLS protocol.
 						sm.authenticated = true;
 
 						if (sm.getSender() == remoteId) {
-							if (!inQueue.offer(sm)) {
-								logger.warn("Inqueue full (message from " + remoteId + " discarded).");
-							}/* else {
-								logger.trace("Message: {} queued, remoteId: {}", sm.toString(), sm.getSender());
-							}*/
+							// stop reading from the replica while its inqueue is full
+							while (!inQueue.offer(sm, POOL_TIME, TimeUnit.MILLISECONDS) && doWork) {
+								logger.debug("Inqueue for " + remoteId + " full, waiting.");
+							}
 						}
 					} catch (ClassNotFoundException ex) {
 						logger.info("Invalid message received. Ignoring!");
@@ -473,8 +512,7 @@ public class ServerConnection {
 							read += socketInStream.read(data, read, dataLength - read);
 						} while (read < dataLength);
 
-						SystemMessage sm = (SystemMessage) (new ObjectInputStream(new ByteArrayInputStream(data))
-								.readObject());
+						SystemMessage sm = MessageCodec.decode(data);
 
 						if (sm.getSender() == remoteId) {
 							this.replica.joinMsgReceived((VMMessage) sm);
@@ -15,11 +15,9 @@ limitations under the License.
 */
 package bftsmart.communication.server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
@@ -30,10 +28,11 @@ import java.security.Security;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import bftsmart.communication.InboundQueue;
+import bftsmart.communication.MessageCodec;
 import bftsmart.communication.SystemMessage;
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.optilog.SensorApp;
@@ -89,7 +88,7 @@ public class ServersCommunicationLayer extends Thread {
 
 
     private ServerViewController controller;
-    private LinkedBlockingQueue<SystemMessage> inQueue;
+    private InboundQueue inQueue;
     private HashMap<Integer, ServerConnection> connections = new HashMap<>();
     private ServerSocket serverSocket;
     private int me;
@@ -98,6 +97,7 @@ public class ServersCommunicationLayer extends Thread {
     private ReentrantLock waitViewLock = new ReentrantLock();
     private List<PendingConnection> pendingConn = new LinkedList<PendingConnection>();
     private ServiceReplica replica;
+    private NettyServersTransport netty; // null if the socket transport is used
 
 
     /**
@@ -122,7 +122,7 @@ public class ServersCommunicationLayer extends Thread {
     private long start_time;
 
     public ServersCommunicationLayer(ServerViewController controller,
-            LinkedBlockingQueue<SystemMessage> inQueue,
+            InboundQueue inQueue,
             ServiceReplica replica) throws Exception {
 
         this.controller = controller;
@@ -186,6 +186,23 @@ public class ServersCommunicationLayer extends Thread {
 		context = SSLContext.getInstance(this.ssltlsProtocolVersion);
 		context.init(kmf.getKeyManagers(), trustMgrFactory.getTrustManagers(), new SecureRandom());
 
+		SecretKeyFactory fac = TOMUtil.getSecretFactory();
+		PBEKeySpec spec = TOMUtil.generateKeySpec(SECRET.toCharArray());
+		selfPwd = fac.generateSecret(spec);
+
+		if (controller.getStaticConf().isNettyServerTransport()) {
+			netty = new NettyServersTransport(controller, inQueue, replica, context, myAddress, myPort);
+			if (controller.isInCurrentView()) {
+				for (int id : controller.getCurrentViewAcceptors()) {
+					if (id != me) {
+						netty.connect(id);
+					}
+				}
+			}
+			start_time = System.currentTimeMillis() / 1000;
+			return; // no accepting thread, the event loops accept the connections
+		}
+
 		serverSocketFactory = context.getServerSocketFactory();
 		this.serverSocketSSLTLS = (SSLServerSocket) serverSocketFactory.createServerSocket(myPort, 100,
 				InetAddress.getByName(myAddress));
@@ -204,11 +221,6 @@ public class ServersCommunicationLayer extends Thread {
 		serverSocketSSLTLS.setNeedClientAuth(true);
 		serverSocketSSLTLS.setWantClientAuth(true);
 
-
-		SecretKeyFactory fac = TOMUtil.getSecretFactory();
-		PBEKeySpec spec = TOMUtil.generateKeySpec(SECRET.toCharArray());
-		selfPwd = fac.generateSecret(spec);
-
       //Try connecting if a member of the current view. Otherwise, wait until the Join has been processed!
         if (controller.isInCurrentView()) {
             int[] initialV = controller.getCurrentViewAcceptors();
@@ -225,13 +237,17 @@ public class ServersCommunicationLayer extends Thread {
     }
 
     public SecretKey getSecretKey(int id) {
-        if (id == controller.getStaticConf().getProcessId())
+        if (id == controller.getStaticConf().getProcessId() || netty != null) // all keys derive from SECRET
         	return selfPwd;
         else return connections.get(id).getSecretKey();
     }
 
     //******* EDUARDO BEGIN **************//
     public void updateConnections() {
+        if (netty != null) {
+            netty.updateConnections();
+            return;
+        }
         connectionsLock.lock();
 
         if (this.controller.isInCurrentView()) {
@@ -298,14 +314,13 @@ public class ServersCommunicationLayer extends Thread {
         /** End AWARE **/
 
 
-        ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
+        byte[] data;
         try {
-            new ObjectOutputStream(bOut).writeObject(sm);
+            data = MessageCodec.encode(sm);
         } catch (IOException ex) {
             logger.error("Failed to serialize message", ex);
+            return;
         }
-
-        byte[] data = bOut.toByteArray();
         
         // this shuffling is done to prevent the replica with the lowest ID/index  from being always
         // the last one receiving the messages, which can result in that replica  to become consistently
@@ -319,14 +334,14 @@ public class ServersCommunicationLayer extends Thread {
                 /** AWARE **/
                 if (sm instanceof ConsensusMessage && ((ConsensusMessage) sm).getPaxosVerboseType().equals("WRITE") &&
                         writeLatenciesSensor != null ) {
-                    Long timestamp = System.nanoTime();
+                    long timestamp = System.nanoTime();
                     writeLatenciesSensor.addSentTime(target, ((ConsensusMessage) sm).getNumber(), timestamp, challenge);
                 }
                 if (proposeLatenciesSensor != null && (
                         (sm instanceof ConsensusMessage && ((ConsensusMessage) sm).getPaxosVerboseType().equals("PROPOSE")) ||
                          sm instanceof LatencyMonitoringMessage && ((LatencyMonitoringMessage) sm).getPaxosVerboseType().equals("DUMMY_PROPOSE")))
                 {
-                    Long timestamp = System.nanoTime();
+                    long timestamp = System.nanoTime();
                     proposeLatenciesSensor.addSentTime(target, ((ConsensusMessage) sm).getNumber(), timestamp, challenge);
                 }
                 /** End AWARE **/
@@ -337,7 +352,11 @@ public class ServersCommunicationLayer extends Thread {
 					logger.debug("Queueing (delivering) my own message, me:{}", target);
 				} else {
 					logger.debug("Sending message from:{} -> to:{}.", me,  target);
-					getConnection(target).send(data);
+					if (netty != null) {
+						netty.send(target, data);
+					} else {
+						getConnection(target).send(data);
+					}
 				}
 			} catch (InterruptedException ex) {
 				logger.error("Interruption while inserting message into inqueue", ex);
@@ -351,6 +370,11 @@ public class ServersCommunicationLayer extends Thread {
         
         doWork = false;
 
+        if (netty != null) {
+            netty.shutdown();
+            return;
+        }
+
         //******* EDUARDO BEGIN **************//
         int[] activeServers = controller.getCurrentViewAcceptors();
 
@@ -363,6 +387,10 @@ public class ServersCommunicationLayer extends Thread {
 
     //******* EDUARDO BEGIN **************//
     public void joinViewReceived() {
+        if (netty != null) {
+            netty.joinViewReceived();
+            return;
+        }
         waitViewLock.lock();
         for (int i = 0; i < pendingConn.size(); i++) {
             PendingConnection pc = pendingConn.get(i);
@@ -465,6 +493,9 @@ public class ServersCommunicationLayer extends Thread {
     @Override
     public String toString() {
         String str = "inQueue=" + inQueue.toString();
+        if (netty != null) {
+            return str + netty;
+        }
         int[] activeServers = controller.getCurrentViewAcceptors();
         for (int i = 0; i < activeServers.length; i++) {
             if (me != activeServers[i]) {
@@ -15,9 +15,7 @@ limitations under the License.
 */
 package bftsmart.communication.server;
 
-import java.util.concurrent.LinkedBlockingQueue;
-
-import bftsmart.communication.SystemMessage;
+import bftsmart.communication.InboundQueue;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.core.messages.TOMMessageType;
@@ -32,7 +30,7 @@ public class Test {
 
         //******* EDUARDO BEGIN **************//
         ServerViewController controller = new ServerViewController(Integer.parseInt(args[0]), null, null);
-        LinkedBlockingQueue<SystemMessage> inQueue = new LinkedBlockingQueue<SystemMessage>();
+        InboundQueue inQueue = new InboundQueue(controller);
         ServersCommunicationLayer scl = new ServersCommunicationLayer(controller, inQueue,null);
 
         int id = controller.getStaticConf().getProcessId();
@@ -19,6 +19,7 @@ import java.io.*;
 
 import bftsmart.communication.SystemMessage;
 import bftsmart.optilog.PrecisionClock.PTPClock;
+import bftsmart.tom.core.messages.TOMMessage;
 
 
 /**
@@ -39,6 +40,10 @@ public class ConsensusMessage extends SystemMessage {
     /** AWARE **/
     protected int challenge = -1; // only necessary for BFT
 
+    // Hash and requests of the value, computed by the inbound pipeline before the message reaches the acceptor
+    private transient byte[] valueHash;
+    private transient TOMMessage[] deserializedValue;
+
     /**
      * Creates a consensus message. Not used. TODO: How about making it private?
      */
@@ -184,6 +189,30 @@ public class ConsensusMessage extends SystemMessage {
 
     }
 
+    /**
+     * Retrieves the hash of the value, if it was computed when the message was received
+     * @return The hash, or null
+     */
+    public byte[] getValueHash() {
+        return valueHash;
+    }
+
+    public void setValueHash(byte[] valueHash) {
+        this.valueHash = valueHash;
+    }
+
+    /**
+     * Retrieves the requests of the value, if they were deserialized when the message was received
+     * @return The requests, or null
+     */
+    public TOMMessage[] getDeserializedValue() {
+        return deserializedValue;
+    }
+
+    public void setDeserializedValue(TOMMessage[] deserializedValue) {
+        this.deserializedValue = deserializedValue;
+    }
+
     public void setProof(Object proof) {
 
         this.proof = proof;
@@ -186,7 +186,7 @@ public final class Acceptor {
         logger.debug("PROPOSE received from:{}, for consensus cId:{}, I am:{}", msg.getSender(), cid, me);
         if (msg.getSender() == executionManager.getCurrentLeader() // Is the replica the leader?
                 && epoch.getTimestamp() == 0 && ts == ets && ets == 0) { // Is all this in epoch 0?
-            executePropose(epoch, msg.getValue());
+            executePropose(epoch, msg);
         } else {
             /** BEGIN AWARE */
             if (epoch.getConsensus().getId() > 1 && epoch.getConsensus().getId() % this.controller.getStaticConf().getCalculationInterval() == this.controller.getStaticConf().getCalculationDelay() + 1) {
@@ -204,9 +204,10 @@ public final class Acceptor {
      * Executes actions related to a proposed value.
      *
      * @param epoch the current epoch of the consensus
-     * @param value Value that is proposed
+     * @param msg   PROPOSE message with the value that is proposed
      */
-    private void executePropose(Epoch epoch, byte[] value) {
+    private void executePropose(Epoch epoch, ConsensusMessage msg) {
+        byte[] value = msg.getValue();
         int cid = epoch.getConsensus().getId();
         logger.debug("Executing propose for cId:{}, Epoch Timestamp:{}", cid, epoch.getTimestamp());
 
@@ -214,7 +215,7 @@ public final class Acceptor {
 
         if (epoch.propValue == null) { // only accept one propose per epoch
             epoch.propValue = value;
-            epoch.propValueHash = tomLayer.computeHash(value);
+            epoch.propValueHash = msg.getValueHash() != null ? msg.getValueHash() : tomLayer.computeHash(value);
 
             /*** LEADER CHANGE CODE ********/
             epoch.getConsensus().addWritten(value);
@@ -225,7 +226,7 @@ public final class Acceptor {
             if (cid == tomLayer.getLastExec() + 1) {
                 tomLayer.setInExec(cid);
             }
-            epoch.deserializedPropValue = tomLayer.checkProposedValue(value, true);
+            epoch.deserializedPropValue = tomLayer.checkProposedValue(value, msg.getDeserializedValue(), true);
 
             if (epoch.deserializedPropValue != null && !epoch.isWriteSent()) {
                 if (epoch.getConsensus().getDecision().firstMessageProposed == null) {
@@ -399,6 +400,7 @@ public final class Acceptor {
      * @param msgs messages
      */
     private void insertProof(ConsensusMessage cm, TOMMessage[] msgs) {
+        // The proof is independent of the wire format, see MessageCodec
         ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
         try {
             ObjectOutputStream obj = new ObjectOutputStream(bOut);
@@ -1,23 +1,36 @@
 package bftsmart.optilog;
 
 import bftsmart.consensus.Decision;
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.optilog.monitors.LatencyMonitor;
 import bftsmart.optilog.monitors.SuspicionMonitor;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.BatchReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
 
 public class AppendOnlyLog {
 
+    // Measurements more than this many sequence numbers older than the latest delivered one of their sender are skipped
+    public static final int DELIVERY_WINDOW = 1024;
+
     private static AppendOnlyLog instance;
 
     private final Logger APPEND_TO_LOG = LoggerFactory.getLogger(this.getClass());
 
     private ServerViewController svc;
 
+    // Per replica: measurements delivered in its latest session
+    private final Map<Integer, Delivered> delivered = new HashMap<>();
+
     public static AppendOnlyLog getInstance(ServerViewController svc) {
         if (instance == null) {
             instance = new AppendOnlyLog(svc);
@@ -34,20 +47,21 @@ public class AppendOnlyLog {
         for (TOMMessage tm : decision.getDeserializedValue()) {
             if (tm.getIsMonitoringMessage()) {
                 APPEND_TO_LOG.trace("Consensus outputs monitoring message, " + tm.toString());
-                switch (TOMMessageType.fromInt(tm.getIsMonitoringType())) {
-                    case MEASUREMENT_LATENCY:
-                        //APPEND_TO_LOG.info("Received from consensus: LATENCY monitoring message from " + tm.getSender()); // Todo outcomment later
-                        LatencyMonitor.getInstance(svc)
-                                .notify(tm.getSender(), tm.getContent(), decision.getConsensusId());
-                        break;
-                    case MEASUREMENT_SUSPICION:
-                        SuspicionMonitor.getInstance(svc)
-                                .notify(tm.getSender(), tm.getContent(), decision.getConsensusId());
-                        break;
-                    case MEASUREMENT_MISBEHAVIOR:
-                        APPEND_TO_LOG.error("MISBEHAVIOR MONITOR NOT IMPLEMENTED");
-                        // Todo Implement later
-                        break;
+                // Measurements the leader did not propose, which their sender ordered as request instead
+                List<MeasurementMessage> measurements = tm.getIsMonitoringType() == TOMMessageType.MONITORING.toInt()
+                        ? MeasurementMessage.listFromBytes(tm.getContent()) : null;
+                if (measurements == null) {
+                    APPEND_TO_LOG.warn("Ignoring malformed measurement request from replica " + tm.getSender()
+                            + " in consensus " + decision.getConsensusId());
+                    continue;
+                }
+                for (MeasurementMessage measurement : measurements) {
+                    if (measurement.getSender() != tm.getSender()) {
+                        APPEND_TO_LOG.warn("Ignoring measurement of replica " + measurement.getSender()
+                                + " ordered by replica " + tm.getSender());
+                        continue;
+                    }
+                    deliver(measurement, decision.getConsensusId());
                 }
                 //onReceiveMonitoringInformation(tm.getSender(), tm.getContent(), decision.getConsensusId());
 
@@ -56,6 +70,91 @@ public class AppendOnlyLog {
             }
         }
 
+        // Measurements the leader piggybacked in the measurement section of the batch
+        MeasurementMessage[] measurements;
+        try {
+            measurements = new BatchReader(decision.getValue(), svc.getStaticConf().getUseSignatures() == 1)
+                    .deserialiseMeasurements();
+        } catch (IllegalArgumentException e) {
+            APPEND_TO_LOG.error("Decision " + decision.getConsensusId() + " contains malformed measurements", e);
+            return;
+        }
+        for (MeasurementMessage measurement : measurements) {
+            deliver(measurement, decision.getConsensusId());
+        }
+    }
+
+    // Delivers a measurement that was proposed by the leader or ordered as request, whichever comes first. Whether it
+    // is delivered only depends on the decided values, so all replicas skip the same measurements.
+    private void deliver(MeasurementMessage measurement, int consensusID) {
+        if (!measurement.isValid(svc)) {
+            APPEND_TO_LOG.warn("Skipping invalid measurement in consensus " + consensusID + ", " + measurement);
+            return;
+        }
+        Delivered last = delivered.get(measurement.getSender());
+        if (last == null || last.session < measurement.getSession()) {
+            last = new Delivered(measurement.getSession());
+            delivered.put(measurement.getSender(), last);
+        } else if (last.session > measurement.getSession()) {
+            APPEND_TO_LOG.debug("Skipping measurement of an older session, " + measurement);
+            return;
+        }
+        if (!last.add(measurement)) {
+            APPEND_TO_LOG.debug("Skipping measurement that was already delivered or is outdated, " + measurement);
+            return;
+        }
+        dispatch(measurement.getSender(), measurement.getType(), measurement.getContent(), consensusID);
+        if (measurement.getSender() == svc.getStaticConf().getProcessId()) {
+            SensorApp.getInstance(svc).delivered(measurement);
+        }
     }
 
+    private void dispatch(int sender, TOMMessageType type, byte[] content, int consensusID) {
+        switch (type) {
+            case MEASUREMENT_LATENCY:
+                LatencyMonitor.getInstance(svc).notify(sender, content, consensusID);
+                break;
+            case MEASUREMENT_SUSPICION:
+                SuspicionMonitor.getInstance(svc).notify(sender, content, consensusID);
+                break;
+            case MEASUREMENT_MISBEHAVIOR:
+                APPEND_TO_LOG.error("MISBEHAVIOR MONITOR NOT IMPLEMENTED");
+                // Todo Implement later
+                break;
+            default:
+                APPEND_TO_LOG.warn("Ignoring measurement of unknown type " + type + " from replica " + sender);
+                break;
+        }
+    }
+
+    /**
+     * Sequence numbers of the measurements delivered from one replica in one session. The leader's pool drops
+     * superseded latency measurements, so a replica's sequence numbers may have gaps, and measurements may be delivered
+     * out of order when they are ordered as requests.
+     */
+    private static class Delivered {
+
+        private final int session;
+        private final TreeSet<Integer> sequences = new TreeSet<>();
+        private int latestLatency = 0;
+
+        private Delivered(int session) {
+            this.session = session;
+        }
+
+        // Returns false if the measurement was delivered already, or is older than the window or the latest latencies
+        private boolean add(MeasurementMessage measurement) {
+            int sequence = measurement.getSequence();
+            boolean isLatency = measurement.getType() == TOMMessageType.MEASUREMENT_LATENCY;
+            if (!sequences.isEmpty() && sequence <= sequences.last() - DELIVERY_WINDOW
+                    || isLatency && sequence < latestLatency || !sequences.add(sequence)) {
+                return false;
+            }
+            if (isLatency) {
+                latestLatency = sequence;
+            }
+            sequences.headSet(sequences.last() - DELIVERY_WINDOW, true).clear();
+            return true;
+        }
+    }
 }
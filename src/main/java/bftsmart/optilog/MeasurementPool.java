@@ -0,0 +1,101 @@
+package bftsmart.optilog;
+
+import bftsmart.optilog.messages.MeasurementMessage;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.tom.core.messages.TOMMessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Measurements that replicas handed to this replica as (supposed) leader and that were not proposed yet. The leader
+ * appends them to the measurement section of its next PROPOSE, so measurements are ordered without client requests,
+ * sessions and replies.
+ * <p>
+ * The pool is bounded: a latency measurement replaces the pending latency measurement of the same replica (which would
+ * be outdated once the newer one is delivered), and at most {@link #MAX_PENDING_SUSPICIONS} suspicions are kept per
+ * replica.
+ *
+ * @author cb
+ */
+public class MeasurementPool {
+
+    public static final int MAX_PENDING_SUSPICIONS = 16;
+
+    private static MeasurementPool instance;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ServerViewController svc;
+
+    private final ArrayDeque<MeasurementMessage> pending = new ArrayDeque<>();
+
+    public static synchronized MeasurementPool getInstance(ServerViewController svc) {
+        if (instance == null) {
+            instance = new MeasurementPool(svc);
+        }
+        return instance;
+    }
+
+    private MeasurementPool(ServerViewController svc) {
+        this.svc = svc;
+    }
+
+    /**
+     * Adds a measurement received from a replica. Measurements that are not signed by their sender are discarded, the
+     * replicas would skip them anyway when they are delivered.
+     *
+     * @param measurement measurement
+     */
+    public void add(MeasurementMessage measurement) {
+        if (!measurement.isValid(svc)) {
+            logger.warn("Discarding measurement " + measurement);
+            return;
+        }
+        addVerified(measurement);
+    }
+
+    private synchronized void addVerified(MeasurementMessage measurement) {
+        int sender = measurement.getSender();
+        int suspicions = 0;
+        MeasurementMessage oldestSuspicion = null;
+        for (Iterator<MeasurementMessage> it = pending.iterator(); it.hasNext(); ) {
+            MeasurementMessage m = it.next();
+            if (m.getSender() != sender) {
+                continue;
+            }
+            if (m.getType() == TOMMessageType.MEASUREMENT_LATENCY
+                    && measurement.getType() == TOMMessageType.MEASUREMENT_LATENCY) {
+                it.remove();
+            } else if (m.getType() == TOMMessageType.MEASUREMENT_SUSPICION) {
+                suspicions++;
+                if (oldestSuspicion == null) {
+                    oldestSuspicion = m;
+                }
+            }
+        }
+        if (measurement.getType() == TOMMessageType.MEASUREMENT_SUSPICION && suspicions >= MAX_PENDING_SUSPICIONS) {
+            pending.remove(oldestSuspicion);
+        }
+        pending.add(measurement);
+    }
+
+    /**
+     * Removes all pending measurements, to be appended to a PROPOSE
+     *
+     * @return pending measurements in the order they were received
+     */
+    public synchronized List<MeasurementMessage> drain() {
+        List<MeasurementMessage> measurements = new ArrayList<>(pending);
+        pending.clear();
+        return measurements;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+}
@@ -1,5 +1,9 @@
 package bftsmart.optilog;
 
+import bftsmart.aware.decisions.OptimizerExecutor;
+import bftsmart.communication.ServerCommunicationSystem;
+import bftsmart.optilog.messages.MeasurementMessage;
+import bftsmart.optilog.monitors.LatencyMonitor;
 import bftsmart.optilog.monitors.SuspicionMonitor;
 import bftsmart.optilog.sensors.*;
 import bftsmart.reconfiguration.ServerViewController;
@@ -9,11 +13,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * This class disseminates this replicas measurements with total order
+ * This class disseminates this replicas measurements with total order. Measurements are signed and handed to the
+ * current leader, which piggybacks them in its next PROPOSE (see {@link MeasurementPool}). Measurements that were not
+ * delivered yet are handed again to the next leader, if the leader changes.
+ * <p>
+ * The leader only proposes if there are client requests, and a faulty leader may omit measurements. Thus, measurements
+ * that were not delivered within a synchronization period are also ordered, bundled in one request: this makes the
+ * leader propose, and request timers detect a leader that does not order it. A measurement is delivered once, whichever
+ * way comes first.
  *
  * @author cb
  */
@@ -21,9 +33,26 @@ public class SensorApp {
 
     private static SensorApp instance;
 
-    private ServiceProxy consensusEngine;
+    private ServerCommunicationSystem communication;
     private ServerViewController svc;
 
+    // Identify this replica's measurements, so they are delivered at most once. Sessions increase when the replica
+    // restarts, the measurements of older sessions are skipped.
+    private final int session = (int) (System.currentTimeMillis() / 1000);
+    private int sequence = 0;
+
+    // Synchronization periods since all latencies were disseminated, only accessed by the dissemination task
+    private int periodsSinceFull = 0;
+
+    // Measurements handed to the leader and not delivered yet
+    private final ArrayDeque<MeasurementMessage> undelivered = new ArrayDeque<>();
+    private int leader = -1;
+
+    // Measurements up to these sequence numbers waited for a whole synchronization period, and were ordered as requests
+    private int overdueSequence = 0;
+    private int orderedSequence = 0;
+    private ServiceProxy consensusEngine; // created once a measurement is ordered as request
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     /***
@@ -59,32 +88,81 @@ public class SensorApp {
         return SensorApp.instance;
     }
 
-    public void start() {
+    /**
+     * Starts disseminating measurements
+     *
+     * @param communication communication system between replicas
+     * @param leader        current leader
+     */
+    public void start(ServerCommunicationSystem communication, int leader) {
         // Create a time tor periodically disseminate this replica's latency measurements to all replicas
 
-        if (consensusEngine == null) {
-            logger.info("OptiLog >> SensorApp: Connecting SensorApp to Consensus Engine");
-            // Init the gateway to the consensus engine:
-            int myID = svc.getStaticConf().getProcessId();
-            consensusEngine = new ServiceProxy(myID);
+        synchronized (this) {
+            logger.info("OptiLog >> SensorApp: Connecting SensorApp to the leader");
+            this.communication = communication;
+            this.leader = leader;
         }
 
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
+        OptimizerExecutor.getInstance(svc).scheduleAtFixedRate(() -> {
 
-                // Get freshest write latencies from Monitor
-                Long[] writeLatencies = writeLatencySensor.create_L("WRITE");
-                Long[] proposeLatencies = proposeLatencySensor.create_L("PROPOSE");
+            // Get freshest write latencies from Monitor
+            long[] writeLatencies = writeLatencySensor.create_L("WRITE");
+            long[] proposeLatencies = proposeLatencySensor.create_L("PROPOSE");
 
-                LatencyMeasurement li = new LatencyMeasurement(svc.getCurrentViewN(), writeLatencies, proposeLatencies);
-                byte[] data = li.toBytes();
+            LatencyMeasurement li = new LatencyMeasurement(svc.getCurrentViewN(), writeLatencies, proposeLatencies,
+                    writeLatencySensor.getStatistic().getName());
 
-                logger.info("OptiLog >> SensorApp: Disseminating monitoring information with total order! ");
-                consensusEngine.propose(data, TOMMessageType.MEASUREMENT_LATENCY);
+            // Encode relative to the latencies of this replica that were delivered last. Replicas that do not know
+            // them (e.g., after a restart or state transfer) cannot decode this, so periodically all latencies are
+            // disseminated without a base.
+            int me = svc.getStaticConf().getProcessId();
+            LatencyMonitor.Snapshot delivered = LatencyMonitor.getInstance(svc).getSnapshot();
+            int fullPeriod = svc.getStaticConf().getFullDisseminationPeriod();
+            boolean full = fullPeriod > 0 && ++periodsSinceFull >= fullPeriod;
+            int base = full ? LatencyMeasurement.NO_BASE : delivered.getLastReport(me);
+            long[] baseWrite = base != LatencyMeasurement.NO_BASE ? delivered.getWrite().row(me) : null;
+            long[] basePropose = base != LatencyMeasurement.NO_BASE ? delivered.getPropose().row(me) : null;
+            if (base != LatencyMeasurement.NO_BASE
+                    && !li.hasChanged(baseWrite, basePropose, svc.getStaticConf().getDisseminationThreshold())) {
+                logger.info("OptiLog >> SensorApp: Latencies did not change, skipping dissemination");
+                return;
+            }
+            byte[] data = li.toCompactBytes(base, baseWrite, basePropose);
+            if (base == LatencyMeasurement.NO_BASE) {
+                periodsSinceFull = 0;
             }
+
+            logger.info("OptiLog >> SensorApp: Disseminating monitoring information with total order! ");
+            disseminate(TOMMessageType.MEASUREMENT_LATENCY, data);
         }, svc.getStaticConf().getSynchronisationDelay(), svc.getStaticConf().getSynchronisationPeriod());
+
+        OptimizerExecutor.getInstance(svc).scheduleAtFixedRate(this::orderOverdue,
+                svc.getStaticConf().getSynchronisationDelay(), svc.getStaticConf().getSynchronisationPeriod());
+    }
+
+    // Orders the measurements that were not delivered within a synchronization period as requests
+    private void orderOverdue() {
+        List<MeasurementMessage> overdue = new ArrayList<>();
+        synchronized (this) {
+            for (MeasurementMessage measurement : undelivered) {
+                if (measurement.getSequence() > orderedSequence && measurement.getSequence() <= overdueSequence) {
+                    overdue.add(measurement);
+                }
+            }
+            overdueSequence = sequence;
+            if (overdue.isEmpty()) {
+                return;
+            }
+            orderedSequence = overdue.get(overdue.size() - 1).getSequence();
+        }
+
+        if (consensusEngine == null) {
+            logger.info("OptiLog >> SensorApp: Connecting SensorApp to Consensus Engine");
+            consensusEngine = new ServiceProxy(svc.getStaticConf().getProcessId());
+        }
+        logger.info("OptiLog >> SensorApp: The leader did not propose " + overdue.size()
+                + " measurements, ordering them as request");
+        consensusEngine.propose(MeasurementMessage.toBytes(overdue), TOMMessageType.MONITORING);
     }
 
     public void publishSuspicion(SuspicionMeasurement suspicion) {
@@ -97,7 +175,52 @@ public class SensorApp {
         byte[] data  = SuspicionMeasurement.toBytes(suspicion);
         logger.debug("SUSPICION: I suspect " + suspicion.getSuspect() +
                 " type: " + suspicion.getProtocolMessageType() + ", consensus: " + suspicion.getConsensusID());
-        consensusEngine.propose(data, TOMMessageType.MEASUREMENT_SUSPICION);
+        disseminate(TOMMessageType.MEASUREMENT_SUSPICION, data);
+    }
+
+    // Hands a measurement to the leader
+    private synchronized void disseminate(TOMMessageType type, byte[] data) {
+        if (communication == null) {
+            logger.debug("SensorApp not started yet, dropping measurement");
+            return;
+        }
+        MeasurementMessage measurement = new MeasurementMessage(svc.getStaticConf().getProcessId(), type, session,
+                ++sequence, data);
+        measurement.sign(svc.getStaticConf().getPrivateKey());
+
+        // A newer latency measurement supersedes an undelivered one, suspicions are bounded as in the leader's pool
+        if (type == TOMMessageType.MEASUREMENT_LATENCY) {
+            undelivered.removeIf(m -> m.getType() == TOMMessageType.MEASUREMENT_LATENCY);
+        } else if (undelivered.stream().filter(m -> m.getType() == TOMMessageType.MEASUREMENT_SUSPICION).count()
+                >= MeasurementPool.MAX_PENDING_SUSPICIONS) {
+            undelivered.stream().filter(m -> m.getType() == TOMMessageType.MEASUREMENT_SUSPICION).findFirst()
+                    .ifPresent(undelivered::remove);
+        }
+        undelivered.add(measurement);
+        handOver(measurement);
+    }
+
+    // Sends a measurement to the leader, or adds it to the pool directly if this replica is the leader (this may run
+    // on the thread that consumes the inbound queue, so the loopback through the queue could block)
+    private void handOver(MeasurementMessage measurement) {
+        if (leader == svc.getStaticConf().getProcessId()) {
+            MeasurementPool.getInstance(svc).add(measurement);
+        } else {
+            communication.send(new int[]{leader}, measurement);
+        }
+    }
+
+    /**
+     * Called when a measurement of this replica was delivered. Measurements that fell out of the delivery window of
+     * the log will never be delivered, so they are dropped as well.
+     *
+     * @param measurement the delivered measurement
+     */
+    public synchronized void delivered(MeasurementMessage measurement) {
+        if (measurement.getSession() == session) {
+            undelivered.removeIf(m -> m.getSequence() == measurement.getSequence()
+                    || m.getSequence() <= measurement.getSequence() - AppendOnlyLog.DELIVERY_WINDOW);
+        }
     }
 
     public synchronized LatencySensor getWriteLatencySensor() {
@@ -113,16 +236,16 @@ public class SensorApp {
     }
 
     /**
-     * Converts Long array to byte array
+     * Converts long array to byte array
      *
-     * @param array Long array
+     * @param array long array
      * @return byte array
      * @throws IOException
      */
-    public static byte[] longToBytes(Long[] array) throws IOException {
+    public static byte[] longToBytes(long[] array) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
-        for (Long l : array)
+        for (long l : array)
             dos.writeLong(l);
 
         dos.close();
@@ -130,17 +253,17 @@ public class SensorApp {
     }
 
     /**
-     * Converts byte array to Long array
+     * Converts byte array to long array
      *
      * @param array byte array
-     * @return Long array
+     * @return long array
      * @throws IOException
      */
-    public static Long[] bytesToLong(byte[] array) throws IOException {
+    public static long[] bytesToLong(byte[] array) throws IOException {
         ByteArrayInputStream bais = new ByteArrayInputStream(array);
         DataInputStream dis = new DataInputStream(bais);
         int n = array.length / Long.BYTES;
-        Long[] result = new Long[n];
+        long[] result = new long[n];
         for (int i = 0; i < n; i++)
             result[i] = dis.readLong();
 
@@ -150,6 +273,16 @@ public class SensorApp {
 
     public void updateRoundInformation(int consensus, int leader) {
         suspicionSensor.notify(consensus, leader);
+        synchronized (this) {
+            if (communication != null && leader != this.leader) {
+                logger.info("OptiLog >> SensorApp: Leader changed to " + leader + ", handing over "
+                        + undelivered.size() + " undelivered measurements");
+                this.leader = leader;
+                for (MeasurementMessage measurement : undelivered) {
+                    handOver(measurement);
+                }
+            }
+        }
     }
 
 
@@ -0,0 +1,256 @@
+package bftsmart.optilog.messages;
+
+import bftsmart.communication.SystemMessage;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A measurement (e.g., latencies or a suspicion) a replica hands to the current leader, which appends it to the
+ * measurement section of its next PROPOSE (see {@link bftsmart.optilog.MeasurementPool}). Session and sequence number
+ * identify the measurement, so replicas deliver it at most once even if it is proposed by several leaders.
+ * <p>
+ * The sender signs the measurement, so a leader can neither forge measurements of other replicas nor alter them.
+ *
+ * @author cb
+ */
+public class MeasurementMessage extends SystemMessage {
+
+    private static final long serialVersionUID = -2271880615428094416L;
+
+    // Bounds the content and signature read from the network
+    public static final int MAX_SIZE = 1 << 20;
+
+    private TOMMessageType type;
+    private int session;
+    private int sequence;
+    private byte[] content;
+    private byte[] signature;
+
+    public MeasurementMessage() {
+    }
+
+    /**
+     * Creates a measurement message
+     *
+     * @param from     This should be this process ID
+     * @param type     MEASUREMENT_LATENCY or MEASUREMENT_SUSPICION
+     * @param session  Session of the sender, chosen when its sensors start
+     * @param sequence Sequence number of the measurement within the session
+     * @param content  Serialized measurement
+     */
+    public MeasurementMessage(int from, TOMMessageType type, int session, int sequence, byte[] content) {
+        this(from, type, session, sequence, content, new byte[0]);
+    }
+
+    /**
+     * Creates a signed measurement message, e.g., read from a PROPOSE
+     *
+     * @param signature Signature of the sender, see {@link #sign(PrivateKey)}
+     */
+    public MeasurementMessage(int from, TOMMessageType type, int session, int sequence, byte[] content,
+                              byte[] signature) {
+        super(from);
+        this.type = type;
+        this.session = session;
+        this.sequence = sequence;
+        this.content = content;
+        this.signature = signature;
+    }
+
+    public TOMMessageType getType() {
+        return type;
+    }
+
+    public int getSession() {
+        return session;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * Signs the measurement, to be called by its sender
+     *
+     * @param key private key of the sender
+     */
+    public void sign(PrivateKey key) {
+        byte[] signature = TOMUtil.signMessage(key, getSignedBytes());
+        this.signature = signature != null ? signature : new byte[0];
+    }
+
+    /**
+     * @param key public key of the sender
+     * @return true if the sender signed this measurement
+     */
+    public boolean verify(PublicKey key) {
+        return key != null && signature.length > 0 && TOMUtil.verifySignature(key, getSignedBytes(), signature);
+    }
+
+    /**
+     * @param svc server view controller
+     * @return true if this is a measurement of a replica of the current view, signed by that replica
+     */
+    public boolean isValid(ServerViewController svc) {
+        return isValidType() && svc.isCurrentViewMember(getSender())
+                && verify(svc.getStaticConf().getPublicKey(getSender()));
+    }
+
+    // Everything but the signature
+    private byte[] getSignedBytes() {
+        return ByteBuffer.allocate(4 * Integer.BYTES + content.length).putInt(getSender()).putInt(type.toInt())
+                .putInt(session).putInt(sequence).put(content).array();
+    }
+
+    /**
+     * Serializes the measurement to be ordered as request, if the leader does not propose it
+     *
+     * @return SENDER(int),TYPE(int),SESSION(int),SEQUENCE(int),SIZE(int),MEASUREMENT(byte),SIGSIZE(int),SIG(byte)
+     */
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(6 * Integer.BYTES + content.length + signature.length).putInt(getSender())
+                .putInt(type.toInt()).putInt(session).putInt(sequence).putInt(content.length).put(content)
+                .putInt(signature.length).put(signature).array();
+    }
+
+    /**
+     * @param bytes serialized measurement, see {@link #toBytes()}
+     * @return the measurement, or null if it is malformed
+     */
+    public static MeasurementMessage fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int sender = buffer.getInt();
+            TOMMessageType type = TOMMessageType.fromInt(buffer.getInt());
+            int session = buffer.getInt();
+            int sequence = buffer.getInt();
+            byte[] content = new byte[checkSize(buffer.getInt(), buffer)];
+            buffer.get(content);
+            byte[] signature = new byte[checkSize(buffer.getInt(), buffer)];
+            buffer.get(signature);
+            return buffer.hasRemaining() ? null
+                    : new MeasurementMessage(sender, type, session, sequence, content, signature);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes measurements of this replica to be ordered as one request
+     *
+     * @param measurements measurements
+     * @return COUNT(int), and SIZE(int),MEASUREMENT(byte) for each measurement, see {@link #toBytes()}
+     */
+    public static byte[] toBytes(List<MeasurementMessage> measurements) {
+        List<byte[]> serialized = new ArrayList<>(measurements.size());
+        int length = Integer.BYTES;
+        for (MeasurementMessage measurement : measurements) {
+            byte[] bytes = measurement.toBytes();
+            serialized.add(bytes);
+            length += Integer.BYTES + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).putInt(serialized.size());
+        for (byte[] bytes : serialized) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param bytes serialized measurements, see {@link #toBytes(List)}
+     * @return the measurements, or null if any of them is malformed
+     */
+    public static List<MeasurementMessage> listFromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / (7 * Integer.BYTES)) {
+                return null;
+            }
+            List<MeasurementMessage> measurements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] serialized = new byte[checkSize(buffer.getInt(), buffer)];
+                buffer.get(serialized);
+                MeasurementMessage measurement = fromBytes(serialized);
+                if (measurement == null) {
+                    return null;
+                }
+                measurements.add(measurement);
+            }
+            return buffer.hasRemaining() ? null : measurements;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int checkSize(int size, ByteBuffer buffer) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        return size;
+    }
+
+    /**
+     * @return true if this is a measurement the monitors can process
+     */
+    public boolean isValidType() {
+        return type == TOMMessageType.MEASUREMENT_LATENCY || type == TOMMessageType.MEASUREMENT_SUSPICION;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeInt(type.toInt());
+        out.writeInt(session);
+        out.writeInt(sequence);
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt(signature.length);
+        out.write(signature);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        type = TOMMessageType.fromInt(in.readInt());
+        session = in.readInt();
+        sequence = in.readInt();
+        content = new byte[readSize(in)];
+        in.readFully(content);
+        signature = new byte[readSize(in)];
+        in.readFully(signature);
+    }
+
+    private static int readSize(ObjectInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IOException("Invalid size " + size);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "type=" + type + ", session=" + session + ", sequence=" + sequence + ", from=" + getSender();
+    }
+}
@@ -0,0 +1,440 @@
+package bftsmart.optilog.monitors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact directed graph over replica IDs, stored as adjacency bitsets: every vertex has one row of out-neighbors and
+ * one row of in-neighbors (a long[] of ceil(capacity / 64) words, i.e., a single word for up to 64 replicas). Edges
+ * carry a weight and an insertion stamp, so edges and vertices can be iterated in insertion order like in a JGraphT
+ * graph.
+ * <p>
+ * Set operations on neighborhoods (intersection, union, complement) are bit-parallel, which makes the independent set,
+ * matching and triangle computations of the {@link SuspicionGraph} cheap even for dense graphs and large systems.
+ * Wherever an algorithm replaces a JGraphT one, it visits vertices and edges in the same order and thus produces the
+ * same result.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cb
+ */
+public class BitsetGraph {
+
+    private int capacity = 0;
+    private int words = 0;
+
+    private long[] vertices = new long[0];
+    private int[] vertexOrder = new int[0];
+    private int vertexCount = 0;
+
+    private long[][] out = new long[0][];
+    private long[][] in = new long[0][];
+    private long[][] stamps = new long[0][];
+    private double[][] weights = new double[0][];
+    private long nextStamp = 0;
+    private int edgeCount = 0;
+
+    public BitsetGraph() {
+    }
+
+    /**
+     * @param capacity initial capacity, vertex IDs must be below it to avoid growing the graph
+     */
+    public BitsetGraph(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(size, Math.max(64, capacity * 2));
+        int newWords = (newCapacity + 63) >>> 6;
+        vertices = Arrays.copyOf(vertices, newWords);
+        vertexOrder = Arrays.copyOf(vertexOrder, newCapacity);
+        out = grow(out, newCapacity, newWords);
+        in = grow(in, newCapacity, newWords);
+        stamps = Arrays.copyOf(stamps, newCapacity);
+        weights = Arrays.copyOf(weights, newCapacity);
+        for (int v = 0; v < newCapacity; v++) {
+            stamps[v] = stamps[v] == null ? new long[newCapacity] : Arrays.copyOf(stamps[v], newCapacity);
+            weights[v] = weights[v] == null ? new double[newCapacity] : Arrays.copyOf(weights[v], newCapacity);
+        }
+        capacity = newCapacity;
+        words = newWords;
+    }
+
+    private static long[][] grow(long[][] rows, int newCapacity, int newWords) {
+        long[][] result = Arrays.copyOf(rows, newCapacity);
+        for (int v = 0; v < newCapacity; v++) {
+            result[v] = result[v] == null ? new long[newWords] : Arrays.copyOf(result[v], newWords);
+        }
+        return result;
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void clear(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    private static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    private static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+
+    // Index of the first set bit, or -1
+    private static int first(long[] bits) {
+        for (int w = 0; w < bits.length; w++) {
+            if (bits[w] != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a vertex, vertices are iterated in the order they were added
+     *
+     * @return true if the vertex was not contained yet
+     */
+    public boolean addVertex(int v) {
+        ensureCapacity(v + 1);
+        if (get(vertices, v)) {
+            return false;
+        }
+        set(vertices, v);
+        vertexOrder[vertexCount++] = v;
+        return true;
+    }
+
+    public boolean containsVertex(int v) {
+        return v >= 0 && v < capacity && get(vertices, v);
+    }
+
+    /**
+     * @return all vertices in insertion order
+     */
+    public int[] vertexOrder() {
+        return Arrays.copyOf(vertexOrder, vertexCount);
+    }
+
+    /**
+     * Adds a directed edge, the vertices have to be contained in the graph
+     *
+     * @return true if the edge was not contained yet (no multi-edges and self-loops)
+     */
+    public boolean addEdge(int source, int target, double weight) {
+        if (source == target || !containsVertex(source) || !containsVertex(target)
+                || get(out[source], target)) {
+            return false;
+        }
+        set(out[source], target);
+        set(in[target], source);
+        stamps[source][target] = nextStamp++;
+        weights[source][target] = weight;
+        edgeCount++;
+        return true;
+    }
+
+    public boolean containsEdge(int source, int target) {
+        return containsVertex(source) && containsVertex(target) && get(out[source], target);
+    }
+
+    public boolean removeEdge(int source, int target) {
+        if (!containsEdge(source, target)) {
+            return false;
+        }
+        clear(out[source], target);
+        clear(in[target], source);
+        weights[source][target] = 0.0;
+        edgeCount--;
+        return true;
+    }
+
+    public double getEdgeWeight(int source, int target) {
+        return weights[source][target];
+    }
+
+    public void setEdgeWeight(int source, int target, double weight) {
+        weights[source][target] = weight;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return all edges as {source, target} pairs in insertion order
+     */
+    public List<int[]> edges() {
+        List<int[]> edges = new ArrayList<>(edgeCount);
+        for (int i = 0; i < vertexCount; i++) {
+            int source = vertexOrder[i];
+            for (int target = first(out[source]); target >= 0; target = next(out[source], target)) {
+                edges.add(new int[]{source, target});
+            }
+        }
+        edges.sort((a, b) -> Long.compare(stamps[a[0]][a[1]], stamps[b[0]][b[1]]));
+        return edges;
+    }
+
+    // Index of the next set bit after i, or -1
+    private static int next(long[] bits, int i) {
+        int w = (i + 1) >>> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << (i + 1));
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == bits.length)
+                return -1;
+            word = bits[w];
+        }
+    }
+
+    public int inDegree(int v) {
+        return cardinality(in[v]);
+    }
+
+    public int outDegree(int v) {
+        return cardinality(out[v]);
+    }
+
+    /**
+     * @return number of incoming plus outgoing edges, like JGraphT's degreeOf for directed graphs
+     */
+    public int degree(int v) {
+        return inDegree(v) + outDegree(v);
+    }
+
+    // Vertices connected to v by an edge in any direction
+    private long[] neighbors(int v) {
+        long[] result = new long[words];
+        for (int w = 0; w < words; w++)
+            result[w] = out[v][w] | in[v][w];
+        return result;
+    }
+
+    // Vertices connected to v by edges in both directions, i.e., the neighbors of v in the undirected graph that
+    // keeps only mutual edges
+    private long[] mutualNeighbors(int v) {
+        long[] result = new long[words];
+        for (int w = 0; w < words; w++)
+            result[w] = out[v][w] & in[v][w];
+        return result;
+    }
+
+    /**
+     * Greedy independent set that treats edges as undirected: vertices are visited by ascending degree (ties in
+     * insertion order); a vertex is added if none of its neighbors has been added before.
+     *
+     * @return independent set in the order in which vertices were added
+     */
+    public Set<Integer> greedyIndependentSet() {
+        Integer[] sorted = new Integer[vertexCount];
+        int[] degrees = new int[capacity];
+        for (int i = 0; i < vertexCount; i++) {
+            sorted[i] = vertexOrder[i];
+            degrees[vertexOrder[i]] = degree(vertexOrder[i]);
+        }
+        Arrays.sort(sorted, (a, b) -> Integer.compare(degrees[a], degrees[b])); // stable
+
+        Set<Integer> independentSet = new LinkedHashSet<>();
+        long[] excluded = new long[words];
+        for (int v : sorted) {
+            if (!get(excluded, v)) {
+                independentSet.add(v);
+                set(excluded, v);
+                for (int w = 0; w < words; w++)
+                    excluded[w] |= out[v][w] | in[v][w];
+            }
+        }
+        return independentSet;
+    }
+
+    /**
+     * Maximum independent set of the undirected graph that keeps only mutual edges (i.e., vertices are independent
+     * unless they are connected in both directions). Solved exactly as maximum clique of the complement graph with a
+     * bitset branch and bound: candidates are greedily colored in the complement and the number of colors bounds the
+     * size of any clique that can still be found, branching on the vertices of the highest colors first.
+     *
+     * @return a maximum independent set in ascending order
+     */
+    public Set<Integer> maximumIndependentSet() {
+        // Complement of the mutual graph, restricted to the vertices of the graph
+        long[][] complement = new long[capacity][];
+        for (int i = 0; i < vertexCount; i++) {
+            int v = vertexOrder[i];
+            long[] mutual = mutualNeighbors(v);
+            complement[v] = new long[words];
+            for (int w = 0; w < words; w++)
+                complement[v][w] = vertices[w] & ~mutual[w];
+            clear(complement[v], v);
+        }
+
+        CliqueSearch search = new CliqueSearch(complement, words);
+        search.expand(vertices.clone(), new long[words], 0);
+
+        Set<Integer> result = new LinkedHashSet<>();
+        for (int v = first(search.best); v >= 0; v = next(search.best, v)) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    /**
+     * Branch and bound maximum clique search on adjacency bitsets
+     */
+    private static class CliqueSearch {
+
+        final long[][] adjacency;
+        final int words;
+        long[] best;
+        int bestSize = 0;
+
+        CliqueSearch(long[][] adjacency, int words) {
+            this.adjacency = adjacency;
+            this.words = words;
+            this.best = new long[words];
+        }
+
+        void expand(long[] candidates, long[] clique, int size) {
+            int count = cardinality(candidates);
+            int[] order = new int[count];
+            int[] colors = new int[count];
+            color(candidates, order, colors);
+
+            long[] remaining = candidates.clone();
+            for (int i = count - 1; i >= 0; i--) {
+                // Bound: the remaining candidates can extend the clique by at most their number of colors
+                if (size + colors[i] <= bestSize) {
+                    return;
+                }
+                int v = order[i];
+                set(clique, v);
+                long[] next = new long[words];
+                for (int w = 0; w < words; w++)
+                    next[w] = remaining[w] & adjacency[v][w];
+                if (isEmpty(next)) {
+                    if (size + 1 > bestSize) {
+                        bestSize = size + 1;
+                        best = clique.clone();
+                    }
+                } else {
+                    expand(next, clique, size + 1);
+                }
+                clear(clique, v);
+                clear(remaining, v);
+            }
+        }
+
+        // Greedy sequential coloring: every color class is an independent set of the adjacency (computed by
+        // repeatedly removing the neighbors of the chosen vertex), vertices are ordered by ascending color
+        void color(long[] candidates, int[] order, int[] colors) {
+            long[] uncolored = candidates.clone();
+            long[] available = new long[words];
+            int index = 0;
+            int color = 0;
+            while (!isEmpty(uncolored)) {
+                color++;
+                System.arraycopy(uncolored, 0, available, 0, words);
+                for (int v = first(available); v >= 0; v = first(available)) {
+                    clear(uncolored, v);
+                    clear(available, v);
+                    for (int w = 0; w < words; w++)
+                        available[w] &= ~adjacency[v][w];
+                    order[index] = v;
+                    colors[index] = color;
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Greedy maximal matching of the undirected graph that keeps only mutual edges, computed like JGraphT's
+     * GreedyMaximumCardinalityMatching (without sorting) on that graph: vertices are visited in insertion order, and an
+     * unmatched vertex is matched with the unmatched neighbor whose undirected edge was created first. An undirected
+     * edge is created by the earlier of its two directed edges, which also determines its source and target.
+     *
+     * @return matched edges as {source, target} pairs in the order they were matched
+     */
+    public List<int[]> greedyMatching() {
+        List<int[]> matching = new ArrayList<>();
+        long[] matched = new long[words];
+        for (int i = 0; i < vertexCount; i++) {
+            int v = vertexOrder[i];
+            if (get(matched, v)) {
+                continue;
+            }
+            long[] candidates = mutualNeighbors(v);
+            for (int w = 0; w < words; w++)
+                candidates[w] &= ~matched[w];
+
+            int mate = -1;
+            long created = Long.MAX_VALUE;
+            for (int u = first(candidates); u >= 0; u = next(candidates, u)) {
+                long stamp = Math.min(stamps[v][u], stamps[u][v]);
+                if (stamp < created) {
+                    created = stamp;
+                    mate = u;
+                }
+            }
+            if (mate >= 0) {
+                set(matched, v);
+                set(matched, mate);
+                matching.add(stamps[v][mate] < stamps[mate][v] ? new int[]{v, mate} : new int[]{mate, v});
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Vertices that are not matched but lie in a triangle (of the graph with edges in any direction) with a matched
+     * edge. Since the matched edges are disjoint, the triangles containing a matched edge {a, b} are exactly those
+     * with a common neighbor of a and b, so triangles do not have to be enumerated one by one.
+     *
+     * @param matching matched edges, see {@link #greedyMatching()}
+     * @return the vertices in ascending order
+     */
+    public Set<Integer> unmatchedTriangleVertices(List<int[]> matching) {
+        long[] matched = new long[words];
+        for (int[] edge : matching) {
+            set(matched, edge[0]);
+            set(matched, edge[1]);
+        }
+        long[] result = new long[words];
+        for (int[] edge : matching) {
+            long[] a = neighbors(edge[0]);
+            long[] b = neighbors(edge[1]);
+            for (int w = 0; w < words; w++)
+                result[w] |= a[w] & b[w] & vertices[w] & ~matched[w];
+        }
+        Set<Integer> vertexSet = new LinkedHashSet<>();
+        for (int v = first(result); v >= 0; v = next(result, v)) {
+            vertexSet.add(v);
+        }
+        return vertexSet;
+    }
+}
@@ -0,0 +1,129 @@
+package bftsmart.optilog.monitors;
+
+import java.util.Arrays;
+
+/**
+ * An immutable n x n matrix of point-to-point latencies in ns, stored row-major in a flat long[]. Row i holds the
+ * latencies replica i measured to all other replicas.
+ * <p>
+ * Updates are copy-on-write: {@link #withRow(int, long[])} returns a new matrix with an incremented version and leaves
+ * this one untouched, so a matrix can be handed out as a snapshot and shared between threads without locking or
+ * copying. Since latency vectors are disseminated rarely (every synchronisation period) but the matrices are read by
+ * every prediction and search, the n² copy is paid on update rather than on every query.
+ *
+ * @author cb
+ */
+public final class LatencyMatrix {
+
+    private final int n;
+    private final long[] values;
+    private final long version;
+
+    // Lazily created two-dimensional view for the simulator, shared by all readers of this matrix
+    private volatile long[][] rows;
+
+    private LatencyMatrix(int n, long[] values, long version) {
+        this.n = n;
+        this.values = values;
+        this.version = version;
+    }
+
+    /**
+     * Creates a matrix with all entries set to the same value
+     *
+     * @param n     system size
+     * @param value value of all entries, e.g., {@link LatencyMonitor#MISSING_VALUE}
+     * @return the matrix with version 0
+     */
+    public static LatencyMatrix filled(int n, long value) {
+        long[] values = new long[n * n];
+        Arrays.fill(values, value);
+        return new LatencyMatrix(n, values, 0);
+    }
+
+    /**
+     * Creates a matrix from a two-dimensional array
+     *
+     * @param m latency matrix with n rows of length n
+     * @return the matrix with version 0
+     */
+    public static LatencyMatrix of(long[][] m) {
+        int n = m.length;
+        long[] values = new long[n * n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(m[i], 0, values, i * n, n);
+        }
+        return new LatencyMatrix(n, values, 0);
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @return number of updates since the matrix was created, increases with every {@link #withRow(int, long[])}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long get(int i, int j) {
+        return values[i * n + j];
+    }
+
+    /**
+     * Replaces the latencies measured by a replica. Entries missing in the given vector keep their value.
+     *
+     * @param i   replica that measured the latencies
+     * @param row latencies from replica i to all replicas
+     * @return a new matrix with row i replaced and the next version
+     */
+    public LatencyMatrix withRow(int i, long[] row) {
+        long[] updated = values.clone();
+        System.arraycopy(row, 0, updated, i * n, Math.min(n, row.length));
+        return new LatencyMatrix(n, updated, version + 1);
+    }
+
+    /**
+     * Assume communication link delays are symmetric and use the maximum
+     *
+     * @return sanitized latency matrix with the same version
+     */
+    public LatencyMatrix sanitize() {
+        long[] m_ast = new long[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                m_ast[i * n + j] = Math.max(values[i * n + j], values[j * n + i]);
+            }
+        }
+        return new LatencyMatrix(n, m_ast, version);
+    }
+
+    /**
+     * Two-dimensional view as used by the {@link bftsmart.aware.decisions.Simulator}. The view is created once per
+     * matrix and shared, so it must not be modified.
+     *
+     * @return latency matrix with n rows of length n
+     */
+    public long[][] toArray() {
+        long[][] result = rows;
+        if (result == null) {
+            result = new long[n][n];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(values, i * n, result[i], 0, n);
+            }
+            rows = result;
+        }
+        return result;
+    }
+
+    /**
+     * @param i replica
+     * @return a copy of the latencies measured by replica i
+     */
+    public long[] row(int i) {
+        long[] row = new long[n];
+        System.arraycopy(values, i * n, row, 0, n);
+        return row;
+    }
+}
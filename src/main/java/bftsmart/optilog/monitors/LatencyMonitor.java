@@ -7,10 +7,16 @@ import bftsmart.reconfiguration.ServerViewController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Singelton pattern. Only one instance of Monitor should be used
+ * <p>
+ * The latency matrices are published as immutable, versioned {@link Snapshot}s through an atomic reference. Updates
+ * from the delivery thread replace the snapshot, while readers (e.g., the search for the best configuration and the
+ * prediction of the consensus latency) only read the reference and never block the delivery thread. The version of
+ * a snapshot increases with every update, so readers can skip recomputations if the latencies did not change.
  *
  * @author cb
  */
@@ -21,7 +27,7 @@ public class LatencyMonitor implements Monitor {
     // 10.000 seconds and will be used
 
     // Singelton
-    private static LatencyMonitor instance;
+    private static volatile LatencyMonitor instance;
 
     private ServerViewController svc;
 
@@ -37,10 +43,7 @@ public class LatencyMonitor implements Monitor {
     // The measured latency matrices which have been disseminated with total order
     // They are the same in all replicas for a defined consensus id, after all TOMMessages within this consensus
     // have been processed.
-    private Long[][] m_propose;
-    private Long[][] m_write;
-
-    private HashMap<Integer, Integer> notifications;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -56,8 +59,6 @@ public class LatencyMonitor implements Monitor {
         this.writeLatencySensor = new LatencySensor(svc);
         this.proposeLatencySensor = new LatencySensor(svc);
 
-        notifications = new HashMap<>();
-
         clear(n);
         /*
         // Periodically compute point-to-point latencies
@@ -82,44 +83,53 @@ public class LatencyMonitor implements Monitor {
      * @return the monitoring instance
      */
     public static LatencyMonitor getInstance(ServerViewController svc) {
-        if (LatencyMonitor.instance == null) {
-            LatencyMonitor.instance = new LatencyMonitor(svc);
+        LatencyMonitor monitor = LatencyMonitor.instance;
+        if (monitor == null) {
+            synchronized (LatencyMonitor.class) {
+                monitor = LatencyMonitor.instance;
+                if (monitor == null) {
+                    monitor = new LatencyMonitor(svc);
+                    LatencyMonitor.instance = monitor;
+                }
+            }
         }
-        return LatencyMonitor.instance;
+        return monitor;
     }
 
     @Override
     public synchronized void notify(int sender, byte[] measurement, int consensusID) {
         int n = svc.getCurrentViewN();
 
-        LatencyMeasurement li = LatencyMeasurement.fromBytes(measurement);
+        Snapshot current = snapshot.get();
+        // Measurements are encoded relative to the last one delivered from the same sender. If this replica does not
+        // know it (e.g., after a restart or state transfer), the sender's latencies are unknown until it disseminates
+        // all of them again (system.aware.fullDisseminationPeriod)
+        LatencyMeasurement li = sender < current.write.getN()
+                ? LatencyMeasurement.fromBytes(measurement, current.lastReports[sender], current.write.row(sender),
+                current.propose.row(sender))
+                : null;
+        if (li == null) {
+            logger.warn("Ignoring malformed or outdated latencies of replica " + sender + " in consensus "
+                    + consensusID);
+            return;
+        }
+        if (!li.statistic.equals(svc.getStaticConf().getLatencyStatistic())) {
+            logger.warn("Replica " + sender + " disseminated " + li.statistic + " latencies, but "
+                    + svc.getStaticConf().getLatencyStatistic() + " is configured");
+        }
 
-        m_write[sender] = li.writeLatencies;
-        m_propose[sender] = li.proposeLatencies;
+        LatencyMatrix m_write = current.write.withRow(sender, li.writeLatencies);
+        LatencyMatrix m_propose = current.propose.withRow(sender, li.proposeLatencies);
+        int[] lastReports = current.lastReports.clone();
+        lastReports[sender] = consensusID;
 
-        notifications.put(sender, consensusID);
+        snapshot.set(new Snapshot(current.version + 1, m_propose, m_write, m_propose.sanitize(), m_write.sanitize(),
+                lastReports));
 
         // printM("Updated", m_write, consensusID, n); // Todo outcomment later
     }
 
-    /**
-     * Assume communication link delays are symmetric and use the maximum
-     *
-     * @param m latency matrix
-     * @return sanitized latency matrix
-     */
-    public synchronized Long[][] sanitize(Long[][] m) {
-        int n = svc.getCurrentViewN();
-        Long[][] m_ast = new Long[n][n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                m_ast[i][j] = Math.max(m[i][j], m[j][i]);
-            }
-        }
-        return m_ast;
-    }
-
-    private static void printM(String description, Long[][] matrix, int consensusID, int n) {
+    private static void printM(String description, LatencyMatrix matrix, int consensusID, int n) {
         String result = "";
         result += ("--------------- " + description + " ---------------------\n");
         result += ("Sever Latency Matrix for consensus ID " + consensusID + "\n");
@@ -130,7 +140,7 @@ public class LatencyMonitor implements Monitor {
             result = result + i + " | ";
             for (int j = 0; j < n; j++) {
 
-                double latency = Math.round((double) matrix[i][j] / 1000.00); // round to precision of micro seconds
+                double latency = Math.round((double) matrix.get(i, j) / 1000.00); // round to precision of micro seconds
                 latency = latency / 1000.00; // convert to milliseconds
                 if (latency >= 0.00 & latency < 1.0E9)
                     result += ("  " + latency + "  ");
@@ -142,28 +152,123 @@ public class LatencyMonitor implements Monitor {
         System.out.println(result);
     }
 
-    public synchronized Long[][] getM_propose() {
-        return m_propose;
+    /**
+     * Returns the current latencies. The snapshot is immutable, so the matrices are consistent with each other even if
+     * the monitor is updated concurrently.
+     *
+     * @return the latest snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return version of the latest snapshot, changes whenever the latencies are updated or cleared
+     */
+    public long getVersion() {
+        return snapshot.get().version;
+    }
+
+    /**
+     * @param version version of a previously read snapshot
+     * @return true if the latencies were updated or cleared since the snapshot of the given version was published
+     */
+    public boolean hasChangedSince(long version) {
+        return snapshot.get().version != version;
+    }
+
+    public LatencyMatrix getM_propose() {
+        return snapshot.get().propose;
+    }
+
+    public LatencyMatrix getM_write() {
+        return snapshot.get().write;
     }
 
-    public synchronized Long[][] getM_write() {
-        return m_write;
+    public LatencyMatrix getSanitizedPropose() {
+        return snapshot.get().sanitizedPropose;
+    }
+
+    public LatencyMatrix getSanitizedWrite() {
+        return snapshot.get().sanitizedWrite;
     }
 
     public synchronized void clear(int n) {
-        this.m_propose = new Long[n][n];
-        this.m_write = new Long[n][n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                m_write[i][j] = MISSING_VALUE;
-                m_propose[i][j] = MISSING_VALUE;
+        Snapshot current = snapshot.get();
+        long version = current != null ? current.version + 1 : 0;
+        LatencyMatrix m_propose = LatencyMatrix.filled(n, MISSING_VALUE);
+        LatencyMatrix m_write = LatencyMatrix.filled(n, MISSING_VALUE);
+        int[] lastReports = new int[n];
+        Arrays.fill(lastReports, LatencyMeasurement.NO_BASE);
+        snapshot.set(new Snapshot(version, m_propose, m_write, m_propose, m_write, lastReports));
+    }
+
+    public boolean isInitialized() {
+        return snapshot.get().getReporters() >= (svc.getCurrentViewN() - svc.getCurrentViewF());
+    }
+
+    /**
+     * Immutable state of the monitor: the latency matrices, their sanitized versions (see
+     * {@link LatencyMatrix#sanitize()}), which are computed once per update instead of per query, and the consensus
+     * ids in which the replicas reported their latencies
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final LatencyMatrix propose;
+        private final LatencyMatrix write;
+        private final LatencyMatrix sanitizedPropose;
+        private final LatencyMatrix sanitizedWrite;
+        private final int[] lastReports;
+        private final int reporters;
+
+        private Snapshot(long version, LatencyMatrix propose, LatencyMatrix write, LatencyMatrix sanitizedPropose,
+                         LatencyMatrix sanitizedWrite, int[] lastReports) {
+            this.version = version;
+            this.propose = propose;
+            this.write = write;
+            this.sanitizedPropose = sanitizedPropose;
+            this.sanitizedWrite = sanitizedWrite;
+            this.lastReports = lastReports;
+            int reporters = 0;
+            for (int report : lastReports) {
+                if (report != LatencyMeasurement.NO_BASE) reporters++;
             }
+            this.reporters = reporters;
         }
-        notifications = new HashMap<>();
-    }
 
-    public synchronized boolean isInitialized() {
-        return notifications.keySet().size() >= (svc.getCurrentViewN() - svc.getCurrentViewF());
+        public long getVersion() {
+            return version;
+        }
+
+        public LatencyMatrix getPropose() {
+            return propose;
+        }
+
+        public LatencyMatrix getWrite() {
+            return write;
+        }
+
+        public LatencyMatrix getSanitizedPropose() {
+            return sanitizedPropose;
+        }
+
+        public LatencyMatrix getSanitizedWrite() {
+            return sanitizedWrite;
+        }
+
+        public int getReporters() {
+            return reporters;
+        }
+
+        /**
+         * @param replica replica
+         * @return consensus id in which the latencies of the replica were delivered last, or
+         * {@link LatencyMeasurement#NO_BASE} if there are none
+         */
+        public int getLastReport(int replica) {
+            return replica < lastReports.length ? lastReports[replica] : LatencyMeasurement.NO_BASE;
+        }
     }
 
 }
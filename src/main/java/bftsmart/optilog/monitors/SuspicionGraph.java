@@ -3,13 +3,8 @@ package bftsmart.optilog.monitors;
 import bftsmart.optilog.sensors.SuspicionMeasurement;
 import bftsmart.reconfiguration.ServerViewController;
 import org.jgrapht.Graph;
-import org.jgrapht.alg.clique.BronKerboschCliqueFinder;
-import org.jgrapht.alg.matching.GreedyMaximumCardinalityMatching;
-import org.jgrapht.generate.ComplementGraphGenerator;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.DirectedWeightedMultigraph;
-import org.jgrapht.graph.SimpleWeightedGraph;
-import org.jgrapht.alg.clique.DegeneracyBronKerboschCliqueFinder;
 import org.jgrapht.Graphs;
 
 
@@ -19,25 +14,51 @@ import org.slf4j.LoggerFactory;
 
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.math.BigInteger;
 
+/**
+ * Directed graph of suspicions between replicas (an edge from reporter to suspect, weighted by the number of
+ * suspicions), from which the OptiLog candidate set is computed.
+ * <p>
+ * The graph is kept in a {@link BitsetGraph}, so the independent set, the matching and the triangles used by the
+ * candidate set computation are evaluated with bit-parallel operations on adjacency rows instead of JGraphT graph
+ * traversals; the candidate sets are the same.
+ * <p>
+ * Suspicions decay exponentially with the consensus id in which they were raised: the weight of a suspicion halves
+ * every system.optilog.suspicionHalfLife consensus instances. Weights are stored relative to a reference consensus id
+ * (the origin), so adding a suspicion does not touch other edges; {@link #decay(int)} moves the origin forward and
+ * evicts edges whose weight fell below system.optilog.suspicionThreshold. Since decay only depends on consensus ids and
+ * uses StrictMath, all replicas compute the same weights. With at most one edge per pair of replicas, the memory of the
+ * graph is bounded by n² independent of the run length.
+ */
 public class SuspicionGraph {
 
-    private Graph<Integer, DefaultWeightedEdge> suspicionGraph = new DirectedWeightedMultigraph<>(DefaultWeightedEdge.class);
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    // Largest exponent of a weight relative to the origin before the weights are rebased, keeps weights finite
+    private static final double MAX_EXPONENT = 64;
+
+    private BitsetGraph suspicionGraph;
+    private static final Logger logger = LoggerFactory.getLogger(SuspicionGraph.class);
     private ServerViewController controller;
 
+    private final int halfLife;
+    private final double threshold;
+
+    // Consensus id at which edge weights are valid without further decay
+    private int origin = 0;
+
     public SuspicionGraph(ServerViewController controller) {
         this.controller = controller;
+        this.halfLife = controller.getStaticConf().getSuspicionHalfLife();
+        this.threshold = controller.getStaticConf().getSuspicionThreshold();
+        this.suspicionGraph = new BitsetGraph(controller.getCurrentViewN());
         // Add processes to the graph
         for (int i=0; i < controller.getCurrentViewN(); i++) {
             suspicionGraph.addVertex(i);
         }
     }
 
-    private synchronized void addSuspicion(int reporter, int suspect) {
+    private synchronized void addSuspicion(int reporter, int suspect, int consensusID) {
 
         if (controller.getStaticConf().getProcessId() == 1) {
             logger.info("OptiLog > SuspicionGraph > addSuspicion called reporter {} , suspect {} ", reporter, suspect);
@@ -49,149 +70,129 @@ public class SuspicionGraph {
         suspicionGraph.addVertex(suspect);
         suspicionGraph.addVertex(reporter);
 
-        DefaultWeightedEdge edge = suspicionGraph.getEdge(reporter, suspect);
-        if (edge == null) {
-            DefaultWeightedEdge suspicion = suspicionGraph.addEdge(reporter, suspect);
-            suspicionGraph.setEdgeWeight(suspicion, 1.0); // add a suspicion
-        } else {
-            suspicionGraph.setEdgeWeight(edge, suspicionGraph.getEdgeWeight(edge) + 1.0); // Increase suspicion weight by 1
+        // Weight of the suspicion at the origin, 1 at its own consensus id
+        if (halfLife > 0 && (double) (consensusID - origin) / halfLife > MAX_EXPONENT) {
+            decay(consensusID);
+        }
+        double weight = halfLife > 0 ? StrictMath.pow(2.0, (double) (consensusID - origin) / halfLife) : 1.0;
+
+        if (!suspicionGraph.addEdge(reporter, suspect, weight)) { // add a suspicion
+            suspicionGraph.setEdgeWeight(reporter, suspect, suspicionGraph.getEdgeWeight(reporter, suspect) + weight); // Increase suspicion weight
         }
     }
 
     public synchronized void populate(List<SuspicionMeasurement> filteredSuspicions) {
         for (SuspicionMeasurement s: filteredSuspicions) {
-            addSuspicion(s.getReporter(), s.getSuspect());
+            addSuspicion(s.getReporter(), s.getSuspect(), s.getConsensusID());
         }
     }
 
-    public synchronized void removeSuspicions(double strength) {
-        Set<DefaultWeightedEdge> edges = suspicionGraph.edgeSet();
-        Set<DefaultWeightedEdge> toRemove = new LinkedHashSet<>();
-        for (DefaultWeightedEdge edge : edges) {
-            suspicionGraph.setEdgeWeight(edge, suspicionGraph.getEdgeWeight(edge) - strength); // Decrease suspicion strength
-            if (suspicionGraph.getEdgeWeight(edge) <= 0) {
-                toRemove.add(edge); // Remove suspicion
+    /**
+     * Decays the weights of all suspicions to the given consensus id and removes suspicions whose weight fell below
+     * the threshold. Does nothing if decay is disabled or the weights are already more recent.
+     *
+     * @param consensusID consensus id at which the weights are evaluated
+     * @return true if suspicions were removed
+     */
+    public synchronized boolean decay(int consensusID) {
+        if (halfLife <= 0 || consensusID <= origin) {
+            return false;
+        }
+        double factor = StrictMath.pow(2.0, -(double) (consensusID - origin) / halfLife);
+        origin = consensusID;
+        boolean removed = false;
+        for (int[] edge : suspicionGraph.edges()) {
+            double weight = suspicionGraph.getEdgeWeight(edge[0], edge[1]) * factor;
+            suspicionGraph.setEdgeWeight(edge[0], edge[1], weight);
+            if (weight < threshold) {
+                suspicionGraph.removeEdge(edge[0], edge[1]);
+                removed = true;
             }
         }
-        if (!toRemove.isEmpty()) {
-            suspicionGraph.removeAllEdges(toRemove);
+        return removed;
+    }
+
+    /**
+     * @return number of suspicions (edges between replicas) in the graph
+     */
+    public synchronized int size() {
+        return suspicionGraph.edgeCount();
+    }
+
+    public synchronized void removeSuspicions(double strength) {
+        for (int[] edge : suspicionGraph.edges()) {
+            double weight = suspicionGraph.getEdgeWeight(edge[0], edge[1]) - strength; // Decrease suspicion strength
+            suspicionGraph.setEdgeWeight(edge[0], edge[1], weight);
+            if (weight <= 0) {
+                suspicionGraph.removeEdge(edge[0], edge[1]); // Remove suspicion
+            }
         }
     }
 
     public synchronized void clearSuspicions() {
-        suspicionGraph = new DirectedWeightedMultigraph<>(DefaultWeightedEdge.class);
+        suspicionGraph = new BitsetGraph(controller.getCurrentViewN());
+        origin = 0;
     }
 
+    /**
+     * Maximum independent set of the undirected graph that contains an edge for every pair of replicas that suspect
+     * each other, see {@link BitsetGraph#maximumIndependentSet()}
+     *
+     * @param sGraph     suspicion graph
+     * @param exhaustive formerly selected between an exhaustive and a time-bounded clique search; the bitset branch and
+     *                   bound is fast enough to always search exhaustively
+     * @return maximum independent set
+     */
     public static Set<Integer> maxIndependentSet(Graph<Integer, DefaultWeightedEdge>  sGraph, boolean exhaustive) {
-        // Step 1: Compute the undirected graph equivalent (turns directed edges into undirected)
-        Graph<Integer, DefaultWeightedEdge> undirectedGraph = convertToUndirected(sGraph);
-
-        // Step 2: Compute the complementary Graph G' (contains an edge e where is no edge in G and vice versa)
-        //     Create an empty weighted graph for the complement
-        Graph<Integer, DefaultWeightedEdge> complement = new SimpleWeightedGraph<>(DefaultWeightedEdge.class);
-        //      Use ComplementGraphGenerator to populate it
-        ComplementGraphGenerator<Integer, DefaultWeightedEdge> generator = new ComplementGraphGenerator<>(undirectedGraph);
-        generator.generateGraph(complement);
-
-        Iterator<Set<Integer>> maxIter;
-
-        // Step 3: Run the Clique Finder on the complement graph (this is equivalent of finding the independent set):
-        if (exhaustive) {
-            BronKerboschCliqueFinder<Integer, DefaultWeightedEdge> cliqueFinder =
-                    new BronKerboschCliqueFinder<>(complement);
-            maxIter = cliqueFinder.maximumIterator();
-        } else {    // heuristically find independent set
-            DegeneracyBronKerboschCliqueFinder<Integer, DefaultWeightedEdge> cliqueFinder =
-                    new DegeneracyBronKerboschCliqueFinder<>(complement, 100000, TimeUnit.MILLISECONDS);
-            maxIter = cliqueFinder.maximumIterator();
+        BitsetGraph graph = new BitsetGraph();
+        for (Integer vertex : sGraph.vertexSet()) {
+            graph.addVertex(vertex);
         }
-
-        Set<Integer> maxIndependentSet = maxIter.hasNext() ? maxIter.next() : Collections.emptySet();
-
-        return maxIndependentSet;
+        for (DefaultWeightedEdge edge : sGraph.edgeSet()) {
+            graph.addEdge(sGraph.getEdgeSource(edge), sGraph.getEdgeTarget(edge), sGraph.getEdgeWeight(edge));
+        }
+        return graph.maximumIndependentSet();
     }
 
 
     public synchronized Set<Integer> candidateSet() {
+        return candidateSet(suspicionGraph, controller.getCurrentView().getProcesses(), controller.getCurrentViewF());
+    }
+
+    /**
+     * Computes the candidate set of a suspicion graph, independent of the view controller (e.g., for tests)
+     *
+     * @param suspicionGraph suspicion graph
+     * @param processes      replicas of the current view
+     * @param f              number of faults tolerated by the current view
+     * @return the candidate set
+     */
+    public static Set<Integer> candidateSet(BitsetGraph suspicionGraph, int[] processes, int f) {
 
-        //Set<Integer> maxIndependentSet = maxIndependentSet(this.suspicionGraph, false);
-        Set<Integer> maxIndependentSet = greedyIndependentSet(this.suspicionGraph);
+        //Set<Integer> maxIndependentSet = suspicionGraph.maximumIndependentSet();
+        Set<Integer> maxIndependentSet = suspicionGraph.greedyIndependentSet();
 
         // Output the final result
         logger.info(">>> OptiLog: SuspicionGraph: Vertices in maximum independent set: " + maxIndependentSet);
 
         // Return max Independent set if sufficiently large
-        if (maxIndependentSet.size() >= controller.getCurrentViewF() + 1) {
+        if (maxIndependentSet.size() >= f + 1) {
             return maxIndependentSet;
         }
         // If not large enough use an heuristic to craft a candidate set
         // (this might be the case during network disruptions)
         logger.warn(">>> OptiLog: SuspicionGraph: Using heuristic to craft candidate set");
 
-        return heuristicCandidateSet();
-    }
-
-    // Find all triangles in the graph
-    private Set<Set<Integer>> findTriangles(Graph<Integer, DefaultWeightedEdge> graph) {
-        Set<Set<Integer>> triangles = new LinkedHashSet<>();
-
-        for (Integer node : graph.vertexSet()) {
-            for (Integer neighbor1 : graph.vertexSet()) {
-                if (!graph.containsEdge(node, neighbor1) && !graph.containsEdge(neighbor1, node)) continue;
-                for (Integer neighbor2 : graph.vertexSet()) {
-                    if (node.equals(neighbor1) || node.equals(neighbor2) || neighbor1.equals(neighbor2)) continue;
-                    if (graph.containsEdge(neighbor1, neighbor2) && graph.containsEdge(neighbor2, node)) {
-                        Set<Integer> triangle = new TreeSet<>(Arrays.asList(node, neighbor1, neighbor2));
-                        triangles.add(triangle);
-                    }
-                }
-            }
-        }
-        return triangles;
-    }
-
-    // Find vertices that are:
-    // 1. In a triangle
-    // 2. Where the triangle has an edge in the matching
-    // 3. Not adjacent to any edge in the matching
-    private Set<Integer> findVerticesMeetingConditions(Graph<Integer, DefaultWeightedEdge> graph,
-                                                       Set<Set<Integer>> triangles,
-                                                       Set<DefaultWeightedEdge> matchingEdges) {
-        Set<Integer> matchedVertices = new TreeSet<>();
-        for (DefaultWeightedEdge edge : matchingEdges) {
-            matchedVertices.add(graph.getEdgeSource(edge));
-            matchedVertices.add(graph.getEdgeTarget(edge));
-        }
-
-        Set<Integer> resultSet = new TreeSet<>();
-        for (Set<Integer> triangle : triangles) {
-            boolean hasMatchingEdge = false;
-            for (DefaultWeightedEdge edge : matchingEdges) {
-                Integer u = graph.getEdgeSource(edge);
-                Integer v = graph.getEdgeTarget(edge);
-                if (triangle.contains(u) && triangle.contains(v)) {
-                    hasMatchingEdge = true;
-                    break;
-                }
-            }
-            if (hasMatchingEdge) {
-                for (Integer vertex : triangle) {
-                    if (!matchedVertices.contains(vertex)) {
-                        resultSet.add(vertex);
-                    }
-                }
-            }
-        }
-        return resultSet;
+        return heuristicCandidateSet(suspicionGraph, processes, f);
     }
 
     // Make sure exclusionList will not grow beyond the size of (n-f-1) so f+1 candidates are always available
-    private Set<Integer> reduceExclusionList(Set<Integer> suspects) {
+    private static Set<Integer> reduceExclusionList(BitsetGraph suspicionGraph, Set<Integer> suspects, int n, int f) {
 
         LinkedList<Integer> sortedList = new LinkedList<>(suspects);
         // Sort by degree (in-degree), ascending order
-        sortedList.sort((a, b) -> Integer.compare(suspicionGraph.inDegreeOf(a), suspicionGraph.inDegreeOf(b)));
-        while (sortedList.size() > controller.getCurrentViewN() - controller.getCurrentViewF() - 1) {
+        sortedList.sort((a, b) -> Integer.compare(suspicionGraph.inDegree(a), suspicionGraph.inDegree(b)));
+        while (sortedList.size() > n - f - 1) {
             sortedList.removeFirst();
         }
         suspects = new TreeSet<>(sortedList);
@@ -204,10 +205,10 @@ public class SuspicionGraph {
         // Store formatted edges
         List<String> edgeRepresentations = new ArrayList<>();
 
-        for (DefaultWeightedEdge edge : suspicionGraph.edgeSet()) {
-            int source = suspicionGraph.getEdgeSource(edge);
-            int target = suspicionGraph.getEdgeTarget(edge);
-            double weight = suspicionGraph.getEdgeWeight(edge);
+        for (int[] edge : suspicionGraph.edges()) {
+            int source = edge[0];
+            int target = edge[1];
+            double weight = suspicionGraph.getEdgeWeight(source, target);
 
             // Format the edge visually
             edgeRepresentations.add(String.format("%d --(%.2f)--> %d", source, weight, target));
@@ -221,73 +222,35 @@ public class SuspicionGraph {
         }
     }
 
-    private static Graph<Integer, DefaultWeightedEdge> convertToUndirected(Graph<Integer, DefaultWeightedEdge> directedGraph) {
-        // Create an undirected graph
-        Graph<Integer, DefaultWeightedEdge> undirectedGraph = new SimpleWeightedGraph<>(DefaultWeightedEdge.class);
-
-        // Add all vertices
-        for (Integer vertex : directedGraph.vertexSet()) {
-            undirectedGraph.addVertex(vertex);
-        }
-
-        // Find bidirectional edges
-        Set<DefaultWeightedEdge> toKeep = new LinkedHashSet<>();
-
-        for (DefaultWeightedEdge edge : directedGraph.edgeSet()) {
-            Integer source = directedGraph.getEdgeSource(edge);
-            Integer target = directedGraph.getEdgeTarget(edge);
-
-            // Check if the reverse edge exists
-            if (directedGraph.containsEdge(target, source)) {
-                toKeep.add(edge);
-            }
-        }
-
-        // Add only bidirectional edges to the new undirected graph
-        for (DefaultWeightedEdge edge : toKeep) {
-            Integer source = directedGraph.getEdgeSource(edge);
-            Integer target = directedGraph.getEdgeTarget(edge);
-
-            if (source != null & target != null) {
-                undirectedGraph.addEdge(source, target);
-            }
-        }
-
-        return undirectedGraph;
-    }
-
-    private Set<Integer> heuristicCandidateSet(){
-        // Step 1: Compute maximal set of disjoint edges
-        Graph<Integer, DefaultWeightedEdge> undirectedGraph = convertToUndirected(suspicionGraph);
-        GreedyMaximumCardinalityMatching<Integer, DefaultWeightedEdge> matchingAlgo = new GreedyMaximumCardinalityMatching<>(undirectedGraph, false);
-        Set<DefaultWeightedEdge> matchingEdges = matchingAlgo.getMatching().getEdges();
-
-        logger.info(">>> OptiLog: SuspicionGraph: Maximal set of disjoint edges: {}", matchingEdges);
+    private static Set<Integer> heuristicCandidateSet(BitsetGraph suspicionGraph, int[] processes, int f) {
+        // Step 1: Compute maximal set of disjoint edges (among replicas that suspect each other)
+        List<int[]> matchingEdges = suspicionGraph.greedyMatching();
 
-        // Step 2: Find all triangles in the graph
-        Set<Set<Integer>> triangles = findTriangles(suspicionGraph);
+        logger.info(">>> OptiLog: SuspicionGraph: Maximal set of disjoint edges: {}", matchingEdges.stream()
+                .map(edge -> "(" + edge[0] + " : " + edge[1] + ")").collect(Collectors.joining(", ", "[", "]")));
 
-        // Step 3: Identify vertices fulfilling the criteria from the paper:
-        Set<Integer> condition = findVerticesMeetingConditions(suspicionGraph, triangles, matchingEdges);
+        // Step 2 and 3: Identify vertices fulfilling the criteria from the paper: in a triangle that has an edge in
+        // the matching, but not adjacent to any edge in the matching
+        Set<Integer> condition = suspicionGraph.unmatchedTriangleVertices(matchingEdges);
 
         // Output the final result
         logger.info(">>> OptiLog: SuspicionGraph: Vertices fulfilling the second conditions: " + condition);
 
 
         // Init result set with *all* system nodes
-        Set<Integer> resultSet = Arrays.stream(controller.getCurrentView().getProcesses()).boxed().collect(Collectors.toSet());
+        Set<Integer> resultSet = Arrays.stream(processes).boxed().collect(Collectors.toSet());
 
         // Now build the set that is excluded from being candidates:
         Set<Integer> exclusionList = new LinkedHashSet<>();
-        for (DefaultWeightedEdge edge : matchingEdges) {
-            exclusionList.add(suspicionGraph.getEdgeSource(edge));
-            exclusionList.add(suspicionGraph.getEdgeTarget(edge));
+        for (int[] edge : matchingEdges) {
+            exclusionList.add(edge[0]);
+            exclusionList.add(edge[1]);
         }
         exclusionList.addAll(condition); // Adds only non-duplicate elements
 
         // Ensure candidate set is at least of size f+1 so exclusion least cant be larger than n-f-1
-        if (exclusionList.size() > (controller.getCurrentViewN() - controller.getCurrentViewF() - 1)) {
-            exclusionList = reduceExclusionList(exclusionList);
+        if (exclusionList.size() > (processes.length - f - 1)) {
+            exclusionList = reduceExclusionList(suspicionGraph, exclusionList, processes.length, f);
         }
         resultSet.removeAll(exclusionList);
 
@@ -9,13 +9,23 @@ import bftsmart.reconfiguration.ServerViewController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.LinkedList;
 import java.util.*;
 
 import bftsmart.optilog.Monitor;
 
+/**
+ * Collects the suspicions that have been disseminated with total order and maintains the suspicion graph from which
+ * the OptiLog candidate set is computed.
+ * <p>
+ * Suspicions are indexed on arrival by consensus id (in a tree, so old instances can be garbage collected in order).
+ * Within a consensus instance, only the suspicions of the earliest protocol phase in which suspicions were raised are
+ * kept (P before W before A), since later suspicions are likely caused by the earlier ones. Queries only populate the
+ * suspicions into the graph that have been accepted since the last query, and the candidate set is recomputed only
+ * if the graph or the view changed. Thus, notify() takes O(log(k)) for k indexed consensus instances, and the cost of a
+ * query does not grow with the number of collected suspicions.
+ *
+ * @author cb
+ */
 
 public class SuspicionMonitor implements Monitor {
 
@@ -24,13 +34,17 @@ public class SuspicionMonitor implements Monitor {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private ServerViewController controller;
 
-    private final List<SuspicionMeasurement> suspicions = new LinkedList<>();
+    // Suspicions kept by the first-phase filter, per consensus id
+    private final TreeMap<Integer, ConsensusSuspicions> suspicions = new TreeMap<>();
+
+    // Consensus instances with suspicions that have not been populated into the graph yet
+    private final Set<ConsensusSuspicions> pending = new LinkedHashSet<>();
 
     private SuspicionGraph suspicionGraph;
 
-    // For cleaning up old suspicions perodically:
-    private int lastConsensusRemovedOldSuspicions = 0;
-    private int removedOldSuspicions = 0;
+    // Candidate set of the last query and the view it was computed for (null if the graph changed since then)
+    private Set<Integer> candidateSet;
+    private int candidateSetViewId = -1;
 
     private SuspicionMonitor(ServerViewController svc) {
         this.controller = svc;
@@ -49,9 +63,7 @@ public class SuspicionMonitor implements Monitor {
     public synchronized void notify(int reporter, byte[] measurement, int consensusInstance) {
 
         SuspicionMeasurement suspicion = SuspicionMeasurement.fromBytes(measurement, reporter);
-        synchronized (suspicions) {
-            suspicions.add(suspicion);
-        }
+        index(suspicion);
         if (suspicion.getSuspect() == controller.getStaticConf().getProcessId()) {
             logger.debug(">>SUSPICION Received: I was suspected by process: " + suspicion.getSuspect());
         }
@@ -70,14 +82,29 @@ public class SuspicionMonitor implements Monitor {
 
     }
 
+    /**
+     * Adds a suspicion to the index and applies the first-phase filter of its consensus instance
+     */
+    private void index(SuspicionMeasurement suspicion) {
+        ConsensusSuspicions consensus = suspicions.computeIfAbsent(suspicion.getConsensusID(),
+                ConsensusSuspicions::new);
+        if (consensus.add(suspicion)) {
+            pending.add(consensus);
+        }
+    }
+
+    /**
+     * Called at every calculation interval: populates the suspicions delivered so far and decays the suspicion graph to
+     * the given consensus instance, removing suspicions that are too old (see {@link SuspicionGraph#decay(int)}). Since
+     * this happens at the same point of the total order at all replicas, all replicas evict the same suspicions.
+     */
     public synchronized void notify(int consensusInstance) {
-        // Todo: Here we "clean up" the suspicion graph, by weakening and removing "old" suspicions
-        // Todo:  Replace later by a more refined implementation
-       // if ((consensusInstance - lastConsensusRemovedOldSuspicions) / 100 > removedOldSuspicions) {
-       //     suspicionGraph.removeSuspicions(0.1 * (consensusInstance - lastConsensusRemovedOldSuspicions));
-       //     removedOldSuspicions++;
-       //     lastConsensusRemovedOldSuspicions = consensusInstance;
-       // }
+        buildSuspicionGraph();
+        if (suspicionGraph.decay(consensusInstance)) {
+            candidateSet = null;
+            logger.debug(">> OptiLog > SuspicionMonitor: Evicted decayed suspicions at consensus {}, {} remaining",
+                    consensusInstance, suspicionGraph.size());
+        }
     }
 
     public synchronized boolean graphContainsSuspicion(int reporter, int suspect) {
@@ -86,67 +113,104 @@ public class SuspicionMonitor implements Monitor {
 
     public synchronized Set<Integer> computeCandidateSet() {
         buildSuspicionGraph();
-        return suspicionGraph.candidateSet();
+        int viewId = controller.getCurrentViewId();
+        if (candidateSet == null || candidateSetViewId != viewId) {
+            candidateSet = suspicionGraph.candidateSet();
+            candidateSetViewId = viewId;
+        }
+        return new LinkedHashSet<>(candidateSet);
     }
 
-    public void buildSuspicionGraph() {
-        List<SuspicionMeasurement> filteredSuspicions = new LinkedList<>();
-        synchronized (suspicions) {
-            Collections.sort(suspicions);
-            Map<Integer, List<SuspicionMeasurement>> consensusInstancesToSuspicions = new HashMap<>();
-
-            for (SuspicionMeasurement s : suspicions) {
-                int consensusID = s.getConsensusID();  // or s.consensusID if it's accessible
-                consensusInstancesToSuspicions.computeIfAbsent(consensusID, k -> new ArrayList<>()).add(s);
-            }
-
-            // boolean lastRoundWasDelayed=false; TODO
-            for (Map.Entry<Integer, List<SuspicionMeasurement>> consensus : consensusInstancesToSuspicions.entrySet()) {
-                Integer consensusID = consensus.getKey();
-                List<SuspicionMeasurement> suspicionsWithinInstance = consensus.getValue();
-
-                Collections.sort(suspicionsWithinInstance);
-                Map<Integer, List<SuspicionMeasurement>> phasesToSuspicions = new HashMap<>();
-                for (SuspicionMeasurement s : suspicionsWithinInstance) {
-                    char phase = s.getProtocolMessageType();
-                    phasesToSuspicions.computeIfAbsent(SuspicionMeasurement.protocolOrder(phase), k -> new ArrayList<>()).add(s);
-                }
-                boolean done = false;
-                for (Map.Entry<Integer, List<SuspicionMeasurement>> phase : phasesToSuspicions.entrySet()) {
-                    if (!done) {
-                        Integer phaseID = phase.getKey();
-                        List<SuspicionMeasurement> suspicionsWithinPhase = phase.getValue();
-                        if (!suspicionsWithinPhase.isEmpty()) {
-                            filteredSuspicions.addAll(suspicionsWithinPhase);
-                            done = true;
-                        }
-                    }
-                }
-            }
+    /**
+     * Populates the suspicions into the suspicion graph that passed the filter since the last call
+     */
+    public synchronized void buildSuspicionGraph() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<SuspicionMeasurement> filteredSuspicions = new ArrayList<>();
+        for (ConsensusSuspicions consensus : pending) {
+            consensus.drain(filteredSuspicions);
         }
+        pending.clear();
         suspicionGraph.populate(filteredSuspicions);
+        candidateSet = null;
     }
 
-    public List<SuspicionMeasurement> getSuspicions() {
-        return suspicions;
+    /**
+     * @return the suspicions that passed the filter and are not garbage collected yet, ordered by consensus id
+     */
+    public synchronized List<SuspicionMeasurement> getSuspicions() {
+        List<SuspicionMeasurement> result = new ArrayList<>();
+        for (ConsensusSuspicions consensus : suspicions.values()) {
+            result.addAll(consensus.firstPhase);
+        }
+        return result;
     }
 
     /**
      * Bounds memory consumption by garbage collecting old suspicions that have been populated into the suspicion graph
      * Important: This method does NOT remove suspicions from the suspicion graph
+     *
+     * @param index suspicions of consensus instances before this one are collected
+     * @return number of collected suspicions
      */
-    public int garbageCollect(int index) {
-        synchronized (suspicions) {
-            Collections.sort(suspicions);
-            int cutIndex = 0;
-            for (SuspicionMeasurement s : suspicions) {
-                if (s.getConsensusID() >= index) {
-                    break;
-                }
-                cutIndex++;
+    public synchronized int garbageCollect(int index) {
+        int collected = 0;
+        SortedMap<Integer, ConsensusSuspicions> old = suspicions.headMap(index);
+        for (ConsensusSuspicions consensus : old.values()) {
+            collected += consensus.received;
+            pending.remove(consensus);
+        }
+        old.clear();
+        return collected;
+    }
+
+    /**
+     * Suspicions of a single consensus instance
+     */
+    private static class ConsensusSuspicions {
+
+        final int consensusID;
+
+        // Earliest phase with suspicions (see SuspicionMeasurement.protocolOrder) and its suspicions
+        int phase = Integer.MAX_VALUE;
+        final List<SuspicionMeasurement> firstPhase = new ArrayList<>();
+
+        // Number of suspicions of the first phase that have already been populated into the graph
+        int populated = 0;
+
+        // Number of suspicions received for this instance, including filtered ones
+        int received = 0;
+
+        ConsensusSuspicions(int consensusID) {
+            this.consensusID = consensusID;
+        }
+
+        /**
+         * @return true if the suspicion passed the filter
+         */
+        boolean add(SuspicionMeasurement suspicion) {
+            received++;
+            int order = SuspicionMeasurement.protocolOrder(suspicion.getProtocolMessageType());
+            if (order > phase) {
+                return false;
+            }
+            if (order < phase) {
+                // An earlier phase replaces the suspicions of the later one that have not been populated yet;
+                // populated ones stay in the graph
+                phase = order;
+                firstPhase.clear();
+                populated = 0;
             }
-            suspicions.subList(0, cutIndex).clear();
-            return cutIndex;
+            firstPhase.add(suspicion);
+            return true;
+        }
+
+        // Adds the suspicions that have not been populated yet to the given list
+        void drain(List<SuspicionMeasurement> target) {
+            target.addAll(firstPhase.subList(populated, firstPhase.size()));
+            populated = firstPhase.size();
         }
     }
 
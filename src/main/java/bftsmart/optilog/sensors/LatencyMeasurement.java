@@ -3,44 +3,64 @@ package bftsmart.optilog.sensors;
 import bftsmart.optilog.monitors.LatencyMonitor;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Measurements that represent latency vectors Li = <l0, l1, .. ln-1> that replicas will invoke with total order
  * then use for optimizations...
+ * <p>
+ * Measurements are disseminated in a compact encoding (see {@link #toCompactBytes(int, long[], long[])}): latencies
+ * in microseconds as variable-length integers, relative to the last measurement of the same replica that was
+ * delivered (the base), and only for the entries that changed since, as marked in a bitmap. The base is identified by
+ * the consensus id it was delivered in, so all replicas decode a measurement against the same base. The legacy
+ * encoding of {@link #toBytes()} (fixed-size nanoseconds) is still decoded.
  */
 public class LatencyMeasurement {
 
+    // First byte of the compact encoding, the legacy encoding starts with the most significant byte of n, i.e., 0
+    private static final int COMPACT = 1;
+
+    // Base of a measurement that does not refer to a delivered one
+    public static final int NO_BASE = -1;
+
     public int n; // number of replicas
-    public Long[] writeLatencies;
-    public Long[] proposeLatencies;
+    public long[] writeLatencies;
+    public long[] proposeLatencies;
+    public String statistic = LatencyStatistic.MEDIAN.getName(); // how the latencies were computed from the samples
 
     public LatencyMeasurement() {
     }
 
-    public LatencyMeasurement(int n, Long[] writeLatencies, Long[] proposeLatencies) {
+    public LatencyMeasurement(int n, long[] writeLatencies, long[] proposeLatencies) {
         this.n = n;
         this.writeLatencies = writeLatencies;
         if (proposeLatencies != null) {
             this.proposeLatencies = proposeLatencies;
         } else {
-            this.proposeLatencies = new Long[n];
-            for (int i = 0; i < n; i++)
-                this.proposeLatencies[i] = LatencyMonitor.MISSING_VALUE;
+            this.proposeLatencies = new long[n];
+            Arrays.fill(this.proposeLatencies, LatencyMonitor.MISSING_VALUE);
         }
     }
 
+    public LatencyMeasurement(int n, long[] writeLatencies, long[] proposeLatencies, String statistic) {
+        this(n, writeLatencies, proposeLatencies);
+        this.statistic = statistic;
+    }
+
     public byte[] toBytes() {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
         try {
             dos.writeInt(n);
-            for (Long l : writeLatencies) {
+            for (long l : writeLatencies) {
                 dos.writeLong(l);
             }
-            for (Long l : proposeLatencies) {
+            for (long l : proposeLatencies) {
                 dos.writeLong(l);
             }
+            dos.writeUTF(statistic);
             dos.close();
         } catch (IOException e) {
             System.out.println("!!!!!!!!!!!!!!! Something went wrong " + e.getStackTrace());
@@ -48,18 +68,72 @@ public class LatencyMeasurement {
         return baos.toByteArray();
     }
 
+    /**
+     * Encodes this measurement relative to the last delivered measurement of the same replica. Latencies are rounded
+     * to microseconds. Without a base (or if its size differs), all latencies are encoded.
+     *
+     * @param baseConsensus consensus id in which the base was delivered, or {@link #NO_BASE}
+     * @param baseWrite     WRITE latencies of the base
+     * @param basePropose   PROPOSE latencies of the base
+     * @return the encoded measurement
+     */
+    public byte[] toCompactBytes(int baseConsensus, long[] baseWrite, long[] basePropose) {
+        boolean delta = baseConsensus != NO_BASE && baseWrite != null && baseWrite.length == n
+                && basePropose != null && basePropose.length == n;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 4 * n);
+        out.write(COMPACT);
+        writeVarint(out, n);
+        writeVarint(out, delta ? baseConsensus + 1L : 0L);
+        byte[] name = statistic.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, name.length);
+        out.write(name, 0, name.length);
+        writeVector(out, writeLatencies, delta ? baseWrite : null);
+        writeVector(out, proposeLatencies, delta ? basePropose : null);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks whether this measurement should be disseminated
+     *
+     * @param baseWrite   WRITE latencies of the last delivered measurement
+     * @param basePropose PROPOSE latencies of the last delivered measurement
+     * @param threshold   relative change of a latency (e.g., 0.05 = 5%) up to which it is considered unchanged, a
+     *                    negative value considers every measurement as changed
+     * @return true if a latency changed by more than the threshold
+     */
+    public boolean hasChanged(long[] baseWrite, long[] basePropose, double threshold) {
+        return threshold < 0 || baseWrite.length != n || basePropose.length != n
+                || differs(writeLatencies, baseWrite, threshold) || differs(proposeLatencies, basePropose, threshold);
+    }
+
+    private static boolean differs(long[] latencies, long[] base, double threshold) {
+        for (int i = 0; i < latencies.length; i++) {
+            if (Math.abs((double) latencies[i] - (double) base[i]) > threshold * Math.abs((double) base[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a measurement in the legacy encoding
+     *
+     * @param measurements encoded measurement
+     * @return the measurement
+     */
     public static LatencyMeasurement fromBytes(byte[] measurements) {
         int n = 0;
-        Long[] writeLatencies = new Long[0];
-        Long[] proposeLatencies = new Long[0];
+        long[] writeLatencies = new long[0];
+        long[] proposeLatencies = new long[0];
+        String statistic = LatencyStatistic.MEDIAN.getName();
 
         try (
                 ByteArrayInputStream bis = new ByteArrayInputStream(measurements);
                 DataInputStream dis = new DataInputStream(bis);
         ) {
             n = dis.readInt();
-            writeLatencies = new Long[n];
-            proposeLatencies = new Long[n];
+            writeLatencies = new long[n];
+            proposeLatencies = new long[n];
 
             for (int i = 0; i < n; i++) {
                 writeLatencies[i] = dis.readLong();
@@ -67,13 +141,119 @@ public class LatencyMeasurement {
             for (int i = 0; i < n; i++) {
                 proposeLatencies[i] = dis.readLong();
             }
+            // Measurements without a statistic were computed with the median
+            if (dis.available() > 0) {
+                statistic = dis.readUTF();
+            }
 
         } catch (IOException e) {
             System.out.println("!!!!!!!!!!!!!!! Something went wrong " + e.getStackTrace());
         }
 
-        return new LatencyMeasurement(n, writeLatencies, proposeLatencies);
+        return new LatencyMeasurement(n, writeLatencies, proposeLatencies, statistic);
     }
 
+    /**
+     * Decodes a measurement in the compact or the legacy encoding
+     *
+     * @param measurements  encoded measurement
+     * @param lastConsensus consensus id in which the last measurement of the sender was delivered, or {@link #NO_BASE}
+     * @param lastWrite     WRITE latencies of the last measurement of the sender
+     * @param lastPropose   PROPOSE latencies of the last measurement of the sender
+     * @return the measurement, or null if it is malformed or encoded relative to another base than the last measurement
+     */
+    public static LatencyMeasurement fromBytes(byte[] measurements, int lastConsensus, long[] lastWrite,
+                                               long[] lastPropose) {
+        if (measurements.length == 0 || measurements[0] != COMPACT) {
+            return fromBytes(measurements);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(measurements, 1, measurements.length - 1);
+        try {
+            int n = (int) readVarint(in);
+            long base = readVarint(in) - 1;
+            if (base != NO_BASE && (base != lastConsensus || lastWrite.length != n || lastPropose.length != n)) {
+                return null;
+            }
+            byte[] name = new byte[(int) readVarint(in)];
+            if (in.read(name, 0, name.length) != name.length) {
+                return null;
+            }
+            long[] writeLatencies = readVector(in, n, base != NO_BASE ? lastWrite : null);
+            long[] proposeLatencies = readVector(in, n, base != NO_BASE ? lastPropose : null);
+            return new LatencyMeasurement(n, writeLatencies, proposeLatencies,
+                    new String(name, StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
 
-}
\ No newline at end of file
+    // Bitmap of the entries that differ from the base (all entries without a base), followed by their differences
+    private static void writeVector(ByteArrayOutputStream out, long[] latencies, long[] base) {
+        byte[] bitmap = new byte[(latencies.length + 7) / 8];
+        for (int i = 0; i < latencies.length; i++) {
+            if (base == null || toMicros(latencies[i]) != toMicros(base[i])) {
+                bitmap[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.write(bitmap, 0, bitmap.length);
+        for (int i = 0; i < latencies.length; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                long previous = base != null ? toMicros(base[i]) : 0;
+                writeVarint(out, zigzag(toMicros(latencies[i]) - previous));
+            }
+        }
+    }
+
+    private static long[] readVector(ByteArrayInputStream in, int n, long[] base) throws IOException {
+        byte[] bitmap = new byte[(n + 7) / 8];
+        if (in.read(bitmap, 0, bitmap.length) != bitmap.length) {
+            throw new EOFException();
+        }
+        long[] latencies = new long[n];
+        for (int i = 0; i < n; i++) {
+            if ((bitmap[i >>> 3] & (1 << (i & 7))) != 0) {
+                long previous = base != null ? toMicros(base[i]) : 0;
+                latencies[i] = (previous + unzigzag(readVarint(in))) * 1000;
+            } else {
+                latencies[i] = base[i];
+            }
+        }
+        return latencies;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.floorDiv(nanos + 500, 1000);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Unsigned LEB128, 7 bits per byte
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteArrayInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -5,8 +5,6 @@ import bftsmart.reconfiguration.ServerViewController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
-
 /**
  * This class allows to store and receive a replica's own  monitoring information. Note that all measurement data in here
  * is viewed by the perspective of what a single replica has measured recently by itself without a guarantee to be synchronized yet
@@ -17,10 +15,10 @@ public class LatencySensor {
 
     private int window;
     private ServerViewController controller;
-    private TreeMap<Integer, Integer> sentMsgChallenges;
+    private final LatencyStatistic statistic;
 
-    private ArrayList<TreeMap<Integer, Long>> sentTimestamps;
-    private ArrayList<TreeMap<Integer, Long>> recvdTimestamps;
+    // One window per peer, each with its own lock, replaced on clear()
+    private volatile LatencyWindow[] peers;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -33,20 +31,26 @@ public class LatencySensor {
     public LatencySensor(ServerViewController controller) {
         this.window = controller.getStaticConf().getMonitoringWindow();
         this.controller = controller;
+        this.statistic = createStatistic(controller.getStaticConf().getLatencyStatistic());
         init();
     }
 
-    private synchronized void init() {
-        int n = controller.getCurrentViewN();
-        this.sentTimestamps = new ArrayList<>();
-        this.recvdTimestamps = new ArrayList<>();
+    private LatencyStatistic createStatistic(String name) {
+        try {
+            return LatencyStatistic.parse(name);
+        } catch (IllegalArgumentException e) {
+            logger.error("Unknown latency statistic " + name + ", using the median");
+            return LatencyStatistic.MEDIAN;
+        }
+    }
 
+    private void init() {
+        int n = controller.getCurrentViewN();
+        LatencyWindow[] peers = new LatencyWindow[n];
         for (int i = 0; i < n; i++) {
-            sentTimestamps.add(i, new TreeMap<>());
-            recvdTimestamps.add(i, new TreeMap<>());
-
+            peers[i] = new LatencyWindow(window);
         }
-        sentMsgChallenges = new TreeMap<>();  // Todo only in BFT
+        this.peers = peers;
     }
 
     /**
@@ -56,12 +60,8 @@ public class LatencySensor {
      * @param monitoringInstanceID id
      * @param timestamp            time
      */
-    public synchronized void addSentTime(int replicaID, int monitoringInstanceID, Long timestamp) {
-        // Clear old received timestamp from last monitoring window
-        Map<Integer, Long> lastWindowRcvd = recvdTimestamps.get(replicaID);
-        lastWindowRcvd.remove(monitoringInstanceID);
-
-        this.sentTimestamps.get(replicaID).put(monitoringInstanceID % window, timestamp);
+    public void addSentTime(int replicaID, int monitoringInstanceID, long timestamp) {
+        peers[replicaID].addSentTime(monitoringInstanceID, timestamp);
     }
 
     /**
@@ -71,10 +71,8 @@ public class LatencySensor {
      * @param monitoringInstanceID id
      * @param timestamp            time
      */
-    public synchronized void addSentTime(int replicaID, int monitoringInstanceID, Long timestamp, int challenge) {
-        this.addSentTime(replicaID, monitoringInstanceID, timestamp);
-
-        this.sentMsgChallenges.put(monitoringInstanceID % window, challenge);
+    public void addSentTime(int replicaID, int monitoringInstanceID, long timestamp, int challenge) {
+        peers[replicaID].addSentTime(monitoringInstanceID, timestamp, challenge);
     }
 
 
@@ -83,13 +81,10 @@ public class LatencySensor {
      *
      * @param replicaID            sender
      * @param monitoringInstanceID id
-     * @param timestamp            time
      */
-    public synchronized void addRecvdTime(int replicaID, int monitoringInstanceID) {
+    public void addRecvdTime(int replicaID, int monitoringInstanceID) {
         // Only add a response message timestamp if there is a corresponding sent message
-        if (this.sentTimestamps.get(replicaID).get(monitoringInstanceID % window) != null) { //
-            this.recvdTimestamps.get(replicaID).put(monitoringInstanceID % window, System.nanoTime());
-        }
+        peers[replicaID].addRecvdTime(monitoringInstanceID, System.nanoTime());
     }
 
     /**
@@ -97,81 +92,65 @@ public class LatencySensor {
      *
      * @param replicaID            sender
      * @param monitoringInstanceID id
-     * @param timestamp            time
      */
-    public synchronized void addRecvdTime(int replicaID, int monitoringInstanceID, int challenge) {
+    public void addRecvdTime(int replicaID, int monitoringInstanceID, int challenge) {
         // Only add a response message timestamp if there is a corresponding sent message AND challenge was included in response
-        Integer sentChallenge = this.sentMsgChallenges.get(monitoringInstanceID % window);
-        if (sentChallenge != null && sentChallenge == challenge) {
-            this.addRecvdTime(replicaID, monitoringInstanceID);
+        LatencyWindow peer = peers[replicaID];
+        if (peer.hasChallenge(monitoringInstanceID, challenge)) {
+            peer.addRecvdTime(monitoringInstanceID, System.nanoTime());
         } else {
-           logger.warn(challenge +" " +monitoringInstanceID  + " does not EQUAL Expected " + this.sentMsgChallenges.get(monitoringInstanceID % window));
+           logger.warn(challenge +" " +monitoringInstanceID  + " does not EQUAL Expected " + peer.getChallenge(monitoringInstanceID));
            // should never reach here?
         }
     }
 
     /**
-     * Creates a latency vector from the current replicas perspective
+     * Creates a latency vector from the current replicas perspective: the configured statistic (e.g., the median) of
+     * the latencies measured to every replica within the monitoring window
      *
      * @return latencies to all other nodes
      */
-    public synchronized Long[] create_L(String description) {
+    public long[] create_L(String description) {
         long start = System.nanoTime();
+        LatencyWindow[] peers = this.peers;
         int n = controller.getCurrentViewN();
 
         // Initialize latency vector (current replica's perspective of other nodes latencies
-        Long[] latency_vector = new Long[n];
+        long[] latency_vector = new long[n];
         int myself = controller.getStaticConf().getProcessId();
 
         // Compute latencies to all other nodes
         for (int i = 0; i < n; i++) {
-
-            // within monitoring interval [start = lastQuery; end = lastQuery + window]
-            Map<Integer, Long> replicaRecvdTimes = recvdTimestamps.get(i).subMap(0, window); // Todo should not be necessary anymore?
-            Map<Integer, Long> replicaSentTimes = sentTimestamps.get(i).subMap(0, window);
-
-            ArrayList<Long> latencies = new ArrayList<>();
-            for (Integer monitoringInstance : replicaRecvdTimes.keySet()) {
-                Long rcvd = replicaRecvdTimes.get(monitoringInstance);
-                Long sent = replicaSentTimes.get(monitoringInstance);
-                if (rcvd != null) {
-                    long latency = (rcvd - sent) / 2; // one-way latency as half of round trip time
-                    // logger.info("Latency computed " + (double) Math.round((double) latency / 1000) / 1000.00 + " ms");
-                    latencies.add(latency);
-                } else {
-                    logger.debug("OptiLog >> LatencySensor: Only SENT but no received Timestamp");
-                }
-            }
-            latencies.sort(Comparator.naturalOrder());
             // If there are not latencies (e.g. a replica crashed) report with -1 (Failure value)
-            Long medianValue = latencies.size() > 0 ? latencies.get(latencies.size() / 2) : LatencyMonitor.MISSING_VALUE;
-            latency_vector[i] = medianValue;
-            // logger.info("-- Size of " + replicaRecvdTimes.size());
+            latency_vector[i] = i < peers.length ? statistic.estimate(peers[i], LatencyMonitor.MISSING_VALUE)
+                    : LatencyMonitor.MISSING_VALUE;
         }
         // Assume self-latency is zero
         latency_vector[myself] = 0L;
         // printLatencyVector(latenciesToMillis(latency_vector));
 
         long end = System.nanoTime();
-        logger.debug("Computed median latencies for " + description + "  in " + (double) (end - start) / 1000000.00 + " ms");
+        logger.debug("Computed " + statistic + " latencies for " + description + "  in " + (double) (end - start) / 1000000.00 + " ms");
 
         // printLatencyVector(latenciesToMillis(latency_vector), description);
         return latency_vector;
     }
 
     /**
-     * Clears timestamps
+     * @return statistic of the latencies reported by {@link #create_L(String)}
      */
-    public synchronized void clear() {
-        sentTimestamps.clear();
-        recvdTimestamps.clear();
-        if (sentMsgChallenges != null)
-            sentMsgChallenges.clear();
+    public LatencyStatistic getStatistic() {
+        return statistic;
+    }
 
+    /**
+     * Clears timestamps
+     */
+    public void clear() {
         init();
     }
 
-    public static double[] latenciesToMillis(Long[] m) {
+    public static double[] latenciesToMillis(long[] m) {
         double[] latencies = new double[m.length];
         for (int i = 0; i < m.length; i++) {
             double latency = Math.round((double) m[i] / 1000.00); // round to precision of micro seconds
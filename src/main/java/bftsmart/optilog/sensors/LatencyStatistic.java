@@ -0,0 +1,136 @@
+package bftsmart.optilog.sensors;
+
+import java.util.Locale;
+
+/**
+ * Statistic that summarizes the latencies a replica measured to a peer within the monitoring window into the single
+ * latency it disseminates (see {@link LatencySensor#create_L(String)}), and that the simulator thus predicts with. The
+ * median is robust against outliers, a high percentile (e.g., p90) lets AWARE optimize for the tail latency of links,
+ * and an exponentially weighted moving average reacts faster to changing latencies.
+ * <p>
+ * A statistic is configured with system.aware.latencyStatistic and described by its name, which is carried in every
+ * {@link LatencyMeasurement}:
+ * <ul>
+ * <li>median</li>
+ * <li>p&lt;percentile&gt;, e.g., p90 or p99.9</li>
+ * <li>ewma[:alpha], e.g., ewma:0.5, weight of the most recent latency (default 0.25)</li>
+ * <li>trimmedMean[:fraction], e.g., trimmedMean:0.05, fraction trimmed at each end (default 0.1)</li>
+ * </ul>
+ *
+ * @author cb
+ */
+public abstract class LatencyStatistic {
+
+    public static final double DEFAULT_EWMA_ALPHA = 0.25;
+    public static final double DEFAULT_TRIM_FRACTION = 0.1;
+
+    public static final LatencyStatistic MEDIAN = new Percentile("median", 0.5);
+
+    private final String name;
+
+    private LatencyStatistic(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a statistic from its name
+     *
+     * @param name name, see above
+     * @return the statistic
+     * @throws IllegalArgumentException if the name does not describe a statistic
+     */
+    public static LatencyStatistic parse(String name) {
+        String spec = name.trim();
+        String lower = spec.toLowerCase(Locale.ROOT);
+        try {
+            if (lower.equals("median")) {
+                return MEDIAN;
+            }
+            if (lower.startsWith("p")) {
+                double percentile = Double.parseDouble(spec.substring(1));
+                if (percentile >= 0 && percentile <= 100) {
+                    return new Percentile(spec, percentile / 100);
+                }
+            }
+            if (lower.equals("ewma") || lower.startsWith("ewma:")) {
+                double alpha = lower.equals("ewma") ? DEFAULT_EWMA_ALPHA : Double.parseDouble(spec.substring(5));
+                if (alpha > 0 && alpha <= 1) {
+                    return new Ewma(spec, alpha);
+                }
+            }
+            if (lower.equals("trimmedmean") || lower.startsWith("trimmedmean:")) {
+                double fraction = lower.equals("trimmedmean") ? DEFAULT_TRIM_FRACTION
+                        : Double.parseDouble(spec.substring(12));
+                if (fraction >= 0 && fraction < 0.5) {
+                    return new TrimmedMean(spec, fraction);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException("Unknown latency statistic: " + name);
+    }
+
+    /**
+     * Summarizes the latencies measured to a peer
+     *
+     * @param window  latencies measured to the peer
+     * @param missing value returned if no latency was measured
+     * @return the latency to the peer
+     */
+    public abstract long estimate(LatencyWindow window, long missing);
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Percentile extends LatencyStatistic {
+
+        private final double quantile;
+
+        Percentile(String name, double quantile) {
+            super(name);
+            this.quantile = quantile;
+        }
+
+        @Override
+        public long estimate(LatencyWindow window, long missing) {
+            return window.quantile(quantile, missing);
+        }
+    }
+
+    private static final class Ewma extends LatencyStatistic {
+
+        private final double alpha;
+
+        Ewma(String name, double alpha) {
+            super(name);
+            this.alpha = alpha;
+        }
+
+        @Override
+        public long estimate(LatencyWindow window, long missing) {
+            return window.ewma(alpha, missing);
+        }
+    }
+
+    private static final class TrimmedMean extends LatencyStatistic {
+
+        private final double fraction;
+
+        TrimmedMean(String name, double fraction) {
+            super(name);
+            this.fraction = fraction;
+        }
+
+        @Override
+        public long estimate(LatencyWindow window, long missing) {
+            return window.trimmedMean(fraction, missing);
+        }
+    }
+}
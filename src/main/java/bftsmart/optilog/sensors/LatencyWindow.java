@@ -0,0 +1,182 @@
+package bftsmart.optilog.sensors;
+
+import java.util.Arrays;
+
+/**
+ * The latencies a replica measured to one peer within the monitoring window. Monitoring instance i uses slot
+ * i % window, so the window holds at most one latency per slot, that of the latest monitoring instance sent in it.
+ * <p>
+ * Besides the latency per slot, the window keeps all measured latencies in a sorted array that is updated on every
+ * measurement (binary search and a shift of at most window entries). Recording a measurement therefore does not
+ * allocate, and the median or any other quantile is read in constant time instead of sorting all latencies on every
+ * query.
+ * <p>
+ * Thread-safe: the communication layer records measurements of different peers concurrently, every window is guarded
+ * by its own lock.
+ *
+ * @author cb
+ * @see LatencyStatistic
+ */
+public class LatencyWindow {
+
+    // Marks a slot without a challenge, challenges are ints
+    private static final long NO_CHALLENGE = Long.MIN_VALUE;
+
+    private final int window;
+
+    // Per slot: sent timestamp, challenge and measured latency of the latest monitoring instance
+    private final long[] sentTimes;
+    private final boolean[] sent;
+    private final long[] challenges;
+    private final long[] latencies;
+    private final boolean[] measured;
+
+    // All measured latencies in ascending order, the first count entries are valid
+    private final long[] sorted;
+    private int count = 0;
+
+    // Latest monitoring instance sent, the slots hold the instances up to window - 1 before it
+    private int newestInstance = -1;
+
+    public LatencyWindow(int window) {
+        this.window = window;
+        this.sentTimes = new long[window];
+        this.sent = new boolean[window];
+        this.challenges = new long[window];
+        this.latencies = new long[window];
+        this.measured = new boolean[window];
+        this.sorted = new long[window];
+        Arrays.fill(challenges, NO_CHALLENGE);
+    }
+
+    /**
+     * Records that a monitoring message was sent, replacing the measurement of the monitoring instance that used the
+     * same slot before
+     *
+     * @param monitoringInstanceID id
+     * @param timestamp            time
+     */
+    public synchronized void addSentTime(int monitoringInstanceID, long timestamp) {
+        int slot = monitoringInstanceID % window;
+        newestInstance = Math.max(newestInstance, monitoringInstanceID);
+        if (measured[slot]) {
+            remove(latencies[slot]);
+            measured[slot] = false;
+        }
+        sentTimes[slot] = timestamp;
+        sent[slot] = true;
+    }
+
+    public synchronized void addSentTime(int monitoringInstanceID, long timestamp, int challenge) {
+        addSentTime(monitoringInstanceID, timestamp);
+        challenges[monitoringInstanceID % window] = challenge;
+    }
+
+    /**
+     * Records the response to a monitoring message, if the message was sent
+     *
+     * @param monitoringInstanceID id
+     * @param timestamp            time
+     */
+    public synchronized void addRecvdTime(int monitoringInstanceID, long timestamp) {
+        int slot = monitoringInstanceID % window;
+        if (!sent[slot]) {
+            return;
+        }
+        if (measured[slot]) {
+            remove(latencies[slot]);
+        }
+        long latency = (timestamp - sentTimes[slot]) / 2; // one-way latency as half of round trip time
+        latencies[slot] = latency;
+        measured[slot] = true;
+        insert(latency);
+    }
+
+    /**
+     * @return true if a message with the given challenge was sent in the slot of the monitoring instance
+     */
+    public synchronized boolean hasChallenge(int monitoringInstanceID, int challenge) {
+        return challenges[monitoringInstanceID % window] == challenge;
+    }
+
+    /**
+     * @return challenge of the message sent in the slot of the monitoring instance, null if there is none
+     */
+    public synchronized Integer getChallenge(int monitoringInstanceID) {
+        long challenge = challenges[monitoringInstanceID % window];
+        return challenge != NO_CHALLENGE ? (int) challenge : null;
+    }
+
+    /**
+     * @param q       quantile in [0, 1], e.g., 0.5 for the median
+     * @param missing value returned if no latency was measured
+     * @return the latency at rank floor(q * count) among the measured latencies, or the given default if there are none
+     */
+    public synchronized long quantile(double q, long missing) {
+        if (count == 0) {
+            return missing;
+        }
+        return sorted[Math.min(count - 1, (int) (q * count))];
+    }
+
+    /**
+     * Mean of the measured latencies without the given fraction of the smallest and of the largest ones
+     *
+     * @param fraction fraction in [0, 0.5) trimmed at each end
+     * @param missing  value returned if no latency was measured
+     * @return the trimmed mean
+     */
+    public synchronized long trimmedMean(double fraction, long missing) {
+        if (count == 0) {
+            return missing;
+        }
+        int trim = Math.min((count - 1) / 2, (int) (fraction * count));
+        long sum = 0;
+        for (int i = trim; i < count - trim; i++) {
+            sum += sorted[i];
+        }
+        return sum / (count - 2 * trim);
+    }
+
+    /**
+     * Exponentially weighted moving average of the measured latencies in the order of their monitoring instances, so
+     * recent latencies weigh more than old ones
+     *
+     * @param alpha   weight of the most recent latency in (0, 1]
+     * @param missing value returned if no latency was measured
+     * @return the moving average
+     */
+    public synchronized long ewma(double alpha, long missing) {
+        if (count == 0) {
+            return missing;
+        }
+        double average = Double.NaN;
+        for (int instance = Math.max(0, newestInstance - window + 1); instance <= newestInstance; instance++) {
+            int slot = instance % window;
+            if (measured[slot]) {
+                average = Double.isNaN(average) ? latencies[slot] : alpha * latencies[slot] + (1 - alpha) * average;
+            }
+        }
+        return Math.round(average);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private void insert(long latency) {
+        int index = Arrays.binarySearch(sorted, 0, count, latency);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        System.arraycopy(sorted, index, sorted, index + 1, count - index);
+        sorted[index] = latency;
+        count++;
+    }
+
+    private void remove(long latency) {
+        int index = Arrays.binarySearch(sorted, 0, count, latency);
+        System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+        count--;
+    }
+}
@@ -16,10 +16,8 @@ limitations under the License.
 package bftsmart.reconfiguration;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -27,6 +25,7 @@ import java.util.StringTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bftsmart.communication.MessageCodec;
 import bftsmart.communication.server.ServerConnection;
 import bftsmart.reconfiguration.views.View;
 import bftsmart.tom.util.KeyLoader;
@@ -126,16 +125,15 @@ public class ViewManager {
     }
 
     public void sendResponse(Integer[] targets, VMMessage sm) {
-        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        byte[] data;
 
         try {
-            new ObjectOutputStream(bOut).writeObject(sm);
+            data = MessageCodec.encode(sm);
         } catch (IOException ex) {
             logger.error("Could not serialize message", ex);
+            return;
         }
 
-        byte[] data = bOut.toByteArray();
-
         for (Integer i : targets) {
             try {
                 if (i.intValue() != id) {
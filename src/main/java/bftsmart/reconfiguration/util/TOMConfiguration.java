@@ -40,6 +40,11 @@ public class TOMConfiguration extends Configuration {
     protected int outQueueSize;
     protected boolean shutdownHookEnabled;
     protected boolean useSenderThread;
+    private String serverTransport;
+    private int serverTransportThreads;
+    private int coalesceBytes;
+    private int coalesceLingerMicros;
+    private int inboundWorkers;
     private int numNIOThreads;
     private int useSignatures;
     private boolean stateTransferEnabled;
@@ -83,17 +88,32 @@ public class TOMConfiguration extends Configuration {
     private int calculationDelay;
     private double monitoringOverhead;
     private double optimizationGoal;
+    private int searchParallelism;
+    private boolean useSearchPruning;
+    private boolean computeMedian;
+    private boolean incrementalReoptimization;
+    private String searchStrategy;
+    private int annealingChains;
+    private double searchBudget;
+    private double searchRate;
+    private int optimizerThreads;
+    private int optimizerPriority;
 
     // AWARE messages
     private boolean useDummyPropose;
     private boolean useProposeResponse;
     private boolean useWriteResponse;
     private int monitoringWindow;
+    private String latencyStatistic;
     private int synchronisationPeriod;
     private int synchronisationDelay;
+    private double disseminationThreshold;
+    private int fullDisseminationPeriod;
 
     // OptiLog
     private double suspicionDelta;
+    private int suspicionHalfLife;
+    private double suspicionThreshold;
 
 
     /** Creates a new instance of TOMConfiguration */
@@ -226,6 +246,41 @@ public class TOMConfiguration extends Configuration {
                 useSenderThread = Boolean.parseBoolean(s);
             }
 
+            s = (String) configs.remove("system.communication.serverTransport");
+            if (s == null) {
+                serverTransport = "socket";
+            } else {
+                serverTransport = s.trim().equalsIgnoreCase("netty") ? "netty" : "socket";
+            }
+
+            s = (String) configs.remove("system.communication.serverTransportThreads");
+            if (s == null) {
+                serverTransportThreads = 0;
+            } else {
+                serverTransportThreads = Integer.parseInt(s);
+            }
+
+            s = (String) configs.remove("system.communication.coalesceBytes");
+            if (s == null) {
+                coalesceBytes = 65536;
+            } else {
+                coalesceBytes = Math.max(Integer.parseInt(s), 16);
+            }
+
+            s = (String) configs.remove("system.communication.coalesceLingerMicros");
+            if (s == null) {
+                coalesceLingerMicros = 0;
+            } else {
+                coalesceLingerMicros = Math.max(Integer.parseInt(s), 0);
+            }
+
+            s = (String) configs.remove("system.communication.inboundWorkers");
+            if (s == null) {
+                inboundWorkers = 0;
+            } else {
+                inboundWorkers = Math.max(Integer.parseInt(s), 0);
+            }
+
             s = (String) configs.remove("system.communication.numNIOThreads");
             if (s == null) {
                 numNIOThreads = 2;
@@ -423,6 +478,9 @@ public class TOMConfiguration extends Configuration {
             s = (String) configs.remove("system.aware.monitoringWindow");
             monitoringWindow = s != null ? Integer.parseInt(s) : 0;
 
+            s = (String) configs.remove("system.aware.latencyStatistic");
+            latencyStatistic = s != null ? s.trim() : "median";
+
             s = (String) configs.remove("system.aware.useDynamicWeights");
             useDynamicWeights =  s != null ? Boolean.parseBoolean(s) : false;
 
@@ -441,6 +499,36 @@ public class TOMConfiguration extends Configuration {
             s = (String) configs.remove("system.aware.optimizationGoal");
             optimizationGoal = s != null ? Double.parseDouble(s) : 1.05;
 
+            s = (String) configs.remove("system.aware.searchParallelism");
+            searchParallelism = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.searchPruning");
+            useSearchPruning = s != null ? Boolean.parseBoolean(s) : true;
+
+            s = (String) configs.remove("system.aware.computeMedian");
+            computeMedian = s != null && Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.incrementalReoptimization");
+            incrementalReoptimization = s != null && Boolean.parseBoolean(s);
+
+            s = (String) configs.remove("system.aware.searchStrategy");
+            searchStrategy = s != null ? s.trim() : "auto";
+
+            s = (String) configs.remove("system.aware.annealingChains");
+            annealingChains = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.searchBudget");
+            searchBudget = s != null ? Double.parseDouble(s) : 0;
+
+            s = (String) configs.remove("system.aware.searchRate");
+            searchRate = s != null ? Double.parseDouble(s) : 1;
+
+            s = (String) configs.remove("system.aware.optimizerThreads");
+            optimizerThreads = s != null ? Integer.parseInt(s) : 1;
+
+            s = (String) configs.remove("system.aware.optimizerPriority");
+            optimizerPriority = s != null ? Integer.parseInt(s) : Thread.NORM_PRIORITY - 2;
+
             s = (String) configs.remove("system.aware.useDummyPropose");
             useDummyPropose = s != null ? Boolean.parseBoolean(s) : false;
 
@@ -456,9 +544,21 @@ public class TOMConfiguration extends Configuration {
             s = (String) configs.remove("system.aware.synchronisationDelay");
             synchronisationDelay = s != null ? Integer.parseInt(s) : 120000;
 
+            s = (String) configs.remove("system.aware.disseminationThreshold");
+            disseminationThreshold = s != null ? Double.parseDouble(s) : -1.0;
+
+            s = (String) configs.remove("system.aware.fullDisseminationPeriod");
+            fullDisseminationPeriod = s != null ? Integer.parseInt(s) : 10;
+
             s = (String) configs.remove("system.optilog.suspicionDelta");
             suspicionDelta = s != null ? Double.parseDouble(s) : 1.2;
 
+            s = (String) configs.remove("system.optilog.suspicionHalfLife");
+            suspicionHalfLife = s != null ? Integer.parseInt(s) : 2000;
+
+            s = (String) configs.remove("system.optilog.suspicionThreshold");
+            suspicionThreshold = s != null ? Double.parseDouble(s) : 0.5;
+
             /**
              * Tulio Ribeiro
              *
@@ -606,6 +706,46 @@ public class TOMConfiguration extends Configuration {
         return useSenderThread;
     }
 
+    /**
+     * Transport between replicas: socket (blocking sockets with threads per replica) or netty (event loops)
+     */
+    public String getServerTransport() {
+        return serverTransport;
+    }
+
+    public boolean isNettyServerTransport() {
+        return serverTransport.equals("netty");
+    }
+
+    /**
+     * Event loop threads of the netty server transport, 0 for the Netty default
+     */
+    public int getServerTransportThreads() {
+        return serverTransportThreads;
+    }
+
+    /**
+     * Bytes of queued messages the sender thread of a replica connection writes at once
+     */
+    public int getCoalesceBytes() {
+        return coalesceBytes;
+    }
+
+    /**
+     * Microseconds the sender thread of a replica connection waits for more messages before writing
+     */
+    public int getCoalesceLingerMicros() {
+        return coalesceLingerMicros;
+    }
+
+    /**
+     * Threads that prepare received PROPOSE messages before they are handed to the acceptor, 0 to process all
+     * received messages in the communication thread
+     */
+    public int getInboundWorkers() {
+        return inboundWorkers;
+    }
+
     /**
      * *
      */
@@ -779,6 +919,10 @@ public class TOMConfiguration extends Configuration {
         return this.monitoringWindow;
     }
 
+    public String getLatencyStatistic() {
+        return latencyStatistic;
+    }
+
     public boolean isUseLeaderSelection() {
         return useLeaderSelection;
     }
@@ -791,6 +935,46 @@ public class TOMConfiguration extends Configuration {
         this.optimizationGoal = optimizationGoal;
     }
 
+    public int getSearchParallelism() {
+        return searchParallelism;
+    }
+
+    public boolean isUseSearchPruning() {
+        return useSearchPruning;
+    }
+
+    public boolean isComputeMedian() {
+        return computeMedian;
+    }
+
+    public boolean isIncrementalReoptimization() {
+        return incrementalReoptimization;
+    }
+
+    public String getSearchStrategy() {
+        return searchStrategy;
+    }
+
+    public int getAnnealingChains() {
+        return annealingChains;
+    }
+
+    public double getSearchBudget() {
+        return searchBudget;
+    }
+
+    public double getSearchRate() {
+        return searchRate;
+    }
+
+    public int getOptimizerThreads() {
+        return optimizerThreads;
+    }
+
+    public int getOptimizerPriority() {
+        return optimizerPriority;
+    }
+
     public int getSynchronisationPeriod() {
         return synchronisationPeriod;
     }
@@ -807,8 +991,24 @@ public class TOMConfiguration extends Configuration {
         this.synchronisationDelay = synchronisationDelay;
     }
 
+    public double getDisseminationThreshold() {
+        return disseminationThreshold;
+    }
+
+    public int getFullDisseminationPeriod() {
+        return fullDisseminationPeriod;
+    }
+
     public double getSuspicionDelta() {
         return suspicionDelta;
     }
 
+    public int getSuspicionHalfLife() {
+        return suspicionHalfLife;
+    }
+
+    public double getSuspicionThreshold() {
+        return suspicionThreshold;
+    }
+
 }
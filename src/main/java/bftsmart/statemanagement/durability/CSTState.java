@@ -23,6 +23,7 @@ import bftsmart.tom.leaderchange.CertifiedDecision;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.util.BatchBuilder;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Set;
 
@@ -119,9 +120,9 @@ public class CSTState implements ApplicationState {
                 
             }
             
-            //Serialize the TOMMessages to re-create the proposed value
+            //Serialize the TOMMessages and the measurements to re-create the proposed value
             BatchBuilder bb = new BatchBuilder(0);
-            byte[] value = bb.makeBatch(requests, ci.msgCtx[0].getNumOfNonces(),
+            byte[] value = bb.makeBatch(requests, Arrays.asList(ci.msgCtx[0].getMeasurements()), ci.msgCtx[0].getNumOfNonces(),
                     ci.msgCtx[0].getSeed(), ci.msgCtx[0].getTimestamp(), controller.getStaticConf().getUseSignatures() == 1);
             
             //Assemble and return the certified decision
@@ -16,6 +16,7 @@ limitations under the License.
 package bftsmart.tom;
 
 import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.core.messages.TOMMessageType;
 
@@ -51,6 +52,7 @@ public class MessageContext implements Serializable {
     private final int numOfNonces;
     private final long seed;
     private final Set<ConsensusMessage> proof;
+    private MeasurementMessage[] measurements; // OptiLog measurements the leader piggybacked in the batch
                 
     private final TOMMessage firstInBatch; //to be replaced by a statistics class
     private boolean lastInBatch; // indicates that the command is the last in the batch. Used for logging
@@ -252,6 +254,18 @@ public class MessageContext implements Serializable {
     public Set<ConsensusMessage> getProof() {
         return proof;
     }
+
+    /**
+     * Returns the OptiLog measurements of the batch, which are part of the proposed value.
+     * @return The measurements of the batch
+     */
+    public MeasurementMessage[] getMeasurements() {
+        return measurements != null ? measurements : new MeasurementMessage[0];
+    }
+
+    public void setMeasurements(MeasurementMessage[] measurements) {
+        this.measurements = measurements;
+    }
     
     /**
      * Returns the current regency in which the message was ordered.
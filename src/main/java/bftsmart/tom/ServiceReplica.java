@@ -23,6 +23,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import bftsmart.communication.ServerCommunicationSystem;
 import bftsmart.aware.decisions.AwareController;
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.optilog.monitors.LatencyMonitor;
 import bftsmart.tom.core.ExecutionManager;
 import bftsmart.consensus.messages.MessageFactory;
@@ -44,6 +45,7 @@ import bftsmart.tom.server.RequestVerifier;
 import bftsmart.tom.server.SingleExecutable;
 
 import bftsmart.tom.server.defaultservices.DefaultReplier;
+import bftsmart.tom.util.BatchReader;
 import bftsmart.tom.util.KeyLoader;
 import bftsmart.tom.util.ShutdownHookThread;
 import bftsmart.tom.util.TOMUtil;
@@ -284,6 +286,20 @@ public class ServiceReplica {
         t.start();
     }
 
+    /**
+     * OptiLog: the measurements the leader piggybacked in a batch are part of the decided value, so they are passed to
+     * the recoverer with the requests, which allows to re-create the value for state transfer
+     */
+    private MeasurementMessage[] measurementsOf(CertifiedDecision cDec) {
+        try {
+            return new BatchReader(cDec.getDecision(), SVController.getStaticConf().getUseSignatures() == 1)
+                    .deserialiseMeasurements();
+        } catch (IllegalArgumentException e) {
+            logger.error("Decision " + cDec.getCID() + " contains malformed measurements", e);
+            return new MeasurementMessage[0];
+        }
+    }
+
     public void receiveMessages(int consId[], int regencies[], int leaders[], CertifiedDecision[] cDecs,
             TOMMessage[][] requests) {
 
@@ -299,6 +315,7 @@ public class ServiceReplica {
             if (requestsFromConsensus.length == 0) continue;
 
             TOMMessage firstRequest = requestsFromConsensus[0];
+            MeasurementMessage[] measurements = measurementsOf(cDecs[consensusCount]);
             int requestCount = 0;
             noop = true;
             for (TOMMessage request : requestsFromConsensus) {
@@ -325,6 +342,7 @@ public class ServiceReplica {
                                     request.numOfNonces, request.seed, regencies[consensusCount], leaders[consensusCount],
                                     consId[consensusCount], cDecs[consensusCount].getConsMessages(), firstRequest, false,
                                     request.getIsMonitoringMessage());
+                            msgCtx.setMeasurements(measurements);
                             if (requestCount + 1 == requestsFromConsensus.length) {
 
                                 msgCtx.setLastInBatch();
@@ -412,6 +430,7 @@ public class ServiceReplica {
                                 m.numOfNonces, m.seed, regencies[consensusCount], leaders[consensusCount],
                                 consId[consensusCount], cDecs[consensusCount].getConsMessages(), firstRequest, true, m.getIsMonitoringMessage());
                         msgCtx[line].setLastInBatch();
+                        msgCtx[line].setMeasurements(measurements);
 
                         line++;
                     }
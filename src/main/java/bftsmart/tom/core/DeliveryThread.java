@@ -246,7 +246,8 @@ public final class DeliveryThread extends Thread {
                     init = false;
 					/** OptiLog **/
 					if (controller != null) {
-						SensorApp.getInstance(controller).start();
+						SensorApp.getInstance(controller).start(tomLayer.getCommunication(),
+								tomLayer.execManager.getCurrentLeader());
 					}
 					else {
 						logger.error("SeverViewController is null! Exiting");
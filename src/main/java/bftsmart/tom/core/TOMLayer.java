@@ -25,6 +25,8 @@ import bftsmart.consensus.Consensus;
 import bftsmart.consensus.Decision;
 import bftsmart.consensus.Epoch;
 import bftsmart.consensus.roles.Acceptor;
+import bftsmart.optilog.MeasurementPool;
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.optilog.messages.MonitoringMessageFactory;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.statemanagement.StateManager;
@@ -44,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.security.*;
 import java.util.HashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -426,9 +429,13 @@ public final class TOMLayer extends Thread implements RequestReceiver {
         }
         dec.batchSize = numberOfMessages;
 
-        logger.debug("Creating a PROPOSE with " + numberOfMessages + " msgs");
+        // OptiLog: piggyback the measurements the replicas of the current view handed to this leader
+        List<MeasurementMessage> measurements = MeasurementPool.getInstance(controller).drain();
+        measurements.removeIf(measurement -> !controller.isCurrentViewMember(measurement.getSender()));
 
-        return bb.makeBatch(pendingRequests, numberOfNonces, System.currentTimeMillis(), controller.getStaticConf().getUseSignatures() == 1);
+        logger.debug("Creating a PROPOSE with " + numberOfMessages + " msgs and " + measurements.size() + " measurements");
+
+        return bb.makeBatch(pendingRequests, measurements, numberOfNonces, System.currentTimeMillis(), controller.getStaticConf().getUseSignatures() == 1);
     }
 
 
@@ -572,6 +579,18 @@ public final class TOMLayer extends Thread implements RequestReceiver {
      * @return Valid messages contained in the proposed value
      */
     public TOMMessage[] checkProposedValue(byte[] proposedValue, boolean addToClientManager) {
+        return checkProposedValue(proposedValue, null, addToClientManager);
+    }
+
+    /**
+     * Checks a proposed value whose requests may have been deserialized already
+     *
+     * @param proposedValue      the proposed value
+     * @param requests           the requests of the value, or null to deserialize them
+     * @param addToClientManager whether the requests are validated and added to the client manager
+     * @return the requests, or null if the value is invalid
+     */
+    public TOMMessage[] checkProposedValue(byte[] proposedValue, TOMMessage[] requests, boolean addToClientManager) {
 
         try {
 
@@ -579,11 +598,14 @@ public final class TOMLayer extends Thread implements RequestReceiver {
 
             BatchReader batchReader = new BatchReader(proposedValue, this.controller.getStaticConf().getUseSignatures() == 1);
 
-            TOMMessage[] requests;
-
             // deserialize the message
             // TODO: verify Timestamps and Nonces
-            requests = batchReader.deserialiseRequests(this.controller);
+            if (requests == null) {
+                requests = batchReader.deserialiseRequests(this.controller);
+            }
+
+            // OptiLog: the measurement section must be well-formed, invalid measurements are skipped on delivery
+            batchReader.deserialiseMeasurements();
 
             if (addToClientManager) {
 
@@ -815,6 +815,7 @@ public class LCManager {
             ConsensusMessage cm = new ConsensusMessage(consMsg.getType(),consMsg.getNumber(),
                     consMsg.getEpoch(), consMsg.getSender(), consMsg.getValue());
 
+            // Proofs are computed over the Java serialization of the message, independent of the wire format
             ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
             try {
                 new ObjectOutputStream(bOut).writeObject(cm);
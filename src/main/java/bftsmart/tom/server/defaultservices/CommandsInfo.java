@@ -53,6 +53,7 @@ public class CommandsInfo implements Serializable {
                             msgCtx[i].getConsensusId(), msgCtx[i].getProof(),
                             msgCtx[i].getFirstInBatch(), msgCtx[i].isNoOp(),
                             msgCtx[i].isMonitoringMessage());
+                    msg.setMeasurements(msgCtx[i].getMeasurements());
                     onlyNeeded[i] = msg;
         	}
         }
@@ -16,9 +16,11 @@ limitations under the License.
 package bftsmart.tom.util;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.core.messages.TOMMessage;
 
@@ -28,7 +30,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Batch format: TIMESTAMP(long) + N_NONCES(int) + SEED(long) +
  *               N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte),SIG(byte)] +
+ *               N_MEASUREMENTS(int) + N_MEASUREMENTS*[SENDER(int),TYPE(int),SESSION(int),SEQUENCE(int),
+ *                                                     SIZE(int),MEASUREMENT(byte),SIGSIZE(int),SIG(byte)]
  *
+ * The measurement section carries the OptiLog measurements the leader received from the replicas, each signed by
+ * the replica that measured it.
  *
  * The methods does not try to enforce any constraint, so be correct when using it.
  *
@@ -46,7 +52,7 @@ public final class BatchBuilder {
 
         /** build buffer */
 	private byte[] createBatch(long timestamp, int numberOfNonces, long seed, int numberOfMessages, int totalMessagesSize,
-			boolean useSignatures, byte[][] messages, byte[][] signatures) {
+			boolean useSignatures, byte[][] messages, byte[][] signatures, List<MeasurementMessage> measurements) {
             
                 int sigsSize = 0;
                 
@@ -59,12 +65,21 @@ public final class BatchBuilder {
                         sigsSize += sig.length;
                     }
                 }
+
+                int measurementsSize = 0;
+
+                for (MeasurementMessage measurement : measurements) {
+
+                    measurementsSize += 6 * Integer.BYTES + measurement.getContent().length
+                            + measurement.getSignature().length;
+                }
                 
-		int size = 20 + //timestamp 8, nonces 4, nummessages 4
+		int size = 20 + //timestamp 8, nonces 4, nummessages 4, nummeasurements 4
 				(numberOfNonces > 0 ? 8 : 0) + //seed if needed
 				(Integer.BYTES * numberOfMessages) + // messages length
                                 sigsSize + // signatures size
-				totalMessagesSize; //size of all msges
+				totalMessagesSize + //size of all msges
+				measurementsSize; //size of the measurement section
 
 		ByteBuffer  proposalBuffer = ByteBuffer.allocate(size);
 
@@ -82,8 +97,25 @@ public final class BatchBuilder {
 			putMessage(proposalBuffer,messages[i], useSignatures, signatures[i]);
 		}
 
+		proposalBuffer.putInt(measurements.size());
+
+		for (MeasurementMessage measurement : measurements) {
+			putMeasurement(proposalBuffer, measurement);
+		}
+
 		return proposalBuffer.array();
 	}
+
+	private void putMeasurement(ByteBuffer proposalBuffer, MeasurementMessage measurement) {
+		proposalBuffer.putInt(measurement.getSender());
+		proposalBuffer.putInt(measurement.getType().toInt());
+		proposalBuffer.putInt(measurement.getSession());
+		proposalBuffer.putInt(measurement.getSequence());
+		proposalBuffer.putInt(measurement.getContent().length);
+		proposalBuffer.put(measurement.getContent());
+		proposalBuffer.putInt(measurement.getSignature().length);
+		proposalBuffer.put(measurement.getSignature());
+	}
           
 	private void putMessage(ByteBuffer proposalBuffer, byte[] message, boolean addSig, byte[] signature) {
 		proposalBuffer.putInt(message.length);
@@ -100,6 +132,14 @@ public final class BatchBuilder {
 	}
 
 	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long timestamp, boolean useSignatures) {
+		return makeBatch(msgs, Collections.emptyList(), numNounces, timestamp, useSignatures);
+	}
+
+	/**
+	 * Builds a batch that also carries the given measurements in its measurement section
+	 */
+	public byte[] makeBatch(List<TOMMessage> msgs, List<MeasurementMessage> measurements, int numNounces,
+			long timestamp, boolean useSignatures) {
 
 		int numMsgs = msgs.size();
 		int totalMessageSize = 0; //total size of the messages being batched
@@ -122,10 +162,18 @@ public final class BatchBuilder {
 
 		// return the batch
 		return createBatch(timestamp, numNounces,rnd.nextLong(), numMsgs, totalMessageSize,
-				useSignatures, messages, signatures);
+				useSignatures, messages, signatures, measurements);
 
 	}
 	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long seed, long timestamp, boolean useSignatures) {
+		return makeBatch(msgs, Collections.emptyList(), numNounces, seed, timestamp, useSignatures);
+	}
+
+	/**
+	 * Re-creates a proposed batch, including the measurements of its measurement section (e.g., for state transfer)
+	 */
+	public byte[] makeBatch(List<TOMMessage> msgs, List<MeasurementMessage> measurements, int numNounces, long seed,
+			long timestamp, boolean useSignatures) {
 
 		int numMsgs = msgs.size();
 		int totalMessageSize = 0; //total size of the messages being batched
@@ -148,7 +196,7 @@ public final class BatchBuilder {
 
 		// return the batch
 		return createBatch(timestamp, numNounces,seed, numMsgs, totalMessageSize,
-				useSignatures, messages, signatures);
+				useSignatures, messages, signatures, measurements);
 
 	}
 }
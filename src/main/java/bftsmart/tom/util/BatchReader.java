@@ -17,22 +17,28 @@ package bftsmart.tom.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Random;
 
+import bftsmart.optilog.messages.MeasurementMessage;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
 import org.slf4j.LoggerFactory;
 
 /**
  * Batch format: N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte)] +
  *               TIMESTAMP(long) + N_NONCES(int) + NONCES(byte[])
  *
+ * followed by the measurement section, see BatchBuilder.
+ *
  */
 public final class BatchReader {
 
     private ByteBuffer proposalBuffer;
     private boolean useSignatures;
+    private int measurementsOffset = -1; // start of the measurement section, known once the requests were read
 
     /** wrap buffer */
     public BatchReader(byte[] batch, boolean useSignatures) {
@@ -100,6 +106,79 @@ public final class BatchReader {
                 LoggerFactory.getLogger(this.getClass()).error("Failed to deserialize batch",e);
             }
         }
+        measurementsOffset = proposalBuffer.position();
         return requests;
     }
+
+    /**
+     * Reads the measurement section of the batch. Batches without this section contain no measurements.
+     *
+     * @return the measurements, in the order they were proposed
+     * @throws IllegalArgumentException if the measurement section is malformed
+     */
+    public MeasurementMessage[] deserialiseMeasurements() {
+        try {
+            if (measurementsOffset < 0) {
+                skipRequests();
+            } else {
+                proposalBuffer.position(measurementsOffset);
+            }
+            if (!proposalBuffer.hasRemaining()) {
+                return new MeasurementMessage[0];
+            }
+
+            int numberOfMeasurements = proposalBuffer.getInt();
+            if (numberOfMeasurements < 0 || numberOfMeasurements > proposalBuffer.remaining() / (6 * Integer.BYTES)) {
+                throw new IllegalArgumentException("Invalid number of measurements " + numberOfMeasurements);
+            }
+            MeasurementMessage[] measurements = new MeasurementMessage[numberOfMeasurements];
+
+            for (int i = 0; i < numberOfMeasurements; i++) {
+                int sender = proposalBuffer.getInt();
+                TOMMessageType type = TOMMessageType.fromInt(proposalBuffer.getInt());
+                int session = proposalBuffer.getInt();
+                int sequence = proposalBuffer.getInt();
+                int size = proposalBuffer.getInt();
+                if (size < 0 || size > proposalBuffer.remaining()) {
+                    throw new IllegalArgumentException("Invalid measurement size " + size);
+                }
+                byte[] content = new byte[size];
+                proposalBuffer.get(content);
+                int signatureSize = proposalBuffer.getInt();
+                if (signatureSize < 0 || signatureSize > proposalBuffer.remaining()) {
+                    throw new IllegalArgumentException("Invalid measurement signature size " + signatureSize);
+                }
+                byte[] signature = new byte[signatureSize];
+                proposalBuffer.get(signature);
+                measurements[i] = new MeasurementMessage(sender, type, session, sequence, content, signature);
+            }
+            return measurements;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated measurement section", e);
+        }
+    }
+
+    // Moves to the measurement section without deserializing the requests
+    private void skipRequests() {
+        proposalBuffer.position(0);
+        proposalBuffer.getLong(); // timestamp
+        if (proposalBuffer.getInt() > 0) {
+            proposalBuffer.getLong(); // seed
+        }
+        int numberOfMessages = proposalBuffer.getInt();
+        for (int i = 0; i < numberOfMessages; i++) {
+            skip(proposalBuffer.getInt());
+            if (useSignatures) {
+                skip(Math.max(0, proposalBuffer.getInt()));
+            }
+        }
+        measurementsOffset = proposalBuffer.position();
+    }
+
+    private void skip(int bytes) {
+        if (bytes < 0 || bytes > proposalBuffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        proposalBuffer.position(proposalBuffer.position() + bytes);
+    }
 }